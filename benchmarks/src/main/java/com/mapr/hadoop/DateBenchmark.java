@@ -0,0 +1,66 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to turn one timestamp into millis, with and without the date cache, over the timestamps of
+ * a generated file laid end to end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DateBenchmark {
+    private static final int DATES = 1000;
+    // "dd-MMM-yyyy HH:mm:ss.SSS"
+    private static final int LENGTH = 24;
+
+    @Param({"true", "false"})
+    public boolean dateCache;
+
+    private ByteBuffer dates;
+    private TickParser parser;
+
+    @Setup
+    public void setup() throws IOException {
+        StringWriter csv = new StringWriter();
+        SyntheticTicks.fromSchema().write(csv, DATES, 1);
+        StringBuilder r = new StringBuilder();
+        String[] lines = csv.toString().split("\n");
+        for (int i = 1; i < lines.length; i++) {
+            r.append(lines[i].split(",")[1]);
+        }
+        dates = ByteBuffer.wrap(r.toString().getBytes(Charsets.US_ASCII));
+        parser = new TickParser();
+        parser.useCache(dateCache);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public long parseDateTime() {
+        long sum = 0;
+        for (int i = 0; i < DATES; i++) {
+            sum += parser.parseDateTime(dates, i * LENGTH, (i + 1) * LENGTH);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,59 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to encode one symbol's ticks as JSON, as a list of maps and as an object of arrays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonBenchmark {
+    @Param({"100", "10000"})
+    public int ticks;
+
+    private DataReader.TransactionList list;
+
+    @Setup
+    public void setup() throws IOException {
+        StringWriter csv = new StringWriter();
+        SyntheticTicks.fromSchema().write(csv, ticks, 1);
+        // every tick under one symbol, so the list is exactly this long
+        DataReader.TransactionList all = new DataReader.TransactionList(ticks);
+        byte[] bytes = csv.toString().getBytes(Charsets.UTF_8);
+        for (DataReader.TransactionList symbol : new DataReader().read(Channels.newChannel(new ByteArrayInputStream(bytes))).values()) {
+            all.addAll(symbol);
+        }
+        list = all;
+    }
+
+    @Benchmark
+    public String asJsonMaps() {
+        return list.asJsonMaps();
+    }
+
+    @Benchmark
+    public String asJsonArrays() {
+        return list.asJsonArrays();
+    }
+}
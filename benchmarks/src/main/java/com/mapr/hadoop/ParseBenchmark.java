@@ -0,0 +1,73 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to read a whole file with each of the DataReader paths, with and without the date cache.
+ * The file is generated fresh for every trial from the same seed, so it is the same on every box.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"true", "false"})
+    public boolean dateCache;
+
+    private File file;
+    private DataReader reader;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("ticks", ".csv");
+        SyntheticTicks.fromSchema().write(file, rows, 1);
+        reader = new DataReader();
+        reader.useCache(dateCache);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Map<String, DataReader.TransactionList> strings() throws IOException {
+        return reader.read(Files.newReaderSupplier(file, Charsets.UTF_8));
+    }
+
+    @Benchmark
+    public Map<String, DataReader.TransactionList> bytes() throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            return reader.read(in);
+        }
+    }
+
+    @Benchmark
+    public Map<String, DataReader.TransactionList> mapped() throws IOException {
+        return reader.read(file.toPath());
+    }
+}
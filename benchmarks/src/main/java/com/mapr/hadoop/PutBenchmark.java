@@ -0,0 +1,98 @@
+package com.mapr.hadoop;
+
+import com.mine.hbase.HBaseBackend;
+import com.mine.hbase.ParallelScan;
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.DeleteRequest;
+import org.hbase.async.GetRequest;
+import org.hbase.async.KeyValue;
+import org.hbase.async.PutRequest;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time the client spends on a put of its own: metrics, window and callbacks, with a backend that
+ * acknowledges every request on the spot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PutBenchmark {
+    @Param({"false", "true"})
+    public boolean window;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private TickDataClient client;
+    private KeyValue kv;
+
+    @Setup
+    public void setup() throws Exception {
+        client = new TickDataClient("", "cf1", "ticks");
+        client.setBackend(new Acknowledge());
+        if (window) {
+            client.setWriteWindow(64 << 20, 10000);
+        }
+        if (metrics) {
+            // logged once a minute, which won't happen during an iteration
+            client.enableMetrics(60000);
+        }
+        client.init();
+        DataReader.TransactionList ticks = new DataReader.TransactionList();
+        for (int i = 0; i < 100; i++) {
+            ticks.add(1431955800000L + i * 1000, 36.58);
+        }
+        kv = new KeyValue(TickDataClient.generateKeyString("AAPL", new DateTime(1431955800000L)).getBytes(),
+                client.getColumnFamilyBytes(), TickDataClient.DATA_COLUMN, ticks.asJsonMaps().getBytes());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.term();
+    }
+
+    @Benchmark
+    public Object put() throws Exception {
+        return client.put(kv).joinUninterruptibly();
+    }
+
+    private static class Acknowledge implements HBaseBackend {
+        @Override
+        public Deferred<ArrayList<KeyValue>> get(GetRequest request) {
+            return Deferred.fromResult(new ArrayList<KeyValue>());
+        }
+
+        @Override
+        public Deferred<Object> put(PutRequest request) {
+            return Deferred.fromResult(null);
+        }
+
+        @Override
+        public Deferred<Object> delete(DeleteRequest request) {
+            return Deferred.fromResult(null);
+        }
+
+        @Override
+        public ParallelScan.Range scan(byte[] startKey, byte[] stopKey) {
+            throw new UnsupportedOperationException("Nothing to scan");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.mapr.hadoop;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to make one row key, for hourly and for five minute buckets, as a string and in each
+ * {@link KeyFormat}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RowKeyBenchmark {
+    private static final long FIVE_MINUTES = 5 * 60 * 1000L;
+    private final DateTime time = new DateTime(1431955800000L);
+    private final long bucket = time.getMillis();
+
+    @Benchmark
+    public String hour() {
+        return TickDataClient.generateKeyString("AAPL", time, TickDataClient.HOUR);
+    }
+
+    @Benchmark
+    public String minute() {
+        return TickDataClient.generateKeyString("AAPL", time, FIVE_MINUTES);
+    }
+
+    @Benchmark
+    public byte[] stringHour() {
+        return KeyFormat.STRING.encode("AAPL", bucket, TickDataClient.HOUR);
+    }
+
+    @Benchmark
+    public byte[] binaryHour() {
+        return KeyFormat.BINARY.encode("AAPL", bucket, TickDataClient.HOUR);
+    }
+
+    @Benchmark
+    public byte[] binaryMinute() {
+        return KeyFormat.BINARY.encode("AAPL", bucket, FIVE_MINUTES);
+    }
+}
@@ -0,0 +1,195 @@
+package com.mapr.hadoop;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes tick CSV files like the ones log-synth makes from eoddata.json, except that the same seed
+ * always gives the same file.  Benchmarks generate their input with this, so their numbers can be
+ * compared between machines and commits without passing data files around.
+ * <p/>
+ * Only the parts of the log-synth schema that eoddata.json uses are understood: lookup, date, int
+ * and join of a sequence.  Rows come out in time order, like the Drill CTAS output, with the
+ * columns in the order the readers expect.
+ */
+public class SyntheticTicks {
+    public static final String SCHEMA = "eoddata.json";
+    public static final String HEADER = "symbol,timestamp,open,high,low,close,volume";
+    private static final String[] PRICES = {"open", "high", "low", "close"};
+
+    private final SymbolDictionary symbols;
+    private final DateTimeFormatter format;
+    private final long start;
+    private final long end;
+    private final Map<String, Field> fields;
+
+    private SyntheticTicks(SymbolDictionary symbols, DateTimeFormatter format, long start, long end, Map<String, Field> fields) {
+        this.symbols = symbols;
+        this.format = format;
+        this.start = start;
+        this.end = end;
+        this.fields = fields;
+    }
+
+    /**
+     * Reads eoddata.json from the classpath.
+     */
+    public static SyntheticTicks fromSchema() throws IOException {
+        return fromSchema(Resources.getResource(SCHEMA));
+    }
+
+    /**
+     * The symbol file of a lookup is looked for next to the schema, whatever directory the schema
+     * names it under.
+     */
+    public static SyntheticTicks fromSchema(URL schema) throws IOException {
+        SymbolDictionary symbols = null;
+        DateTimeFormatter format = null;
+        long start = 0;
+        long end = 0;
+        Map<String, Field> fields = Maps.newHashMap();
+        for (JsonNode field : new ObjectMapper().readTree(schema)) {
+            String name = field.get("name").asText();
+            String type = field.get("class").asText();
+            if ("lookup".equals(type)) {
+                URL file = new URL(schema, new File(field.get("file").asText()).getName());
+                symbols = SymbolDictionary.read(Resources.newReaderSupplier(file, Charsets.UTF_8));
+            } else if ("date".equals(type)) {
+                format = DateTimeFormat.forPattern(field.get("format").asText()).withLocale(Locale.ENGLISH);
+                start = format.parseMillis(field.get("start").asText());
+                end = format.parseMillis(field.get("end").asText());
+            } else {
+                fields.put(name, field(field));
+            }
+        }
+        if (symbols == null || format == null) {
+            throw new IOException("Schema " + schema + " needs a lookup and a date field");
+        }
+        for (String name : HEADER.split(",")) {
+            if (!fields.containsKey(name) && !"symbol".equals(name) && !"timestamp".equals(name)) {
+                throw new IOException("Schema " + schema + " has no field " + name);
+            }
+        }
+        return new SyntheticTicks(symbols, format, start, end, fields);
+    }
+
+    private static Field field(JsonNode node) throws IOException {
+        String type = node.get("class").asText();
+        if ("int".equals(type)) {
+            return new IntField(node.get("min").asLong(), node.get("max").asLong());
+        } else if ("join".equals(type)) {
+            JsonNode value = node.get("value");
+            if (!"sequence".equals(value.get("class").asText())) {
+                throw new IOException("Can only join a sequence, not " + value);
+            }
+            List<Field> parts = Lists.newArrayList();
+            for (JsonNode part : value.get("array")) {
+                parts.add(field(part));
+            }
+            return new JoinField(node.get("separator").asText(), parts);
+        }
+        throw new IOException("Unsupported field class " + type);
+    }
+
+    /**
+     * Writes a header and then rows, spread evenly over the day with a random offset within each
+     * row's share of it.
+     */
+    public void write(Writer out, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder line = new StringBuilder();
+        out.write(HEADER);
+        out.write('\n');
+        for (int i = 0; i < rows; i++) {
+            long time = start + (long) ((end - start) * ((i + random.nextDouble()) / rows));
+            line.setLength(0);
+            line.append(symbols.name(random.nextInt(symbols.size()))).append(',');
+            format.printTo(line, time);
+            for (String price : PRICES) {
+                line.append(',');
+                fields.get(price).append(line, random);
+            }
+            line.append(',');
+            fields.get("volume").append(line, random);
+            line.append('\n');
+            out.append(line);
+        }
+    }
+
+    public void write(File file, int rows, long seed) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8), 1 << 16)) {
+            write(out, rows, seed);
+        }
+    }
+
+    /**
+     * Usage: SyntheticTicks rows file [seed]
+     * <p/>
+     * For example 1000000 ../src/test/resources/data.1M.csv gives the file HBaseExampleTest reads.
+     */
+    public static void main(String[] args) throws IOException {
+        int rows = Integer.parseInt(args[0]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        double t0 = System.nanoTime() * 1e-9;
+        fromSchema().write(new File(args[1]), rows, seed);
+        System.out.printf("Wrote %d rows to %s in %.3f seconds\n", rows, args[1], System.nanoTime() * 1e-9 - t0);
+    }
+
+    private interface Field {
+        void append(StringBuilder out, Random random);
+    }
+
+    private static class IntField implements Field {
+        private final long min;
+        private final long max;
+
+        private IntField(long min, long max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public void append(StringBuilder out, Random random) {
+            // max is included, as in log-synth
+            out.append(min + (long) (random.nextDouble() * (max - min + 1)));
+        }
+    }
+
+    private static class JoinField implements Field {
+        private final String separator;
+        private final List<Field> parts;
+
+        private JoinField(String separator, List<Field> parts) {
+            this.separator = separator;
+            this.parts = parts;
+        }
+
+        @Override
+        public void append(StringBuilder out, Random random) {
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    out.append(separator);
+                }
+                parts.get(i).append(out, random);
+            }
+        }
+    }
+}
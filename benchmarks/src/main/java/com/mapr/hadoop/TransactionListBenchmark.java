@@ -0,0 +1,48 @@
+package com.mapr.hadoop;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to add a symbol's ticks to a list that starts at the default size and has to keep doubling,
+ * against one that is big enough from the start.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransactionListBenchmark {
+    // a busy symbol in a day of the 1 billion row data set has tens of thousands of ticks
+    @Param({"1000", "100000"})
+    public int ticks;
+
+    @Benchmark
+    public DataReader.TransactionList grow() {
+        return fill(new DataReader.TransactionList());
+    }
+
+    @Benchmark
+    public DataReader.TransactionList presized() {
+        return fill(new DataReader.TransactionList(ticks));
+    }
+
+    private DataReader.TransactionList fill(DataReader.TransactionList list) {
+        long t = 1431955800000L;
+        for (int i = 0; i < ticks; i++) {
+            list.add(t + i, 36.58, 36.6, 36.5, 36.55, i);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,55 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticTicksTest {
+    @Test
+    public void testSameSeed() throws IOException {
+        assertEquals(generate(1000, 1), generate(1000, 1));
+        assertFalse(generate(1000, 1).equals(generate(1000, 2)));
+    }
+
+    @Test
+    public void testFormat() throws IOException {
+        String csv = generate(10000, 1);
+        String[] lines = csv.split("\n");
+        assertEquals(10001, lines.length);
+        assertEquals(SyntheticTicks.HEADER, lines[0]);
+        assertTrue(lines[1], lines[1].matches("[^,]+,18-May-2015 09:30:\\d\\d\\.\\d{3}(,\\d{1,4}\\.\\d{1,2}){4},\\d{1,4}"));
+
+        Map<String, DataReader.TransactionList> data = new DataReader().read(
+                Channels.newChannel(new ByteArrayInputStream(csv.getBytes(Charsets.UTF_8))));
+        int ticks = 0;
+        for (DataReader.TransactionList list : data.values()) {
+            // rows come out in time order, so every symbol's ticks do too
+            for (int i = 1; i < list.size(); i++) {
+                assertTrue(list.times[i - 1] <= list.times[i]);
+            }
+            for (int i = 0; i < list.size(); i++) {
+                assertTrue(list.opens[i] >= 0 && list.opens[i] < 2001);
+                assertTrue(list.volumes[i] >= 0 && list.volumes[i] <= 2000);
+            }
+            ticks += list.size();
+        }
+        assertEquals(10000, ticks);
+        // symbols are drawn from the whole list
+        assertTrue(data.size() > 1000);
+    }
+
+    private static String generate(int rows, long seed) throws IOException {
+        StringWriter out = new StringWriter();
+        SyntheticTicks.fromSchema().write(out, rows, seed);
+        return out.toString();
+    }
+}
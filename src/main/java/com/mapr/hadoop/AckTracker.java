@@ -0,0 +1,251 @@
+package com.mapr.hadoop;
+
+import com.google.common.collect.Lists;
+import com.mine.hbase.LatencyHistogram;
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows every put of a load until the region server has acknowledged it.  A writer returns as
+ * soon as its puts are queued in the client, so timing the writers says little about how fast the
+ * table is loaded.  This counts a row only once its put has succeeded, and the load is over when
+ * the last put has completed.
+ * <p/>
+ * Latencies run from the call to put to the put's callback, so they include any wait for
+ * room in the write window.
+ */
+public class AckTracker {
+    // symbols listed at the end for each of bytes written and ack latency
+    private static final int OUTLIERS = 5;
+
+    private final long start = System.nanoTime();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final ConcurrentMap<String, SymbolStats> symbols = new ConcurrentHashMap<String, SymbolStats>();
+    private volatile long end = 0;
+
+    /**
+     * Puts one row and follows it.
+     */
+    public Deferred<Object> put(TickSink sink, String symbol, KeyValue kv) {
+        final SymbolStats stats = stats(symbol);
+        pending.incrementAndGet();
+        final long t0 = System.nanoTime();
+        final long size = kv.key().length + kv.value().length;
+        Deferred<Object> put;
+        try {
+            put = sink.put(kv);
+        } catch (RuntimeException e) {
+            completed(stats, size, t0, e);
+            throw e;
+        }
+        return follow(put, stats, size, t0);
+    }
+
+    /**
+     * Puts several cells of one row as a single put, see {@link TickSink#put(List)}, and follows
+     * it as one row.
+     */
+    public Deferred<Object> put(TickSink sink, String symbol, List<KeyValue> row) {
+        final SymbolStats stats = stats(symbol);
+        pending.incrementAndGet();
+        final long t0 = System.nanoTime();
+        long size = row.get(0).key().length;
+        for (KeyValue kv : row) {
+            size += kv.value().length;
+        }
+        Deferred<Object> put;
+        try {
+            put = sink.put(row);
+        } catch (RuntimeException e) {
+            completed(stats, size, t0, e);
+            throw e;
+        }
+        return follow(put, stats, size, t0);
+    }
+
+    private Deferred<Object> follow(Deferred<Object> put, final SymbolStats stats, final long size, final long t0) {
+        return put.addBoth(new Callback<Object, Object>() {
+            @Override
+            public Object call(Object arg) {
+                completed(stats, size, t0, arg);
+                return arg;
+            }
+        });
+    }
+
+    /**
+     * Waits for every put made so far to complete.
+     *
+     * @return False if some are still outstanding after maxWaitMillis.
+     */
+    public boolean await(long maxWaitMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                pending.wait(wait);
+            }
+        }
+        return true;
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Prints acked throughput from the start until the last ack, latency percentiles, failures and
+     * the symbols that stand out.
+     */
+    public void print(PrintStream out) {
+        double seconds = Math.max((end == 0 ? System.nanoTime() : end) - start, 1) * 1e-9;
+        out.printf("Acked %d rows, %.1f MB in %.3f seconds: %.0f rows/s, %.2f MB/s, %d failed, %d outstanding\n",
+                rows.get(), bytes.get() / 1048576.0, seconds, rows.get() / seconds, bytes.get() / 1048576.0 / seconds,
+                failures.get(), pending.get());
+        out.printf("Ack latency p50 %.1fms, p99 %.1fms, p99.9 %.1fms, max %.1fms\n",
+                latencies.percentile(0.5) / 1000.0, latencies.percentile(0.99) / 1000.0,
+                latencies.percentile(0.999) / 1000.0, latencies.percentile(1) / 1000.0);
+
+        List<SymbolStats> all = Lists.newArrayList(symbols.values());
+        if (all.isEmpty()) {
+            return;
+        }
+        Collections.sort(all, new Comparator<SymbolStats>() {
+            @Override
+            public int compare(SymbolStats a, SymbolStats b) {
+                return Long.compare(b.bytes.get(), a.bytes.get());
+            }
+        });
+        long median = all.get(all.size() / 2).bytes.get();
+        out.printf("Largest symbols (median %.1f KB):", median / 1024.0);
+        String separator = " ";
+        for (SymbolStats s : all.subList(0, Math.min(OUTLIERS, all.size()))) {
+            out.printf("%s%s %.1f KB in %d rows", separator, s.symbol, s.bytes.get() / 1024.0, s.rows.get());
+            separator = ", ";
+        }
+        out.println();
+
+        Collections.sort(all, new Comparator<SymbolStats>() {
+            @Override
+            public int compare(SymbolStats a, SymbolStats b) {
+                return Double.compare(b.meanMillis(), a.meanMillis());
+            }
+        });
+        out.printf("Slowest symbols by mean ack latency (median %.1fms):", all.get(all.size() / 2).meanMillis());
+        separator = " ";
+        for (SymbolStats s : all.subList(0, Math.min(OUTLIERS, all.size()))) {
+            out.printf("%s%s %.1fms (max %.1fms)", separator, s.symbol, s.meanMillis(), s.maxMicros.get() / 1000.0);
+            separator = ", ";
+        }
+        out.println();
+
+        long failed = 0;
+        for (SymbolStats s : all) {
+            failed += s.failures.get() > 0 ? 1 : 0;
+        }
+        if (failed > 0) {
+            out.printf("%d symbols had failed puts:", failed);
+            separator = " ";
+            for (SymbolStats s : all) {
+                if (s.failures.get() > 0) {
+                    out.printf("%s%s (%d)", separator, s.symbol, s.failures.get());
+                    separator = ", ";
+                }
+            }
+            out.println();
+        }
+    }
+
+    private SymbolStats stats(String symbol) {
+        SymbolStats stats = symbols.get(symbol);
+        if (stats == null) {
+            SymbolStats created = new SymbolStats(symbol);
+            stats = symbols.putIfAbsent(symbol, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private void completed(SymbolStats stats, long size, long t0, Object result) {
+        long micros = (System.nanoTime() - t0) / 1000;
+        latencies.record(micros);
+        stats.record(micros);
+        if (result instanceof Exception) {
+            failures.incrementAndGet();
+            stats.failures.incrementAndGet();
+        } else {
+            rows.incrementAndGet();
+            bytes.addAndGet(size);
+            stats.rows.incrementAndGet();
+            stats.bytes.addAndGet(size);
+        }
+        end = System.nanoTime();
+        release();
+    }
+
+    private void release() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private static class SymbolStats {
+        private final String symbol;
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong puts = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        private SymbolStats(String symbol) {
+            this.symbol = symbol;
+        }
+
+        private void record(long micros) {
+            puts.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        private double meanMillis() {
+            long n = puts.get();
+            return n == 0 ? 0 : totalMicros.get() / 1000.0 / n;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.mapr.hadoop;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * How a {@link DataReader.TransactionList} is stored in a cell.
+ * <p/>
+ * JSON_MAPS is what Drill can read with convert_from(..., 'JSON').  BINARY is much smaller and faster
+ * to produce.  It holds the number of ticks followed by one column after another, all as zig-zag
+ * varints.  Times and opening prices are deltas from the tick before, high, low and close are deltas
+ * from the same tick's open and volumes are stored as is.  Prices are kept as integer thousandths,
+ * which is the same precision the JSON has.  A binary cell starts with a byte that JSON never starts
+ * with, so {@link #decode(byte[])} can read either.
+ */
+public enum CellFormat {
+    JSON_MAPS {
+        @Override
+        public byte[] encode(DataReader.TransactionList ticks) {
+            return JsonTickWriter.jsonMaps(ticks);
+        }
+    },
+
+    BINARY {
+        @Override
+        public byte[] encode(DataReader.TransactionList ticks) {
+            int n = ticks.size();
+            // most values take two or three bytes, grow if they don't
+            byte[] buf = new byte[16 + 16 * n];
+            buf[0] = BINARY_MAGIC;
+            int pos = putVarint(buf, 1, n);
+
+            long previous = 0;
+            for (int i = 0; i < n; i++) {
+                buf = ensure(buf, pos);
+                pos = putVarint(buf, pos, zigZag(ticks.times[i] - previous));
+                previous = ticks.times[i];
+            }
+            previous = 0;
+            for (int i = 0; i < n; i++) {
+                long scaled = scale(ticks.opens[i]);
+                buf = ensure(buf, pos);
+                pos = putVarint(buf, pos, zigZag(scaled - previous));
+                previous = scaled;
+            }
+            pos = putOffsets(buf = ensure(buf, pos, 10 * n), pos, ticks.highs, ticks);
+            pos = putOffsets(buf = ensure(buf, pos, 10 * n), pos, ticks.lows, ticks);
+            pos = putOffsets(buf = ensure(buf, pos, 10 * n), pos, ticks.closes, ticks);
+            buf = ensure(buf, pos, 10 * n);
+            for (int i = 0; i < n; i++) {
+                pos = putVarint(buf, pos, zigZag(ticks.volumes[i]));
+            }
+            return Arrays.copyOf(buf, pos);
+        }
+    };
+
+    private static final byte BINARY_MAGIC = 2;
+    // binary cells from before high, low, close and volume were kept
+    private static final byte OPEN_ONLY_MAGIC = 1;
+    private static final double PRICE_SCALE = 1000;
+
+    public abstract byte[] encode(DataReader.TransactionList ticks);
+
+    /**
+     * Reads a cell in either format.
+     */
+    public static DataReader.TransactionList decode(byte[] cell) throws IOException {
+        if (cell.length == 0 || (cell[0] != BINARY_MAGIC && cell[0] != OPEN_ONLY_MAGIC)) {
+            return DataReader.TransactionList.fromJsonMaps(cell);
+        }
+
+        int[] pos = {1};
+        int n = (int) getVarint(cell, pos);
+        DataReader.TransactionList r = new DataReader.TransactionList(n);
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += unZigZag(getVarint(cell, pos));
+            r.times[i] = previous;
+        }
+        long[] opens = new long[n];
+        previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += unZigZag(getVarint(cell, pos));
+            opens[i] = previous;
+            r.opens[i] = previous / PRICE_SCALE;
+        }
+        if (cell[0] == OPEN_ONLY_MAGIC) {
+            for (int i = 0; i < n; i++) {
+                r.highs[i] = r.lows[i] = r.closes[i] = r.opens[i];
+            }
+        } else {
+            getOffsets(cell, pos, opens, r.highs);
+            getOffsets(cell, pos, opens, r.lows);
+            getOffsets(cell, pos, opens, r.closes);
+            for (int i = 0; i < n; i++) {
+                r.volumes[i] = unZigZag(getVarint(cell, pos));
+            }
+        }
+        r.insert = n;
+        return r;
+    }
+
+    private static long scale(double price) {
+        return Math.round(price * PRICE_SCALE);
+    }
+
+    /**
+     * Writes a price column as differences from the open of the same tick.  The buffer must have
+     * room for ten bytes per tick.
+     */
+    private static int putOffsets(byte[] buf, int pos, double[] prices, DataReader.TransactionList ticks) {
+        for (int i = 0; i < ticks.size(); i++) {
+            pos = putVarint(buf, pos, zigZag(scale(prices[i]) - scale(ticks.opens[i])));
+        }
+        return pos;
+    }
+
+    private static void getOffsets(byte[] cell, int[] pos, long[] opens, double[] prices) throws IOException {
+        for (int i = 0; i < opens.length; i++) {
+            prices[i] = (opens[i] + unZigZag(getVarint(cell, pos))) / PRICE_SCALE;
+        }
+    }
+
+    private static byte[] ensure(byte[] buf, int pos, int needed) {
+        if (pos + needed > buf.length) {
+            return Arrays.copyOf(buf, Math.max(pos + needed, 2 * buf.length));
+        }
+        return buf;
+    }
+
+    private static byte[] ensure(byte[] buf, int pos) {
+        // a varint is never longer than 10 bytes
+        if (pos + 10 > buf.length) {
+            return Arrays.copyOf(buf, 2 * buf.length);
+        }
+        return buf;
+    }
+
+    private static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int putVarint(byte[] buf, int pos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static long getVarint(byte[] buf, int[] pos) throws IOException {
+        long r = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= buf.length) {
+                throw new IOException("Truncated binary tick cell");
+            }
+            byte b = buf[pos[0]++];
+            r |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return r;
+            }
+        }
+        throw new IOException("Malformed varint in binary tick cell");
+    }
+}
@@ -1,6 +1,10 @@
 package com.mapr.hadoop;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
 import com.google.common.io.InputSupplier;
@@ -10,24 +14,39 @@ import org.joda.time.format.DateTimeFormatter;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
- * Reads CSV data and parses time and price info.  The prices for different equities are kept in a
- * special data structure that keeps data in arrays instead of in generic data structures.
+ * Reads CSV data and parses time, price and volume info.  The data for different equities are kept
+ * in a special data structure that keeps data in arrays instead of in generic data structures.
+ * <p/>
+ * Columns are Symbol,Date,Open,High,Low,Close,Volume.  Files with only the first three still work.
  */
 public class DataReader {
     // default is to cache part of the date string
     private boolean useCache = true;
+    private SymbolDictionary dictionary = SymbolDictionary.EMPTY;
 
     public Map<String, TransactionList> read(InputSupplier<InputStreamReader> input) throws IOException {
         return CharStreams.readLines(
                 input,
                 new LineProcessor<Map<String, TransactionList>>() {
-                    private String price;
                     private String date;
                     private String symbol;
                     // full parsing of the date and time is safer
@@ -49,17 +68,21 @@ public class DataReader {
 
                             symbol = pieces.next();
                             date = pieces.next();
-                            price = pieces.next();
 
                             long timeStamp = parseDateTime(date);
-                            double open = Double.parseDouble(price);
+                            double open = Double.parseDouble(pieces.next());
+                            // older files only have the open price
+                            double high = pieces.hasNext() ? Double.parseDouble(pieces.next()) : open;
+                            double low = pieces.hasNext() ? Double.parseDouble(pieces.next()) : open;
+                            double close = pieces.hasNext() ? Double.parseDouble(pieces.next()) : open;
+                            long volume = pieces.hasNext() ? Long.parseLong(pieces.next()) : 0;
 
                             TransactionList trans = data.get(symbol);
                             if (trans == null) {
                                 trans = new TransactionList();
                                 data.put(symbol, trans);
                             }
-                            trans.add(timeStamp, open);
+                            trans.add(timeStamp, open, high, low, close, volume);
                         }
                         return true;
                     }
@@ -111,41 +134,389 @@ public class DataReader {
                 });
     }
 
+    /**
+     * Reads CSV data straight from bytes without decoding to characters or splitting lines into
+     * strings.  Gives the same result as {@link #read(InputSupplier)}, but much faster.
+     */
+    public Map<String, TransactionList> read(ReadableByteChannel input) throws IOException {
+        TickParser parser = new TickParser(dictionary);
+        parser.useCache(useCache);
+        return parser.read(input);
+    }
+
+    /**
+     * Reads a file by memory mapping it and parsing the mapped bytes in place.  Files bigger than
+     * 2GB are handled by walking through several mappings.
+     */
+    public Map<String, TransactionList> read(Path input) throws IOException {
+        try (FileChannel in = FileChannel.open(input)) {
+            TickParser parser = new TickParser(dictionary);
+            parser.useCache(useCache);
+            return parser.readMapped(in, 0, in.size());
+        }
+    }
+
+    /**
+     * Reads a file in parallel.  The file is cut into byte ranges that start and end on line
+     * boundaries and each range is memory mapped and parsed as a separate task on the executor.  The
+     * per-range results are then appended symbol by symbol in file order, so every list comes out in
+     * the same order as a sequential read would give.
+     *
+     * @param input  The CSV file to read.
+     * @param es     Where to run the parsing tasks.
+     * @param chunks How many ranges to cut the file into, typically the number of threads.
+     */
+    public Map<String, TransactionList> read(Path input, ExecutorService es, int chunks) throws IOException {
+        try (final FileChannel in = FileChannel.open(input)) {
+            final long[] bounds = lineBoundaries(in, chunks);
+
+            List<Future<Map<String, TransactionList>>> parts = Lists.newArrayList();
+            for (int i = 0; i < bounds.length - 1; i++) {
+                final int chunk = i;
+                parts.add(es.submit(new Callable<Map<String, TransactionList>>() {
+                    @Override
+                    public Map<String, TransactionList> call() throws IOException {
+                        TickParser parser = new TickParser(dictionary);
+                        parser.useCache(useCache);
+                        parser.expectHeader(chunk == 0);
+                        return parser.readMapped(in, bounds[chunk], bounds[chunk + 1]);
+                    }
+                }));
+            }
+
+            Map<String, TransactionList> data = Maps.newHashMap();
+            for (Future<Map<String, TransactionList>> part : parts) {
+                for (Map.Entry<String, TransactionList> entry : get(part).entrySet()) {
+                    TransactionList trans = data.get(entry.getKey());
+                    if (trans == null) {
+                        data.put(entry.getKey(), entry.getValue());
+                    } else {
+                        trans.addAll(entry.getValue());
+                    }
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Reads a file the same way as {@link #read(Path, ExecutorService, int)}, but keeps the ticks in
+     * {@link OffHeapTransactionList}s so that they don't add to the heap.  Ranges are joined by
+     * handing over their chunks rather than copying them, each range's lists trimmed first so no
+     * part-filled chunk is left in the middle.  The caller should close each list once it is done
+     * with it.
+     */
+    public Map<String, OffHeapTransactionList> readOffHeap(Path input, ExecutorService es, int chunks) throws IOException {
+        try (final FileChannel in = FileChannel.open(input)) {
+            final long[] bounds = lineBoundaries(in, chunks);
+
+            List<Future<Map<String, OffHeapTransactionList>>> parts = Lists.newArrayList();
+            for (int i = 0; i < bounds.length - 1; i++) {
+                final int chunk = i;
+                parts.add(es.submit(new Callable<Map<String, OffHeapTransactionList>>() {
+                    @Override
+                    public Map<String, OffHeapTransactionList> call() throws IOException {
+                        OffHeapParser parser = new OffHeapParser(dictionary);
+                        parser.useCache(useCache);
+                        parser.expectHeader(chunk == 0);
+                        try {
+                            parser.readMapped(in, bounds[chunk], bounds[chunk + 1]);
+                            for (OffHeapTransactionList list : parser.data.values()) {
+                                list.trim();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            closeAll(parser.data);
+                            throw e;
+                        }
+                        return parser.data;
+                    }
+                }));
+            }
+
+            Map<String, OffHeapTransactionList> data = Maps.newHashMap();
+            try {
+                for (Future<Map<String, OffHeapTransactionList>> part : parts) {
+                    for (Map.Entry<String, OffHeapTransactionList> entry : get(part).entrySet()) {
+                        OffHeapTransactionList trans = data.get(entry.getKey());
+                        if (trans == null) {
+                            data.put(entry.getKey(), entry.getValue());
+                        } else {
+                            trans.transferFrom(entry.getValue());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                closeAll(data);
+                // the ranges we didn't get to are still waiting to be freed
+                for (Future<Map<String, OffHeapTransactionList>> part : parts) {
+                    try {
+                        closeAll(get(part));
+                    } catch (IOException ignored) {
+                        // already reported
+                    }
+                }
+                throw e;
+            }
+            return data;
+        }
+    }
+
+    private static void closeAll(Map<String, OffHeapTransactionList> lists) {
+        for (OffHeapTransactionList list : lists.values()) {
+            list.close();
+        }
+    }
+
+    /**
+     * Parses into off-heap lists instead of the usual ones.
+     */
+    private static class OffHeapParser extends TickParser {
+        private final Map<String, OffHeapTransactionList> data = Maps.newHashMap();
+        // indexed by symbol id
+        private OffHeapTransactionList[] lists = new OffHeapTransactionList[1024];
+
+        OffHeapParser(SymbolDictionary dictionary) {
+            super(dictionary);
+        }
+
+        @Override
+        protected void tick(int symbol, long timeStamp, double open, double high, double low, double close, long volume) {
+            if (symbol >= lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(2 * lists.length, symbol + 1));
+            }
+            OffHeapTransactionList trans = lists[symbol];
+            if (trans == null) {
+                trans = new OffHeapTransactionList();
+                lists[symbol] = trans;
+                data.put(symbolName(symbol), trans);
+            }
+            trans.add(timeStamp, open, high, low, close, volume);
+        }
+    }
+
+    private static <T> T get(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for parser");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Parser failed", e.getCause());
+        }
+    }
+
+    /**
+     * Splits a file into roughly equal ranges with every boundary moved forward to just after the
+     * next newline.  Returns one more offset than there are ranges.  Short files may give fewer
+     * ranges than asked for.
+     */
+    static long[] lineBoundaries(FileChannel in, int chunks) throws IOException {
+        long size = in.size();
+        List<Long> bounds = Lists.newArrayList();
+        bounds.add(0L);
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        for (int i = 1; i < chunks; i++) {
+            long pos = Math.max(size * i / chunks, bounds.get(bounds.size() - 1));
+            // scan forward from the byte before the guess so a guess on a line start stays put
+            pos = Math.max(pos - 1, 0);
+            long lineStart = size;
+            while (pos < size && lineStart == size) {
+                buf.clear();
+                int n = in.read(buf, pos);
+                if (n <= 0) {
+                    break;
+                }
+                for (int j = 0; j < n; j++) {
+                    if (buf.get(j) == '\n') {
+                        lineStart = pos + j + 1;
+                        break;
+                    }
+                }
+                pos += n;
+            }
+            if (lineStart > bounds.get(bounds.size() - 1) && lineStart < size) {
+                bounds.add(lineStart);
+            }
+        }
+        bounds.add(size);
+
+        long[] r = new long[bounds.size()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = bounds.get(i);
+        }
+        return r;
+    }
+
     public void useCache(boolean useCache) {
         this.useCache = useCache;
     }
 
+    /**
+     * Symbols to give fixed ids to when reading bytes.  Others still work, they are just found a
+     * little more slowly.
+     */
+    public void useDictionary(SymbolDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
     /**
      * Keeps a bunch of time-stamped prices in arrays.  Presumably these are for a single equity.
+     * Each column has its own primitive array and they all grow together, so a tick costs exactly
+     * the size of its fields.
      */
     public static class TransactionList {
-        long[] times = new long[10];
-        double[] prices = new double[10];
+        private static final JsonFactory JSON = new JsonFactory();
+
+        long[] times;
+        double[] opens;
+        double[] highs;
+        double[] lows;
+        double[] closes;
+        long[] volumes;
         int insert = 0;
 
+        public TransactionList() {
+            this(10);
+        }
+
+        public TransactionList(int capacity) {
+            allocate(Math.max(capacity, 1));
+        }
+
+        /**
+         * Adds a tick for which only the opening price is known.  The other prices are set to the
+         * same value and the volume to zero.
+         */
         public void add(long timeStamp, double open) {
+            add(timeStamp, open, open, open, open, 0);
+        }
+
+        public void add(long timeStamp, double open, double high, double low, double close, long volume) {
             // need more data?
             if (insert >= times.length) {
-                // reallocate a bigger array and copy our data to the new array
-                int newSize = times.length * 2;
-                long[] newTimes = new long[newSize];
-                System.arraycopy(times, 0, newTimes, 0, insert);
-                times = newTimes;
-
-                double[] newPrices = new double[newSize];
-                System.arraycopy(prices, 0, newPrices, 0, insert);
-                prices = newPrices;
+                // reallocate bigger arrays and copy our data to the new arrays
+                allocate(times.length * 2);
             }
             // add to the current array
             times[insert] = timeStamp;
-            prices[insert] = open;
+            opens[insert] = open;
+            highs[insert] = high;
+            lows[insert] = low;
+            closes[insert] = close;
+            volumes[insert] = volume;
             insert++;
         }
 
+        /**
+         * Adds one tick from another list.
+         */
+        public void add(TransactionList other, int i) {
+            add(other.times[i], other.opens[i], other.highs[i], other.lows[i], other.closes[i], other.volumes[i]);
+        }
+
+        /**
+         * Appends everything from another list, keeping its order.
+         */
+        public void addAll(TransactionList other) {
+            int needed = insert + other.insert;
+            if (needed > times.length) {
+                allocate(Math.max(needed, times.length * 2));
+            }
+            System.arraycopy(other.times, 0, times, insert, other.insert);
+            System.arraycopy(other.opens, 0, opens, insert, other.insert);
+            System.arraycopy(other.highs, 0, highs, insert, other.insert);
+            System.arraycopy(other.lows, 0, lows, insert, other.insert);
+            System.arraycopy(other.closes, 0, closes, insert, other.insert);
+            System.arraycopy(other.volumes, 0, volumes, insert, other.insert);
+            insert = needed;
+        }
+
+        private void allocate(int newSize) {
+            times = insert == 0 ? new long[newSize] : Arrays.copyOf(times, newSize);
+            opens = insert == 0 ? new double[newSize] : Arrays.copyOf(opens, newSize);
+            highs = insert == 0 ? new double[newSize] : Arrays.copyOf(highs, newSize);
+            lows = insert == 0 ? new double[newSize] : Arrays.copyOf(lows, newSize);
+            closes = insert == 0 ? new double[newSize] : Arrays.copyOf(closes, newSize);
+            volumes = insert == 0 ? new long[newSize] : Arrays.copyOf(volumes, newSize);
+        }
+
         public int size() {
             return insert;
         }
 
+        /**
+         * Splits the ticks into time buckets, see {@link TickDataClient#bucketStart(long, long)}.
+         * Order within each bucket is kept.
+         *
+         * @return Lists keyed and sorted by the start of their bucket.
+         */
+        public SortedMap<Long, TransactionList> split(long interval) {
+            SortedMap<Long, TransactionList> r = new TreeMap<Long, TransactionList>();
+            long bucketStart = 0;
+            long bucketEnd = 0;
+            TransactionList bucket = null;
+            for (int i = 0; i < insert; i++) {
+                if (bucket == null || times[i] < bucketStart || times[i] >= bucketEnd) {
+                    bucketStart = TickDataClient.bucketStart(times[i], interval);
+                    bucketEnd = bucketStart + interval;
+                    bucket = r.get(bucketStart);
+                    if (bucket == null) {
+                        bucket = new TransactionList();
+                        r.put(bucketStart, bucket);
+                    }
+                }
+                bucket.add(this, i);
+            }
+            return r;
+        }
+
+        /**
+         * Reads back what {@link #asJsonMaps()} wrote.  Maps from before the high, low, close and
+         * volume were kept only have the open price.
+         */
+        public static TransactionList fromJsonMaps(byte[] json) throws IOException {
+            TransactionList r = new TransactionList();
+            try (JsonParser parser = JSON.createParser(json)) {
+                long time = 0;
+                double open = 0;
+                double high = Double.NaN;
+                double low = Double.NaN;
+                double close = Double.NaN;
+                long volume = 0;
+                for (JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+                    if (token == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("time".equals(name)) {
+                            time = parser.getLongValue();
+                        } else if ("open".equals(name)) {
+                            open = parser.getDoubleValue();
+                        } else if ("high".equals(name)) {
+                            high = parser.getDoubleValue();
+                        } else if ("low".equals(name)) {
+                            low = parser.getDoubleValue();
+                        } else if ("close".equals(name)) {
+                            close = parser.getDoubleValue();
+                        } else if ("volume".equals(name)) {
+                            volume = parser.getLongValue();
+                        }
+                    } else if (token == JsonToken.END_OBJECT) {
+                        if (Double.isNaN(high)) {
+                            r.add(time, open);
+                        } else {
+                            r.add(time, open, high, low, close, volume);
+                        }
+                        high = low = close = Double.NaN;
+                        volume = 0;
+                    }
+                }
+            }
+            return r;
+        }
+
         public String asJsonMaps() {
             Formatter out = new Formatter();
             out.format("[");
@@ -154,7 +525,8 @@ public class DataReader {
                 if (i > 0) {
                     out.format(",");
                 }
-                out.format("{ \"time\": %d, \"open\": %.3f }", times[i], prices[i]);
+                out.format("{ \"time\": %d, \"open\": %.3f, \"high\": %.3f, \"low\": %.3f, \"close\": %.3f, \"volume\": %d }",
+                        times[i], opens[i], highs[i], lows[i], closes[i], volumes[i]);
             }
             out.format("]\n");
             return out.toString();
@@ -167,7 +539,8 @@ public class DataReader {
                 if (i > 0) {
                     out.format(",");
                 }
-                out.format("{ \"time\": %d, \"open\": %.3f }", times[i], prices[i]);
+                out.format("{ \"time\": %d, \"open\": %.3f, \"high\": %.3f, \"low\": %.3f, \"close\": %.3f, \"volume\": %d }",
+                        times[i], opens[i], highs[i], lows[i], closes[i], volumes[i]);
             }
             out.format("]\n");
             return out.toString();
@@ -178,19 +551,7 @@ public class DataReader {
          */
         public String asJsonArrays() {
             Formatter out = new Formatter();
-            out.format("{\"times\":[");
-            String separator = "";
-            for (int i = 0; i < insert; i++) {
-                out.format("%s%d", separator, times[i]);
-                separator = ",";
-            }
-            out.format("],\"open\":[");
-            separator = "";
-            for (int i = 0; i < insert; i++) {
-                out.format("%s%.3f", separator, prices[i]);
-                separator = ",";
-            }
-            out.format("]}\n");
+            formatArrays(out);
             return out.toString();
         }
 
@@ -200,20 +561,40 @@ public class DataReader {
          * @param out The stream to write to.
          */
         public String asJsonArrays(PrintWriter out) {
+            formatArrays(new Formatter(out));
+            return out.toString();
+        }
+
+        private void formatArrays(Formatter out) {
             out.format("{\"times\":[");
+            formatColumn(out, "%s%d", times);
+            out.format("],\"open\":[");
+            formatColumn(out, opens);
+            out.format("],\"high\":[");
+            formatColumn(out, highs);
+            out.format("],\"low\":[");
+            formatColumn(out, lows);
+            out.format("],\"close\":[");
+            formatColumn(out, closes);
+            out.format("],\"volume\":[");
+            formatColumn(out, "%s%d", volumes);
+            out.format("]}\n");
+        }
+
+        private void formatColumn(Formatter out, String format, long[] values) {
             String separator = "";
             for (int i = 0; i < insert; i++) {
-                out.format("%s%d", separator, times[i]);
+                out.format(format, separator, values[i]);
                 separator = ",";
             }
-            out.format("],\"open\":[");
-            separator = "";
+        }
+
+        private void formatColumn(Formatter out, double[] values) {
+            String separator = "";
             for (int i = 0; i < insert; i++) {
-                out.format("%s%.3f", separator, prices[i]);
+                out.format("%s%.3f", separator, values[i]);
                 separator = ",";
             }
-            out.format("]}\n");
-            return out.toString();
         }
     }
 
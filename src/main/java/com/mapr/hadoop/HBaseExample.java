@@ -1,44 +1,115 @@
 package com.mapr.hadoop;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.mine.hbase.HBaseClientManager;
+import com.mine.hbase.HBaseRequestException;
+import com.mine.hbase.RegionSimulator;
+import com.mine.hbase.TimeExceededException;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.hbase.async.KeyValue;
-import org.joda.time.*;
 
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
 import java.util.Set;
 import java.util.concurrent.*;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Files;
 // Input file is in CSV format:
 // Symbol,Date,Open,High,Low,Close,Volume
 // AAIT,18-May-2015 11:29,36.58,36.58,36.58,36.58,375
 
 public class HBaseExample {	
-	private static String generateKeyString(String symbol, DateTime dateTime) {
-        return String.format("%s_%tY-%<tm-%<td-%<tH", symbol ,dateTime.toDate());
-	}
+    private static final int STREAM_QUEUE_SIZE = 1024;
+    // most puts, and bytes of puts, waiting on the region servers at once
+    private static final long WRITE_WINDOW_BYTES = 64 << 20;
+    private static final int WRITE_WINDOW_REQUESTS = 10000;
+    // loader threads sharing each HBaseClient, one client saturates well before 24 threads do
+    private static final int THREADS_PER_CLIENT = 6;
+    // the flush interval follows the load, anywhere from MIN to MAX millis, keeping the p99 put
+    // latency under the target
+    private static final long FLUSH_TARGET_P99 = 500;
+    private static final short MIN_FLUSH_INTERVAL = 10;
+    private static final short MAX_FLUSH_INTERVAL = 1000;
+    // millis between logged summaries of request rates and latencies
+    private static final long METRICS_LOG_PERIOD = 10000;
+    // most millis to wait for the last puts to be acknowledged
+    private static final long ACK_WAIT = 10 * 60 * 1000;
+    // the split points table_refresh.sh creates the table with
+    private static final String SPLITS = "splits.txt";
+
+    private static final String USAGE = "Usage: HBaseExample columnFamily table input threads\n"
+            + "  -Dmode=day|hourly|stream   one row per symbol, or per symbol and bucket (default day)\n"
+            + "  -Dwidth=minutes            bucket width for hourly and stream (default 60)\n"
+            + "  -Dformat=JSON_MAPS|BINARY  how ticks are stored in a cell (default JSON_MAPS)\n"
+            + "  -Doffheap=true             keep parsed ticks out of the heap\n"
+            + "  -Dsymbols=path             symbols_only.tsv, to give known symbols fixed ids\n"
+            + "  -Dsink=hbase|simulated|null  where rows go (default hbase)\n"
+            + "  -Dkeys=string|binary       row key format (default string)\n"
+            + "  -Dslice=seconds            store each bucket as cells of this many seconds\n"
+            + "  -Drefresh=true             only write rows that changed since the last load\n"
+            + "  -Dsim.latency, -Dsim.jitter, -Dsim.bandwidth, -Dsim.failures  shape the simulated sink\n";
+    // defaults for -Dsink=simulated: millis per request plus up to the jitter, and how fast each
+    // region takes in puts
+    private static final long SIM_LATENCY = 2;
+    private static final long SIM_JITTER = 3;
+    private static final long SIM_REGION_MB_PER_SEC = 20;
 
     public static class TickWriterCallable implements Callable<Double> {
-        private TickDataClient tdc;
+        private TickSink sink;
         private Map<String, DataReader.TransactionList> mp;
         private String tableName;
         private String cfName;
         private String key;
+        private long interval;
+        private CellFormat format;
+        private KeyFormat keyFormat;
+        private long slice;
+        private AckTracker acks;
         private Double elapsed;
         Set<String> keySet;
 
-        public TickWriterCallable(TickDataClient _tdc, Map<String,DataReader.TransactionList> _m, String _tableName, String _cfName, String _key) {
-            tdc = _tdc;
+        public TickWriterCallable(TickSink _sink, Map<String,DataReader.TransactionList> _m, String _tableName, String _cfName, String _key) {
+            this(_sink, _m, _tableName, _cfName, _key, 0, CellFormat.JSON_MAPS);
+        }
+
+        /**
+         * @param _interval When greater than zero, each symbol is written as one row per time bucket
+         *                  of this many milliseconds instead of one row for everything.
+         * @param _format   How the ticks are stored in the cell.
+         */
+        public TickWriterCallable(TickSink _sink, Map<String,DataReader.TransactionList> _m, String _tableName, String _cfName, String _key, long _interval, CellFormat _format) {
+            this(_sink, _m, _tableName, _cfName, _key, _interval, _format, new AckTracker());
+        }
+
+        public TickWriterCallable(TickSink _sink, Map<String,DataReader.TransactionList> _m, String _tableName, String _cfName, String _key, long _interval, CellFormat _format,
+                                  AckTracker _acks) {
+            this(_sink, _m, _tableName, _cfName, _key, _interval, _format, KeyFormat.STRING, 0, _acks);
+        }
+
+        /**
+         * @param _keyFormat How the row keys of time buckets are laid out.
+         * @param _slice     When greater than zero, each row is written as one cell per slice of
+         *                   this many milliseconds, see {@link TickSlices}.
+         * @param _acks      Follows the puts until they are acknowledged.
+         */
+        public TickWriterCallable(TickSink _sink, Map<String,DataReader.TransactionList> _m, String _tableName, String _cfName, String _key, long _interval, CellFormat _format,
+                                  KeyFormat _keyFormat, long _slice, AckTracker _acks) {
+            sink = _sink;
             mp = _m;
             tableName = _tableName;
             cfName = _cfName;
             key = _key;
+            interval = _interval;
+            format = _format;
+            keyFormat = _keyFormat;
+            slice = _slice;
+            acks = _acks;
             elapsed = 0.0;
             keySet = new HashSet<String>();
 
@@ -47,12 +118,17 @@ public class HBaseExample {
 
         public void persistMapAsync() throws java.io.IOException {
             byte[] cfNameBytes = Bytes.toBytes(cfName);
-            byte[] columnNameBytes = Bytes.toBytes("data");
 
             double pt0 = System.nanoTime() * 1e-9;
             for (String s : keySet) {
-                KeyValue kv = new KeyValue(Bytes.toBytes(s), cfNameBytes, columnNameBytes, Bytes.toBytes(mp.get(s).asJsonMaps()));
-                tdc.performPut(kv);
+                if (interval > 0) {
+                    for (Map.Entry<Long, DataReader.TransactionList> bucket : mp.get(s).split(interval).entrySet()) {
+                        byte[] rowKey = keyFormat.encode(s, bucket.getKey(), interval);
+                        putRow(sink, acks, s, rowKey, cfNameBytes, bucket.getValue(), format, slice);
+                    }
+                    continue;
+                }
+                putRow(sink, acks, s, Bytes.toBytes(s), cfNameBytes, mp.get(s), format, slice);
             }
             double pt1 = System.nanoTime() * 1e-9;
             // System.out.printf("Wrote %d equities in %.3f seconds\n", mp.size(), pt1 - pt0);
@@ -70,34 +146,392 @@ public class HBaseExample {
         }
     }
 
+    /**
+     * Writes one symbol from an off-heap list and then frees the list.  The encoded cells are all
+     * on the heap by then, so nothing still points at the list.
+     */
+    public static class OffHeapWriterCallable implements Callable<Double> {
+        private TickSink sink;
+        private OffHeapTransactionList ticks;
+        private String cfName;
+        private String key;
+        private long interval;
+        private CellFormat format;
+        private KeyFormat keyFormat;
+        private long slice;
+        private AckTracker acks;
+
+        public OffHeapWriterCallable(TickSink _sink, OffHeapTransactionList _ticks, String _cfName, String _key, long _interval, CellFormat _format) {
+            this(_sink, _ticks, _cfName, _key, _interval, _format, new AckTracker());
+        }
+
+        public OffHeapWriterCallable(TickSink _sink, OffHeapTransactionList _ticks, String _cfName, String _key, long _interval, CellFormat _format, AckTracker _acks) {
+            this(_sink, _ticks, _cfName, _key, _interval, _format, KeyFormat.STRING, 0, _acks);
+        }
+
+        public OffHeapWriterCallable(TickSink _sink, OffHeapTransactionList _ticks, String _cfName, String _key, long _interval, CellFormat _format, KeyFormat _keyFormat,
+                                     long _slice, AckTracker _acks) {
+            sink = _sink;
+            ticks = _ticks;
+            cfName = _cfName;
+            key = _key;
+            interval = _interval;
+            format = _format;
+            keyFormat = _keyFormat;
+            slice = _slice;
+            acks = _acks;
+        }
+
+        @Override
+        public Double call() {
+            byte[] cfNameBytes = Bytes.toBytes(cfName);
+
+            double pt0 = System.nanoTime() * 1e-9;
+            try {
+                if (interval > 0) {
+                    for (Map.Entry<Long, DataReader.TransactionList> bucket : ticks.split(interval).entrySet()) {
+                        byte[] rowKey = keyFormat.encode(key, bucket.getKey(), interval);
+                        putRow(sink, acks, key, rowKey, cfNameBytes, bucket.getValue(), format, slice);
+                    }
+                } else {
+                    putRow(sink, acks, key, Bytes.toBytes(key), cfNameBytes, ticks.toTransactionList(), format, slice);
+                }
+            } finally {
+                ticks.close();
+            }
+            return System.nanoTime() * 1e-9 - pt0;
+        }
+    }
+
+    /**
+     * Takes rows off the queue and writes each one under its symbol and time bucket key until it
+     * sees the end marker.
+     */
+    public static class RowWriterCallable implements Callable<Long> {
+        private TickSink sink;
+        private BlockingQueue<TickStream.Row> queue;
+        private String cfName;
+        private long interval;
+        private CellFormat format;
+        private KeyFormat keyFormat;
+        private long slice;
+        private AckTracker acks;
+
+        public RowWriterCallable(TickSink _sink, BlockingQueue<TickStream.Row> _queue, String _cfName, long _interval, CellFormat _format) {
+            this(_sink, _queue, _cfName, _interval, _format, new AckTracker());
+        }
+
+        public RowWriterCallable(TickSink _sink, BlockingQueue<TickStream.Row> _queue, String _cfName, long _interval, CellFormat _format, AckTracker _acks) {
+            this(_sink, _queue, _cfName, _interval, _format, KeyFormat.STRING, 0, _acks);
+        }
+
+        /**
+         * @param _slice When greater than zero, the rows on the queue are slices of this many
+         *               milliseconds and each is written as a cell of the row for its bucket.
+         */
+        public RowWriterCallable(TickSink _sink, BlockingQueue<TickStream.Row> _queue, String _cfName, long _interval, CellFormat _format, KeyFormat _keyFormat,
+                                 long _slice, AckTracker _acks) {
+            sink = _sink;
+            queue = _queue;
+            cfName = _cfName;
+            interval = _interval;
+            format = _format;
+            keyFormat = _keyFormat;
+            slice = _slice;
+            acks = _acks;
+        }
+
+        @Override
+        public Long call() throws InterruptedException {
+            byte[] cfNameBytes = Bytes.toBytes(cfName);
+
+            long rows = 0;
+            while (true) {
+                TickStream.Row row = queue.take();
+                if (row == TickStream.END) {
+                    return rows;
+                }
+                byte[] key = keyFormat.encode(row.getSymbol(), TickDataClient.bucketStart(row.getBucket(), interval), interval);
+                putRow(sink, acks, row.getSymbol(), key, cfNameBytes, row.getTicks(), format, slice);
+                rows++;
+            }
+        }
+    }
+
+    /**
+     * Refreshes one symbol, writing only its rows that changed, see {@link TableRefresh}.
+     */
+    public static class RefreshCallable implements Callable<Double> {
+        private TableRefresh refresh;
+        private String symbol;
+        private DataReader.TransactionList ticks;
+
+        public RefreshCallable(TableRefresh _refresh, String _symbol, DataReader.TransactionList _ticks) {
+            refresh = _refresh;
+            symbol = _symbol;
+            ticks = _ticks;
+        }
+
+        @Override
+        public Double call() throws TimeExceededException, HBaseRequestException {
+            double pt0 = System.nanoTime() * 1e-9;
+            refresh.refresh(symbol, ticks);
+            return System.nanoTime() * 1e-9 - pt0;
+        }
+    }
+
+    /**
+     * Writes a row as one data cell and its hash, so a later refresh can tell whether it changed,
+     * or as one cell per slice when slice is greater than zero.  Either way the row's cells go in
+     * one put.
+     */
+    private static void putRow(TickSink sink, AckTracker acks, String symbol, byte[] key, byte[] family, DataReader.TransactionList ticks, CellFormat format,
+                               long slice) {
+        if (slice > 0) {
+            acks.put(sink, symbol, TickSlices.row(key, family, ticks, slice, format));
+            return;
+        }
+        // a hash left by an earlier refresh would otherwise vouch for ticks no longer in the row
+        acks.put(sink, symbol, TableRefresh.row(key, family, ticks, format));
+    }
+
+    /**
+     * Parses on this thread and writes on the pool at the same time.  With slices, each slice is
+     * written as soon as the parser is past it rather than waiting for the end of its bucket.  Rows go through a bounded
+     * queue, so memory use doesn't depend on the size of the input.
+     */
+    private static void streamFile(TickSink sink, ExecutorService es, String cfName, String inputFilePath, int nThreads, long interval, CellFormat format, KeyFormat keyFormat,
+                                   long slice, SymbolDictionary dictionary) throws IOException {
+        BlockingQueue<TickStream.Row> queue = new ArrayBlockingQueue<TickStream.Row>(STREAM_QUEUE_SIZE);
+        AckTracker acks = new AckTracker();
+        List<Future<Long>> writers = Lists.newArrayList();
+        for (int i = 0; i < nThreads; i++) {
+            writers.add(es.submit(new RowWriterCallable(sink, queue, cfName, interval, format, keyFormat, slice, acks)));
+        }
+
+        double t0 = System.nanoTime() * 1e-9;
+        TickStream stream = new TickStream(queue, slice > 0 ? slice : interval, dictionary);
+        stream.watch(writers);
+        try (FileChannel in = FileChannel.open(Paths.get(inputFilePath))) {
+            stream.readMapped(in, 0, in.size());
+        } finally {
+            stream.close(nThreads);
+        }
+        double t1 = System.nanoTime() * 1e-9;
+        System.out.printf("Parsed %d rows in %.3f seconds\n", stream.rows(), t1 - t0);
+
+        long written = 0;
+        for (Future<Long> f : writers) {
+            try {
+                written += f.get();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        double t2 = System.nanoTime() * 1e-9;
+        System.out.printf("Queued %d rows in %.3f seconds\n", written, t2 - t0);
+        reportAcks(acks);
+    }
+
+    /**
+     * Reads the whole file into off-heap lists and then writes each symbol, freeing its list as soon
+     * as it has been written.
+     */
+    private static void writeOffHeap(TickSink sink, ExecutorService es, String cfName, String inputFilePath, int nThreads, long interval, CellFormat format, KeyFormat keyFormat,
+                                     long slice, DataReader rd, RegionScheduler scheduler) throws IOException {
+        double t0 = System.nanoTime() * 1e-9;
+        Map<String, OffHeapTransactionList> m = rd.readOffHeap(Paths.get(inputFilePath), es, nThreads);
+        double t1 = System.nanoTime() * 1e-9;
+        System.out.printf("Read %d equities in %.3f seconds, %d MB off heap\n", m.size(), t1 - t0, OffHeapTransactionList.reservedBytes() >> 20);
+
+        List<OffHeapWriterCallable> tasks = Lists.newArrayList();
+        List<byte[]> rowKeys = Lists.newArrayList();
+        AckTracker acks = new AckTracker();
+        for (Map.Entry<String, OffHeapTransactionList> entry : m.entrySet()) {
+            tasks.add(new OffHeapWriterCallable(sink, entry.getValue(), cfName, entry.getKey(), interval, format, keyFormat, slice, acks));
+            rowKeys.add(Bytes.toBytes(entry.getKey()));
+        }
+        try {
+            for (Future<Double> f : scheduler.invokeAll(es, tasks, rowKeys)) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        double t2 = System.nanoTime() * 1e-9;
+        System.out.printf("Queued %d equities in %.3f seconds\n", m.size(), t2 - t1);
+        reportAcks(acks);
+    }
+
+    /**
+     * Waits for the puts still in flight and prints what was really written.  Until then the
+     * numbers above only say how fast the puts were handed to the client.
+     */
+    private static void reportAcks(AckTracker acks) {
+        try {
+            if (!acks.await(ACK_WAIT)) {
+                System.out.printf("Gave up waiting for the last %d puts\n", acks.getPending());
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        acks.print(System.out);
+    }
+
+    /**
+     * A table with the same regions as the real one, shaped by the sim.* system properties.
+     */
+    private static RegionSimulator simulator(List<String> splits) {
+        List<byte[]> keys = Lists.newArrayList();
+        for (String split : splits) {
+            keys.add(Bytes.toBytes(split));
+        }
+        RegionSimulator simulator = new RegionSimulator(keys);
+        simulator.setLatency(Long.getLong("sim.latency", SIM_LATENCY), Long.getLong("sim.jitter", SIM_JITTER));
+        simulator.setRegionBandwidth(Long.getLong("sim.bandwidth", SIM_REGION_MB_PER_SEC) << 20);
+        simulator.setFailureRate(Double.parseDouble(System.getProperty("sim.failures", "0")));
+        return simulator;
+    }
+
+    /**
+     * Usage: HBaseExample columnFamily table input threads
+     * <p/>
+     * Everything else is a system property, see USAGE.
+     */
 	public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.print(USAGE);
+            System.exit(1);
+        }
         String cfName = args[0];
         String tableName = args[1];
         String inputFilePath = args[2];
         int nThreads = Integer.parseInt(args[3]);
+        // "day" writes one row per symbol, "hourly" one row per symbol and time bucket and "stream"
+        // does the same as hourly while parsing
+        String mode = System.getProperty("mode", "day");
+        long interval = Long.getLong("width", TickDataClient.HOUR / 60000) * 60 * 1000;
+        // JSON_MAPS for Drill, BINARY for size and speed
+        CellFormat format = CellFormat.valueOf(System.getProperty("format", "JSON_MAPS").toUpperCase());
+        // keeps the parsed ticks out of the heap until they are written
+        boolean offHeap = Boolean.getBoolean("offheap");
+        // symbols_only.tsv or the like, to give the symbols we expect fixed ids
+        SymbolDictionary dictionary = SymbolDictionary.EMPTY;
+        String symbols = System.getProperty("symbols");
+        if (symbols != null) {
+            dictionary = SymbolDictionary.read(Files.newReaderSupplier(new File(symbols), Charsets.UTF_8));
+        }
+
+        // "hbase" writes to the table, "simulated" to an in-memory stand-in for it and "null"
+        // nowhere, to see how fast the loader alone goes
+        String sinkName = System.getProperty("sink", "hbase");
+        // "string" keys like AAPL_2015-05-18-09 or shorter "binary" ones, see KeyFormat
+        KeyFormat keyFormat = KeyFormat.valueOf(System.getProperty("keys", "string").toUpperCase());
+        // seconds per cell, so a row can be added to later without rewriting it, see TickSlices
+        long slice = Long.parseLong(System.getProperty("slice", "0")) * 1000;
+        if (slice > 0 && interval % slice != 0) {
+            throw new IllegalArgumentException("Slices of " + slice / 1000 + " seconds don't divide buckets of " + interval / 60000 + " minutes");
+        }
+        // only write the rows that changed since the last refresh, see TableRefresh
+        boolean refresh = Boolean.getBoolean("refresh");
+        if (refresh && ("stream".equals(mode) || offHeap || slice > 0)) {
+            throw new IllegalArgumentException("Refresh works for day and hourly loads on the heap, without slices");
+        }
+        List<String> splits = RegionScheduler.readSplits(Resources.newReaderSupplier(Resources.getResource(SPLITS), Charsets.UTF_8));
 
         ExecutorService es = Executors.newFixedThreadPool(nThreads);
+        HBaseClientManager.setPoolSize("", Math.max(1, nThreads / THREADS_PER_CLIENT));
         TickDataClient tdc = new TickDataClient("", cfName, tableName);
-        tdc.init();
+        tdc.setWriteWindow(WRITE_WINDOW_BYTES, WRITE_WINDOW_REQUESTS);
+        tdc.setFlushTarget(FLUSH_TARGET_P99, MIN_FLUSH_INTERVAL, MAX_FLUSH_INTERVAL);
+        tdc.enableMetrics(METRICS_LOG_PERIOD);
+        tdc.setKeyFormat(keyFormat);
+        TickSink sink = tdc;
+        if ("null".equals(sinkName)) {
+            sink = new NullTickSink();
+        } else if ("simulated".equals(sinkName)) {
+            tdc.setBackend(simulator(splits));
+            tdc.init();
+        } else if ("hbase".equals(sinkName)) {
+            tdc.init();
+        } else {
+            throw new IllegalArgumentException("Unknown sink " + sinkName + ", must be hbase, simulated or null");
+        }
+        if (refresh && sink != tdc) {
+            throw new IllegalArgumentException("Refresh needs a table to compare with, not the " + sinkName + " sink");
+        }
+
+        if ("stream".equals(mode)) {
+            try {
+                streamFile(sink, es, cfName, inputFilePath, nThreads, interval, format, keyFormat, slice, dictionary);
+            } finally {
+                es.shutdown();
+                tdc.term();
+            }
+            return;
+        }
+
+        // every region gets an even share of the threads
+        RegionScheduler scheduler = new RegionScheduler(splits, (nThreads + splits.size()) / (splits.size() + 1));
 
         DataReader rd = new DataReader();
+        rd.useDictionary(dictionary);
+        if (offHeap) {
+            writeOffHeap(sink, es, cfName, inputFilePath, nThreads, "hourly".equals(mode) ? interval : 0, format, keyFormat, slice, rd, scheduler);
+            es.shutdown();
+            tdc.term();
+            return;
+        }
+
         double t0 = System.nanoTime() * 1e-9;
-        Map<String, DataReader.TransactionList> m = rd.read(Files.newReaderSupplier(Paths.get(inputFilePath).toFile(), Charsets.UTF_8));
+        Map<String, DataReader.TransactionList> m = rd.read(Paths.get(inputFilePath), es, nThreads);
         double t1 = System.nanoTime() * 1e-9;
         System.out.printf("Read %d equities in %.3f seconds\n", m.size(), t1 - t0);
 
         Set<String> keys = m.keySet();
-        final List<TickWriterCallable> tasks = Lists.newArrayList();
+        final List<Callable<Double>> tasks = Lists.newArrayList();
+        List<byte[]> rowKeys = Lists.newArrayList();
 
         Double totalElapsed = 0.0;
+        AckTracker acks = new AckTracker();
+        TableRefresh tableRefresh = null;
+        if (refresh) {
+            long start = Long.MAX_VALUE;
+            long end = Long.MIN_VALUE;
+            for (DataReader.TransactionList ticks : m.values()) {
+                for (int i = 0; i < ticks.size(); i++) {
+                    start = Math.min(start, ticks.times[i]);
+                    end = Math.max(end, ticks.times[i] + 1);
+                }
+            }
+            tableRefresh = new TableRefresh(tdc, sink, acks, "hourly".equals(mode) ? interval : 0, start, end, format, keyFormat, ACK_WAIT);
+            // symbols that are listed but have no ticks any more lose their rows
+            for (int i = 0; i < dictionary.size(); i++) {
+                if (!m.containsKey(dictionary.name(i))) {
+                    tasks.add(new RefreshCallable(tableRefresh, dictionary.name(i), new DataReader.TransactionList()));
+                    rowKeys.add(Bytes.toBytes(dictionary.name(i)));
+                }
+            }
+        }
         for (String k: keys) {
-            TickWriterCallable t = new TickWriterCallable(tdc, m, tableName, cfName, k);
-            tasks.add(t);
+            if (refresh) {
+                tasks.add(new RefreshCallable(tableRefresh, k, m.get(k)));
+            } else {
+                tasks.add(new TickWriterCallable(sink, m, tableName, cfName, k, "hourly".equals(mode) ? interval : 0, format, keyFormat, slice, acks));
+            }
+            // row keys start with the symbol, so this is the region for every row of it
+            rowKeys.add(Bytes.toBytes(k));
         }
 
         double t2 = System.nanoTime() * 1e-9;
         try {
-            List<Future<Double>> results = es.invokeAll(tasks);
+            List<Future<Double>> results = scheduler.invokeAll(es, tasks, rowKeys);
             for (Future<Double> f: results) {
                 try {
                     totalElapsed += f.get();
@@ -109,7 +543,11 @@ public class HBaseExample {
             e.printStackTrace();
         }
         double t3 = System.nanoTime() * 1e-9;
-        System.out.printf("Wrote %d equities in %.3f seconds\n", m.size(), t3-t2);
+        System.out.printf("Queued %d equities in %.3f seconds\n", m.size(), t3-t2);
+        reportAcks(acks);
+        if (tableRefresh != null) {
+            tableRefresh.print(System.out);
+        }
 
         es.shutdown();
         tdc.term();
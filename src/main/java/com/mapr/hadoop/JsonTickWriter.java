@@ -0,0 +1,255 @@
+package com.mapr.hadoop;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Writes the same JSON as {@link DataReader.TransactionList#asJsonMaps()} and
+ * {@link DataReader.TransactionList#asJsonArrays()}, byte for byte, but straight into a byte array
+ * with no Formatter and no intermediate strings.  The length is worked out first so the array can be
+ * exactly the size of the cell and handed to a KeyValue as is.
+ * <p/>
+ * Prices are printed the way %.3f does, which rounds the shortest decimal form of the double half up.
+ * Nearly every price is far enough from a rounding tie that scaling by 1000 and rounding gives the
+ * same digits, and the few that aren't go through BigDecimal.  The decimal point is always '.', as it
+ * is for the locales we run in.
+ */
+public final class JsonTickWriter {
+    private static final byte[] MAP_START = ascii("{ \"time\": ");
+    private static final byte[] MAP_OPEN = ascii(", \"open\": ");
+    private static final byte[] MAP_HIGH = ascii(", \"high\": ");
+    private static final byte[] MAP_LOW = ascii(", \"low\": ");
+    private static final byte[] MAP_CLOSE = ascii(", \"close\": ");
+    private static final byte[] MAP_VOLUME = ascii(", \"volume\": ");
+    private static final byte[] MAP_END = ascii(" }");
+    private static final int MAP_FIXED = MAP_START.length + MAP_OPEN.length + MAP_HIGH.length + MAP_LOW.length
+            + MAP_CLOSE.length + MAP_VOLUME.length + MAP_END.length;
+    private static final byte[] TIMES_START = ascii("{\"times\":[");
+    private static final byte[] OPEN_START = ascii("],\"open\":[");
+    private static final byte[] HIGH_START = ascii("],\"high\":[");
+    private static final byte[] LOW_START = ascii("],\"low\":[");
+    private static final byte[] CLOSE_START = ascii("],\"close\":[");
+    private static final byte[] VOLUME_START = ascii("],\"volume\":[");
+    private static final byte[] ARRAYS_END = ascii("]}\n");
+    private static final int ARRAYS_FIXED = TIMES_START.length + OPEN_START.length + HIGH_START.length + LOW_START.length
+            + CLOSE_START.length + VOLUME_START.length + ARRAYS_END.length;
+    private static final byte[] LIST_END = ascii("]\n");
+
+    // beyond this, v * 1000 isn't precise enough to tell which way a tie rounds
+    private static final double FAST_LIMIT = 1e9;
+    private static final double TIE_MARGIN = 1e-3;
+
+    private JsonTickWriter() {
+    }
+
+    /**
+     * @return The ticks as a list of maps, the same as asJsonMaps().
+     */
+    public static byte[] jsonMaps(DataReader.TransactionList ticks) {
+        byte[] r = new byte[jsonMapsLength(ticks)];
+        writeJsonMaps(ticks, r, 0);
+        return r;
+    }
+
+    public static int jsonMapsLength(DataReader.TransactionList ticks) {
+        int n = ticks.size();
+        int length = 1 + LIST_END.length + Math.max(n - 1, 0) + n * MAP_FIXED;
+        for (int i = 0; i < n; i++) {
+            length += tickLength(ticks, i);
+        }
+        return length;
+    }
+
+    /**
+     * Writes the ticks as a list of maps into a buffer that the caller may reuse.
+     *
+     * @return The offset just past the last byte written.
+     * @throws ArrayIndexOutOfBoundsException If there isn't {@link #jsonMapsLength} room.
+     */
+    public static int writeJsonMaps(DataReader.TransactionList ticks, byte[] buf, int pos) {
+        buf[pos++] = '[';
+        for (int i = 0; i < ticks.size(); i++) {
+            if (i > 0) {
+                buf[pos++] = ',';
+            }
+            pos = put(buf, pos, MAP_START);
+            pos = putLong(buf, pos, ticks.times[i]);
+            pos = put(buf, pos, MAP_OPEN);
+            pos = putPrice(buf, pos, ticks.opens[i]);
+            pos = put(buf, pos, MAP_HIGH);
+            pos = putPrice(buf, pos, ticks.highs[i]);
+            pos = put(buf, pos, MAP_LOW);
+            pos = putPrice(buf, pos, ticks.lows[i]);
+            pos = put(buf, pos, MAP_CLOSE);
+            pos = putPrice(buf, pos, ticks.closes[i]);
+            pos = put(buf, pos, MAP_VOLUME);
+            pos = putLong(buf, pos, ticks.volumes[i]);
+            pos = put(buf, pos, MAP_END);
+        }
+        return put(buf, pos, LIST_END);
+    }
+
+    /**
+     * @return The ticks as an object holding arrays, the same as asJsonArrays().
+     */
+    public static byte[] jsonArrays(DataReader.TransactionList ticks) {
+        byte[] r = new byte[jsonArraysLength(ticks)];
+        writeJsonArrays(ticks, r, 0);
+        return r;
+    }
+
+    public static int jsonArraysLength(DataReader.TransactionList ticks) {
+        int n = ticks.size();
+        int length = ARRAYS_FIXED + 6 * Math.max(n - 1, 0);
+        for (int i = 0; i < n; i++) {
+            length += tickLength(ticks, i);
+        }
+        return length;
+    }
+
+    /**
+     * Writes the ticks as an object holding arrays into a buffer that the caller may reuse.
+     *
+     * @return The offset just past the last byte written.
+     * @throws ArrayIndexOutOfBoundsException If there isn't {@link #jsonArraysLength} room.
+     */
+    public static int writeJsonArrays(DataReader.TransactionList ticks, byte[] buf, int pos) {
+        pos = put(buf, pos, TIMES_START);
+        pos = putLongs(buf, pos, ticks.times, ticks.size());
+        pos = put(buf, pos, OPEN_START);
+        pos = putPrices(buf, pos, ticks.opens, ticks.size());
+        pos = put(buf, pos, HIGH_START);
+        pos = putPrices(buf, pos, ticks.highs, ticks.size());
+        pos = put(buf, pos, LOW_START);
+        pos = putPrices(buf, pos, ticks.lows, ticks.size());
+        pos = put(buf, pos, CLOSE_START);
+        pos = putPrices(buf, pos, ticks.closes, ticks.size());
+        pos = put(buf, pos, VOLUME_START);
+        pos = putLongs(buf, pos, ticks.volumes, ticks.size());
+        return put(buf, pos, ARRAYS_END);
+    }
+
+    /**
+     * @return The number of characters in the values of one tick.
+     */
+    private static int tickLength(DataReader.TransactionList ticks, int i) {
+        return longLength(ticks.times[i]) + priceLength(ticks.opens[i]) + priceLength(ticks.highs[i])
+                + priceLength(ticks.lows[i]) + priceLength(ticks.closes[i]) + longLength(ticks.volumes[i]);
+    }
+
+    private static int putLongs(byte[] buf, int pos, long[] values, int n) {
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                buf[pos++] = ',';
+            }
+            pos = putLong(buf, pos, values[i]);
+        }
+        return pos;
+    }
+
+    private static int putPrices(byte[] buf, int pos, double[] values, int n) {
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                buf[pos++] = ',';
+            }
+            pos = putPrice(buf, pos, values[i]);
+        }
+        return pos;
+    }
+
+    static int longLength(long v) {
+        if (v < 0) {
+            // Long.MIN_VALUE can't be negated but is 20 characters with its sign
+            return v == Long.MIN_VALUE ? 20 : 1 + digits(-v);
+        }
+        return digits(v);
+    }
+
+    static int putLong(byte[] buf, int pos, long v) {
+        if (v < 0) {
+            if (v == Long.MIN_VALUE) {
+                return put(buf, pos, ascii(Long.toString(v)));
+            }
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int end = pos + digits(v);
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return end;
+    }
+
+    static int priceLength(double v) {
+        long scaled = scaled(v);
+        if (scaled < 0) {
+            return slowPrice(v).length;
+        }
+        int sign = Double.doubleToRawLongBits(v) < 0 ? 1 : 0;
+        return sign + digits(scaled / 1000) + 4;
+    }
+
+    static int putPrice(byte[] buf, int pos, double v) {
+        long scaled = scaled(v);
+        if (scaled < 0) {
+            return put(buf, pos, slowPrice(v));
+        }
+        if (Double.doubleToRawLongBits(v) < 0) {
+            buf[pos++] = '-';
+        }
+        pos = putLong(buf, pos, scaled / 1000);
+        int fraction = (int) (scaled % 1000);
+        buf[pos++] = '.';
+        buf[pos++] = (byte) ('0' + fraction / 100);
+        buf[pos++] = (byte) ('0' + fraction / 10 % 10);
+        buf[pos++] = (byte) ('0' + fraction % 10);
+        return pos;
+    }
+
+    /**
+     * @return The magnitude of v in thousandths, or -1 if v has to be formatted the slow way.
+     */
+    private static long scaled(double v) {
+        double a = Math.abs(v);
+        if (!(a < FAST_LIMIT)) {
+            return -1;
+        }
+        double r = a * 1000;
+        double fraction = r - Math.floor(r);
+        if (Math.abs(fraction - 0.5) < TIE_MARGIN) {
+            return -1;
+        }
+        return Math.round(r);
+    }
+
+    private static byte[] slowPrice(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            return ascii(String.format("%.3f", v));
+        }
+        String digits = new BigDecimal(Double.toString(Math.abs(v))).setScale(3, RoundingMode.HALF_UP).toPlainString();
+        return ascii(Double.doubleToRawLongBits(v) < 0 ? "-" + digits : digits);
+    }
+
+    private static int digits(long v) {
+        int n = 1;
+        while (v >= 10) {
+            v /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    private static int put(byte[] buf, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] r = new byte[s.length()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = (byte) s.charAt(i);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,131 @@
+package com.mapr.hadoop;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * How the row key of a time bucket is laid out.
+ * <p/>
+ * STRING is what {@link TickDataClient#generateKeyString(String, org.joda.time.DateTime, long)}
+ * makes, such as AAPL_2015-05-18-09, readable in the shell and by Drill.  BINARY is the symbol, a
+ * zero byte and the start of the bucket in minutes since the epoch as four big-endian bytes, nine
+ * bytes shorter for hourly keys and twelve for minute keys.  It is written straight into the key
+ * without any formatting.  Either way keys sort by symbol and then by time, so a symbol's rows are
+ * together and in order, and a scan from one symbol to another still works.  A zero byte never
+ * shows up in a string key, so {@link #bucketStart(byte[])} and {@link #symbol(byte[])} read both.
+ */
+public enum KeyFormat {
+    STRING {
+        @Override
+        public byte[] encode(String symbol, long bucket, long interval) {
+            return Bytes.toBytes(generate(symbol, bucket, interval));
+        }
+    },
+
+    BINARY {
+        @Override
+        public byte[] encode(String symbol, long bucket, long interval) {
+            int n = symbol.length();
+            byte[] key = new byte[n + BINARY_SUFFIX];
+            for (int i = 0; i < n; i++) {
+                char c = symbol.charAt(i);
+                if (c >= 0x80) {
+                    // not plain ASCII, take the slow way
+                    return binary(Bytes.toBytes(symbol), bucket);
+                }
+                key[i] = (byte) c;
+            }
+            putMinute(key, n + 1, bucket);
+            return key;
+        }
+    };
+
+    static final DateTimeFormatter HOUR_KEY = DateTimeFormat.forPattern("yyyy-MM-dd-HH");
+    static final DateTimeFormatter MINUTE_KEY = DateTimeFormat.forPattern("yyyy-MM-dd-HH-mm");
+    // the zero byte and the minute
+    private static final int BINARY_SUFFIX = 5;
+    private static final long MINUTE = 60 * 1000L;
+
+    /**
+     * @param bucket   Start of the time bucket, see {@link TickDataClient#bucketStart(long, long)}.
+     * @param interval Width of the bucket.  String keys for an hour or more leave out the minute.
+     */
+    public abstract byte[] encode(String symbol, long bucket, long interval);
+
+    /**
+     * The time is printed in the default time zone, which is what the buckets are aligned to.
+     */
+    static String generate(String symbol, long bucket, long interval) {
+        StringBuilder r = new StringBuilder(symbol.length() + 17).append(symbol).append('_');
+        (interval >= TickDataClient.HOUR ? HOUR_KEY : MINUTE_KEY).printTo(r, bucket);
+        return r.toString();
+    }
+
+    private static byte[] binary(byte[] symbol, long bucket) {
+        byte[] key = new byte[symbol.length + BINARY_SUFFIX];
+        System.arraycopy(symbol, 0, key, 0, symbol.length);
+        putMinute(key, symbol.length + 1, bucket);
+        return key;
+    }
+
+    private static void putMinute(byte[] key, int at, long bucket) {
+        // unsigned, good until the year 10136
+        long minute = bucket / MINUTE;
+        key[at] = (byte) (minute >>> 24);
+        key[at + 1] = (byte) (minute >>> 16);
+        key[at + 2] = (byte) (minute >>> 8);
+        key[at + 3] = (byte) minute;
+    }
+
+    /**
+     * @return The start of the bucket in a key of either format, null if it isn't a bucket key.
+     */
+    public static Long bucketStart(byte[] key) {
+        if (isBinary(key)) {
+            int at = key.length - BINARY_SUFFIX + 1;
+            long minute = (key[at] & 0xFFL) << 24 | (key[at + 1] & 0xFFL) << 16 | (key[at + 2] & 0xFFL) << 8 | key[at + 3] & 0xFFL;
+            return minute * MINUTE;
+        }
+        String row = Bytes.toString(key);
+        Long start = parseBucket(row, MINUTE_KEY, 16);
+        return start != null ? start : parseBucket(row, HOUR_KEY, 13);
+    }
+
+    /**
+     * @return The symbol of a bucket key of either format, or the whole key if it is a day row.
+     */
+    public static String symbol(byte[] key) {
+        if (isBinary(key)) {
+            return Bytes.toString(key, 0, key.length - BINARY_SUFFIX);
+        }
+        String row = Bytes.toString(key);
+        if (parseBucket(row, MINUTE_KEY, 16) != null) {
+            return row.substring(0, row.length() - 17);
+        }
+        if (parseBucket(row, HOUR_KEY, 13) != null) {
+            return row.substring(0, row.length() - 14);
+        }
+        return row;
+    }
+
+    private static boolean isBinary(byte[] key) {
+        return key.length > BINARY_SUFFIX && key[key.length - BINARY_SUFFIX] == 0;
+    }
+
+    /**
+     * @return The start of the bucket in a string key, null if the key doesn't end in a time of
+     * that length.
+     */
+    private static Long parseBucket(String row, DateTimeFormatter format, int length) {
+        int at = row.length() - length;
+        if (at < 1 || row.charAt(at - 1) != '_') {
+            return null;
+        }
+        try {
+            return format.parseMillis(row.substring(at));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
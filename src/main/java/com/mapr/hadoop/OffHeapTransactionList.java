@@ -0,0 +1,327 @@
+package com.mapr.hadoop;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Holds the same columns as {@link DataReader.TransactionList}, but in direct buffers outside the
+ * Java heap.  A whole file of ticks then costs the garbage collector nothing to trace or copy.
+ * <p/>
+ * Ticks go into chunks.  When a chunk is full a new one is added and nothing is copied, so there is
+ * never a moment where the old and new arrays are both live.  Chunks start small so that the
+ * thousands of symbols with only a few ticks stay cheap, and double up to a limit.  Within a chunk
+ * each column is a contiguous run of longs or doubles.
+ * <p/>
+ * Doubling leaves the last chunk of a list anything up to half empty, which over thousands of lists
+ * adds up to as much again as the ticks themselves.  {@link #trim()} copies the last chunk into one
+ * of just the right size once a list is loaded, after which the lists hold 48 bytes per tick.
+ * <p/>
+ * The memory is given back by {@link #close()}, typically as soon as the symbol has been written.
+ * Buffers that are never closed are still freed, but only whenever the collector gets round to it.
+ */
+public class OffHeapTransactionList implements Closeable {
+    private static final int FIRST_CHUNK = 256;
+    private static final int MAX_CHUNK = 1 << 16;
+    // time, open, high, low, close and volume
+    private static final int BYTES_PER_TICK = 48;
+
+    private static final AtomicLong reserved = new AtomicLong();
+
+    // there is no public way to free a direct buffer, so this is Unsafe.invokeCleaner on Java 9 and
+    // later and the buffer's own cleaner before that
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    private static final Method CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception e) {
+            invokeCleaner = null;
+            try {
+                cleaner = ByteBuffer.allocateDirect(1).getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+            } catch (Exception e2) {
+                cleaner = null;
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+    }
+
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    // index of the first tick in each chunk, with one more entry than there are chunks
+    private int[] starts = new int[5];
+    private int chunkCount = 0;
+    // where the next tick goes in the last chunk
+    private int insert = 0;
+    private int size = 0;
+    private boolean closed = false;
+
+    public void add(long timeStamp, double open, double high, double low, double close, long volume) {
+        checkState(!closed, "List has been closed");
+        ByteBuffer chunk = chunkCount == 0 ? null : chunks[chunkCount - 1];
+        if (chunk == null || insert == capacity(chunk)) {
+            chunk = addChunk();
+        }
+        int capacity = capacity(chunk);
+        int offset = 8 * insert;
+        chunk.putLong(offset, timeStamp);
+        chunk.putDouble(offset + 8 * capacity, open);
+        chunk.putDouble(offset + 16 * capacity, high);
+        chunk.putDouble(offset + 24 * capacity, low);
+        chunk.putDouble(offset + 32 * capacity, close);
+        chunk.putLong(offset + 40 * capacity, volume);
+        insert++;
+        size++;
+        starts[chunkCount] = size;
+    }
+
+    /**
+     * Moves all of another list's chunks onto the end of this one without copying them.  The other
+     * list is left empty and can be reused.  The last chunk of this list is not filled any further.
+     */
+    public void transferFrom(OffHeapTransactionList other) {
+        checkState(!closed && !other.closed, "List has been closed");
+        for (int i = 0; i < other.chunkCount; i++) {
+            int count = other.starts[i + 1] - other.starts[i];
+            ensureChunks();
+            chunks[chunkCount++] = other.chunks[i];
+            size += count;
+            starts[chunkCount] = size;
+            insert = count;
+        }
+        Arrays.fill(other.chunks, 0, other.chunkCount, null);
+        other.chunkCount = 0;
+        other.insert = 0;
+        other.size = 0;
+        other.starts[0] = 0;
+    }
+
+    /**
+     * Shrinks the last chunk to fit the ticks in it, copying at most one chunk.  Ticks can still be
+     * added afterwards, they go into a new chunk.
+     */
+    public void trim() {
+        checkState(!closed, "List has been closed");
+        if (chunkCount == 0 || insert == capacity(chunks[chunkCount - 1])) {
+            return;
+        }
+        ByteBuffer old = chunks[chunkCount - 1];
+        int capacity = capacity(old);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(insert * BYTES_PER_TICK).order(ByteOrder.nativeOrder());
+        ByteBuffer from = old.duplicate();
+        for (int column = 0; column < BYTES_PER_TICK / 8; column++) {
+            from.limit(8 * (column * capacity + insert)).position(8 * column * capacity);
+            chunk.put(from);
+        }
+        reserved.addAndGet(chunk.capacity() - old.capacity());
+        free(old);
+        chunks[chunkCount - 1] = chunk;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int i) {
+        return getLong(i, 0);
+    }
+
+    public double getOpen(int i) {
+        return getDouble(i, 8);
+    }
+
+    public double getHigh(int i) {
+        return getDouble(i, 16);
+    }
+
+    public double getLow(int i) {
+        return getDouble(i, 24);
+    }
+
+    public double getClose(int i) {
+        return getDouble(i, 32);
+    }
+
+    public long getVolume(int i) {
+        return getLong(i, 40);
+    }
+
+    /**
+     * Copies the ticks onto the heap, for instance to encode them.
+     */
+    public DataReader.TransactionList toTransactionList() {
+        checkState(!closed, "List has been closed");
+        DataReader.TransactionList r = new DataReader.TransactionList(size);
+        for (int k = 0; k < chunkCount; k++) {
+            copy(k, starts[k], starts[k + 1], r);
+        }
+        return r;
+    }
+
+    /**
+     * Does the same as {@link DataReader.TransactionList#split(long)}.  Only the buckets are on the
+     * heap, this list is left as it is.
+     */
+    public SortedMap<Long, DataReader.TransactionList> split(long interval) {
+        checkState(!closed, "List has been closed");
+        SortedMap<Long, DataReader.TransactionList> r = new TreeMap<Long, DataReader.TransactionList>();
+        long bucketStart = 0;
+        long bucketEnd = 0;
+        DataReader.TransactionList bucket = null;
+        for (int k = 0; k < chunkCount; k++) {
+            ByteBuffer chunk = chunks[k];
+            int capacity = capacity(chunk);
+            for (int j = 0; j < starts[k + 1] - starts[k]; j++) {
+                long time = chunk.getLong(8 * j);
+                if (bucket == null || time < bucketStart || time >= bucketEnd) {
+                    bucketStart = TickDataClient.bucketStart(time, interval);
+                    bucketEnd = bucketStart + interval;
+                    bucket = r.get(bucketStart);
+                    if (bucket == null) {
+                        bucket = new DataReader.TransactionList();
+                        r.put(bucketStart, bucket);
+                    }
+                }
+                bucket.add(time,
+                        chunk.getDouble(8 * (j + capacity)), chunk.getDouble(8 * (j + 2 * capacity)),
+                        chunk.getDouble(8 * (j + 3 * capacity)), chunk.getDouble(8 * (j + 4 * capacity)),
+                        chunk.getLong(8 * (j + 5 * capacity)));
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Frees the memory straight away.  The list can't be used after this.  Closing twice is fine.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (int k = 0; k < chunkCount; k++) {
+            reserved.addAndGet(-chunks[k].capacity());
+            free(chunks[k]);
+            chunks[k] = null;
+        }
+        chunkCount = 0;
+        size = 0;
+    }
+
+    /**
+     * @return How many bytes this list is holding outside the heap.
+     */
+    public long getReservedBytes() {
+        long bytes = 0;
+        for (int k = 0; k < chunkCount; k++) {
+            bytes += chunks[k].capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return How many bytes all open lists are holding outside the heap.
+     */
+    public static long reservedBytes() {
+        return reserved.get();
+    }
+
+    private void copy(int k, int from, int to, DataReader.TransactionList r) {
+        ByteBuffer chunk = chunks[k];
+        int capacity = capacity(chunk);
+        for (int j = 0; j < to - from; j++) {
+            r.add(chunk.getLong(8 * j),
+                    chunk.getDouble(8 * (j + capacity)), chunk.getDouble(8 * (j + 2 * capacity)),
+                    chunk.getDouble(8 * (j + 3 * capacity)), chunk.getDouble(8 * (j + 4 * capacity)),
+                    chunk.getLong(8 * (j + 5 * capacity)));
+        }
+    }
+
+    private long getLong(int i, int column) {
+        int k = chunkOf(i);
+        ByteBuffer chunk = chunks[k];
+        return chunk.getLong(column * capacity(chunk) + 8 * (i - starts[k]));
+    }
+
+    private double getDouble(int i, int column) {
+        int k = chunkOf(i);
+        ByteBuffer chunk = chunks[k];
+        return chunk.getDouble(column * capacity(chunk) + 8 * (i - starts[k]));
+    }
+
+    private int chunkOf(int i) {
+        checkState(!closed, "List has been closed");
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " with size " + size);
+        }
+        // last chunk where starts[k] <= i
+        int k = Arrays.binarySearch(starts, 0, chunkCount, i);
+        if (k < 0) {
+            return -k - 2;
+        }
+        // chunks taken over by transferFrom can't be empty, so a match is the right one
+        return k;
+    }
+
+    private ByteBuffer addChunk() {
+        // doubles what there is so far rather than the last chunk, which may have been trimmed
+        int capacity = Math.min(Math.max(FIRST_CHUNK, 2 * Integer.highestOneBit(size)), MAX_CHUNK);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(capacity * BYTES_PER_TICK).order(ByteOrder.nativeOrder());
+        reserved.addAndGet(chunk.capacity());
+        ensureChunks();
+        chunks[chunkCount++] = chunk;
+        starts[chunkCount] = size;
+        insert = 0;
+        return chunk;
+    }
+
+    private void ensureChunks() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+            starts = Arrays.copyOf(starts, chunks.length + 1);
+        }
+    }
+
+    private static int capacity(ByteBuffer chunk) {
+        return chunk.capacity() / BYTES_PER_TICK;
+    }
+
+    /**
+     * Releases a direct buffer now rather than when it is collected.  If neither way of doing that
+     * is available the buffer is simply left for the collector.
+     */
+    private static void free(ByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else if (CLEANER != null) {
+                Object cleaner = CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            // leave it to the collector
+        }
+    }
+}
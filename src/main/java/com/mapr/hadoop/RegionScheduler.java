@@ -0,0 +1,151 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+import com.google.common.io.InputSupplier;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Runs write tasks so that every region of the table is written at a steady rate.  Handing the
+ * tasks to the pool in hash map order makes runs of them land on the same region, and then most
+ * threads wait on one region server while the others idle.  Here each task is put in the region
+ * its row key falls in, no region ever has more than a fixed number of tasks running and the
+ * regions take turns, so all of them are kept busy at once.
+ * <p/>
+ * The region boundaries are the split points the table was created with, one per line in
+ * splits.txt, which table_refresh.sh uses as well.  asynchbase has no public way to list the
+ * regions of a table, so the file stands in for a region lookup.
+ */
+public class RegionScheduler {
+    private static final Comparator<byte[]> KEY_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    // the first key of every region but the first, sorted
+    private final byte[][] splits;
+    private final int maxPerRegion;
+
+    /**
+     * @param splits       Split points the table was created with, in any order.
+     * @param maxPerRegion Most tasks writing to one region at once.
+     */
+    public RegionScheduler(List<String> splits, int maxPerRegion) {
+        checkArgument(maxPerRegion > 0, "maxPerRegion must be positive");
+        this.splits = new byte[splits.size()][];
+        for (int i = 0; i < splits.size(); i++) {
+            this.splits[i] = splits.get(i).getBytes(Charsets.UTF_8);
+        }
+        Arrays.sort(this.splits, KEY_ORDER);
+        this.maxPerRegion = maxPerRegion;
+    }
+
+    /**
+     * Reads split points, one per line.  Blank lines are skipped.
+     */
+    public static List<String> readSplits(InputSupplier<InputStreamReader> input) throws IOException {
+        List<String> splits = Lists.newArrayList();
+        for (String line : CharStreams.readLines(input)) {
+            if (line.trim().length() > 0) {
+                splits.add(line.trim());
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * @return The region a row key falls in, from 0 up to regions() - 1.
+     */
+    public int region(byte[] key) {
+        int i = Arrays.binarySearch(splits, key, KEY_ORDER);
+        // a split point is the first key of the region after it
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    public int regions() {
+        return splits.length + 1;
+    }
+
+    public int getMaxPerRegion() {
+        return maxPerRegion;
+    }
+
+    /**
+     * Like {@link ExecutorService#invokeAll(java.util.Collection)}, except that tasks start in
+     * region order.  Within a region they start in row key order.
+     *
+     * @param keys The row key each task writes, or the first of them.
+     * @return The futures, all of them done, in the same order as the tasks.
+     */
+    public <T> List<Future<T>> invokeAll(ExecutorService es, List<? extends Callable<T>> tasks, List<byte[]> keys) throws InterruptedException {
+        checkArgument(tasks.size() == keys.size(), "need one key per task");
+        List<ArrayDeque<Integer>> queues = queues(keys);
+
+        CompletionService<T> cs = new ExecutorCompletionService<T>(es);
+        List<Future<T>> futures = Lists.newArrayList(Collections.<Future<T>>nCopies(tasks.size(), null));
+        Map<Future<T>, Integer> running = newHashMap();
+        try {
+            // a round of one task per region, as many times as a region may run tasks at once
+            for (int round = 0; round < maxPerRegion; round++) {
+                for (int region = 0; region < queues.size(); region++) {
+                    start(cs, tasks, queues, region, futures, running);
+                }
+            }
+            while (!running.isEmpty()) {
+                Future<T> done = cs.take();
+                start(cs, tasks, queues, running.remove(done), futures, running);
+            }
+        } finally {
+            for (Future<T> f : running.keySet()) {
+                f.cancel(true);
+            }
+        }
+        return futures;
+    }
+
+    private List<ArrayDeque<Integer>> queues(final List<byte[]> keys) {
+        List<List<Integer>> regions = Lists.newArrayList();
+        for (int i = 0; i < regions(); i++) {
+            regions.add(Lists.<Integer>newArrayList());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            regions.get(region(keys.get(i))).add(i);
+        }
+        List<ArrayDeque<Integer>> queues = Lists.newArrayList();
+        for (List<Integer> region : regions) {
+            Collections.sort(region, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return KEY_ORDER.compare(keys.get(a), keys.get(b));
+                }
+            });
+            queues.add(new ArrayDeque<Integer>(region));
+        }
+        return queues;
+    }
+
+    private static <T> void start(CompletionService<T> cs, List<? extends Callable<T>> tasks, List<ArrayDeque<Integer>> queues, int region,
+                                  List<Future<T>> futures, Map<Future<T>, Integer> running) {
+        Integer next = queues.get(region).poll();
+        if (next != null) {
+            Future<T> f = cs.submit(tasks.get(next));
+            futures.set(next, f);
+            running.put(f, region);
+        }
+    }
+}
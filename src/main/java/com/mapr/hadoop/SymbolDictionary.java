@@ -0,0 +1,142 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+import com.google.common.io.InputSupplier;
+import com.google.common.io.LineProcessor;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A fixed set of symbols, each with a dense id from 0 to size() - 1, that can be looked up straight
+ * from the bytes of a line.  The symbols are known before we start (symbols_only.tsv), so they go
+ * into a byte trie.  Finding a symbol is one step per byte with no hashing and no comparison
+ * afterwards, and the trie is never changed after it is built so parsers on different threads can
+ * share it and agree on the ids.
+ * <p/>
+ * The trie only has branches for bytes that occur in some symbol, which for tickers is just the
+ * capital letters, so it stays small.
+ */
+public class SymbolDictionary {
+    public static final SymbolDictionary EMPTY = new SymbolDictionary(Collections.<String>emptyList());
+
+    // the branch a byte takes out of a node, -1 for bytes that aren't in any symbol
+    private final int[] slots = new int[256];
+    private final int width;
+    // node * width + slot gives the child node, 0 for none as the root is never anyone's child
+    private int[] children;
+    // the symbol ending at each node, -1 if none does
+    private int[] ids;
+    private int nodes = 1;
+    private final String[] names;
+
+    /**
+     * Builds a dictionary with ids in the order given.  Repeats keep their first id.
+     */
+    public SymbolDictionary(List<String> symbols) {
+        List<byte[]> keys = Lists.newArrayList();
+        List<String> unique = Lists.newArrayList();
+        Arrays.fill(slots, -1);
+        int w = 0;
+        for (String symbol : symbols) {
+            byte[] key = symbol.getBytes(Charsets.UTF_8);
+            for (byte b : key) {
+                if (slots[b & 0xff] < 0) {
+                    slots[b & 0xff] = w++;
+                }
+            }
+            keys.add(key);
+        }
+        width = Math.max(w, 1);
+        children = new int[16 * width];
+        ids = new int[16];
+        Arrays.fill(ids, -1);
+        for (int i = 0; i < keys.size(); i++) {
+            if (insert(keys.get(i), unique.size())) {
+                unique.add(symbols.get(i));
+            }
+        }
+        names = unique.toArray(new String[unique.size()]);
+    }
+
+    /**
+     * Reads symbols from the first column of a tab separated file such as symbols_only.tsv.  A
+     * header line with the column name "Symbol" is skipped.
+     */
+    public static SymbolDictionary read(InputSupplier<InputStreamReader> input) throws IOException {
+        return new SymbolDictionary(CharStreams.readLines(input, new LineProcessor<List<String>>() {
+            private final List<String> symbols = Lists.newArrayList();
+
+            @Override
+            public boolean processLine(String line) {
+                int tab = line.indexOf('\t');
+                String symbol = (tab < 0 ? line : line.substring(0, tab)).trim();
+                if (symbol.length() > 0 && !(symbols.isEmpty() && "Symbol".equalsIgnoreCase(symbol))) {
+                    symbols.add(symbol);
+                }
+                return true;
+            }
+
+            @Override
+            public List<String> getResult() {
+                return symbols;
+            }
+        }));
+    }
+
+    /**
+     * @return The id of the symbol in buf from start up to end, or -1 if it isn't in the dictionary.
+     */
+    public int get(ByteBuffer buf, int start, int end) {
+        int node = 0;
+        for (int i = start; i < end; i++) {
+            int slot = slots[buf.get(i) & 0xff];
+            if (slot < 0) {
+                return -1;
+            }
+            node = children[node * width + slot];
+            if (node == 0) {
+                return -1;
+            }
+        }
+        return ids[node];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return False if the key was already there.
+     */
+    private boolean insert(byte[] key, int id) {
+        int node = 0;
+        for (byte b : key) {
+            int branch = node * width + slots[b & 0xff];
+            if (children[branch] == 0) {
+                if (nodes == ids.length) {
+                    ids = Arrays.copyOf(ids, 2 * nodes);
+                    Arrays.fill(ids, nodes, ids.length, -1);
+                    children = Arrays.copyOf(children, 2 * nodes * width);
+                }
+                children[branch] = nodes++;
+            }
+            node = children[branch];
+        }
+        if (ids[node] >= 0) {
+            return false;
+        }
+        ids[node] = id;
+        return true;
+    }
+}
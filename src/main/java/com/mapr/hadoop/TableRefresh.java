@@ -0,0 +1,257 @@
+package com.mapr.hadoop;
+
+import com.google.common.collect.Lists;
+import com.mine.hbase.HBaseRequestException;
+import com.mine.hbase.TimeExceededException;
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hbase.async.KeyValue;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Brings a table up to date with a new copy of the data without reloading it.  Each row is written
+ * along with a hash of its ticks in {@link TickDataClient#HASH_COLUMN}, in the same put.  A refresh
+ * gets the hashes of a symbol's rows in one batch, writes only the rows whose ticks hash
+ * differently and deletes the rows that no longer have any ticks, so refreshing a day in which a
+ * few symbols changed costs little more than reading the hashes.
+ * <p/>
+ * The rows looked at for a symbol are those for every bucket from start to end, so buckets outside
+ * that range that have gone away are left alone, as are symbols that aren't refreshed at all.
+ * Rows written as slices, see {@link TickSlices}, have {@link TickDataClient#SLICED} for a hash.
+ * They are read in full along with rows that have no hash at all, written again as one data cell,
+ * and have their slice cells deleted once that is in.  A row without a hash that no longer has
+ * ticks can't be told from a missing one, so it stays.
+ */
+public class TableRefresh {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final TickDataClient client;
+    private final TickSink sink;
+    private final AckTracker acks;
+    private final long interval;
+    private final long start;
+    private final long end;
+    private final CellFormat format;
+    private final KeyFormat keyFormat;
+    private final long maxWaitTime;
+    private final byte[] family;
+
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+
+    /**
+     * @param client      Reads the rows and deletes them.
+     * @param sink        Takes the puts, usually the client.
+     * @param interval    Bucket width, or zero for one row per symbol.
+     * @param start       Time of the first tick of the data, the start of the buckets looked at.
+     * @param end         Time after the last tick.
+     * @param maxWaitTime Most millis to wait for the rows or the deletes of a symbol.
+     */
+    public TableRefresh(TickDataClient client, TickSink sink, AckTracker acks, long interval, long start, long end, CellFormat format, KeyFormat keyFormat,
+                        long maxWaitTime) {
+        checkArgument(interval >= 0, "Interval must not be negative, not %s", interval);
+        this.client = client;
+        this.sink = sink;
+        this.acks = acks;
+        this.interval = interval;
+        this.start = start;
+        this.end = end;
+        this.format = format;
+        this.keyFormat = keyFormat;
+        this.maxWaitTime = maxWaitTime;
+        this.family = client.getColumnFamilyBytes();
+    }
+
+    /**
+     * Writes the symbol's rows that changed and deletes those that have no ticks any more.  The
+     * puts are followed by the AckTracker, the deletes are done by the time this returns.
+     *
+     * @param ticks All of the symbol's ticks, empty if it has none any more.
+     */
+    public void refresh(String symbol, DataReader.TransactionList ticks) throws TimeExceededException, HBaseRequestException {
+        List<byte[]> keys = Lists.newArrayList();
+        List<DataReader.TransactionList> rows = Lists.newArrayList();
+        if (interval == 0) {
+            keys.add(Bytes.toBytes(symbol));
+            rows.add(ticks.size() > 0 ? ticks : null);
+        } else {
+            SortedMap<Long, DataReader.TransactionList> buckets = ticks.split(interval);
+            for (long bucket = TickDataClient.bucketStart(start, interval); bucket < end; bucket += interval) {
+                keys.add(keyFormat.encode(symbol, bucket, interval));
+                rows.add(buckets.remove(bucket));
+            }
+            // ticks outside the range still get written
+            for (Map.Entry<Long, DataReader.TransactionList> bucket : buckets.entrySet()) {
+                keys.add(keyFormat.encode(symbol, bucket.getKey(), interval));
+                rows.add(bucket.getValue());
+            }
+        }
+
+        byte[][] stored = client.getHashes(keys, maxWaitTime);
+        List<byte[]> gone = Lists.newArrayList();
+        // rows that may have cells besides data and hash, which are looked at in full
+        List<byte[]> unknown = Lists.newArrayList();
+        List<List<KeyValue>> replacements = Lists.newArrayList();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] key = keys.get(i);
+            DataReader.TransactionList row = rows.get(i);
+            if (row == null) {
+                if (stored[i] != null) {
+                    gone.add(key);
+                }
+                continue;
+            }
+            long hash = hash(row, format);
+            boolean plain = stored[i] != null && stored[i].length == 8;
+            if (plain && Bytes.toLong(stored[i]) == hash) {
+                unchanged.incrementAndGet();
+                continue;
+            }
+            written.incrementAndGet();
+            if (plain) {
+                acks.put(sink, symbol, row(key, family, row, format, hash));
+                continue;
+            }
+            // new, sliced or written before rows had hashes
+            unknown.add(key);
+            replacements.add(row(key, family, row, format, hash));
+        }
+
+        if (!unknown.isEmpty()) {
+            replace(symbol, unknown, replacements);
+        }
+        if (!gone.isEmpty()) {
+            try {
+                client.deleteRows(gone).joinUninterruptibly(maxWaitTime);
+            } catch (Exception e) {
+                throw new HBaseRequestException("Unable to delete " + gone.size() + " rows of " + symbol, e);
+            }
+            deleted.addAndGet(gone.size());
+        }
+    }
+
+    /**
+     * Writes rows that may have slices, and deletes the slice cells once the data that replaces
+     * them is in.  If the put fails the slices stay, and the AckTracker counts the failure.
+     */
+    private void replace(String symbol, List<byte[]> keys, List<List<KeyValue>> replacements) throws TimeExceededException, HBaseRequestException {
+        List<ArrayList<KeyValue>> stored = client.getRows(keys, maxWaitTime);
+        List<Deferred<Object>> results = Lists.newArrayList();
+        int sliced = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            final List<KeyValue> slices = Lists.newArrayList();
+            for (KeyValue cell : stored.get(i)) {
+                if (!Arrays.equals(cell.qualifier(), TickDataClient.DATA_COLUMN) && !Arrays.equals(cell.qualifier(), TickDataClient.HASH_COLUMN)) {
+                    slices.add(cell);
+                }
+            }
+            Deferred<Object> put = acks.put(sink, symbol, replacements.get(i));
+            if (slices.isEmpty()) {
+                continue;
+            }
+            sliced += slices.size();
+            results.add(put.addCallbacks(new Callback<Object, Object>() {
+                @Override
+                public Object call(Object arg) {
+                    return client.deleteCells(slices);
+                }
+            }, new Callback<Object, Exception>() {
+                @Override
+                public Object call(Exception e) {
+                    return null;
+                }
+            }));
+        }
+        if (!results.isEmpty()) {
+            try {
+                Deferred.group(results).joinUninterruptibly(maxWaitTime);
+            } catch (Exception e) {
+                throw new HBaseRequestException("Unable to delete " + sliced + " slices of " + symbol, e);
+            }
+        }
+    }
+
+    /**
+     * A row's data cell and the hash of its ticks, to go in one put, so the hash is never left
+     * describing other ticks than the row has.
+     */
+    public static List<KeyValue> row(byte[] key, byte[] family, DataReader.TransactionList ticks, CellFormat format) {
+        return row(key, family, ticks, format, hash(ticks, format));
+    }
+
+    private static List<KeyValue> row(byte[] key, byte[] family, DataReader.TransactionList ticks, CellFormat format, long hash) {
+        List<KeyValue> r = Lists.newArrayList();
+        r.add(new KeyValue(key, family, TickDataClient.DATA_COLUMN, format.encode(ticks)));
+        r.add(new KeyValue(key, family, TickDataClient.HASH_COLUMN, Bytes.toBytes(hash)));
+        return r;
+    }
+
+    /**
+     * A hash of the ticks and the format they are stored in.  Cheaper than encoding them, and
+     * different for any change of a time, price or volume short of a 64 bit collision.
+     */
+    public static long hash(DataReader.TransactionList ticks, CellFormat format) {
+        int n = ticks.size();
+        long h = step(format.ordinal() + 1, n);
+        for (int i = 0; i < n; i++) {
+            h = step(h, ticks.times[i]);
+            h = step(h, Double.doubleToLongBits(ticks.opens[i]));
+            h = step(h, Double.doubleToLongBits(ticks.highs[i]));
+            h = step(h, Double.doubleToLongBits(ticks.lows[i]));
+            h = step(h, Double.doubleToLongBits(ticks.closes[i]));
+            h = step(h, ticks.volumes[i]);
+        }
+        return mix(h);
+    }
+
+    private static long step(long h, long value) {
+        return (h ^ mix(value)) * GOLDEN_GAMMA;
+    }
+
+    /**
+     * The finalizer of SplitMix64.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return Rows whose hash matched, so weren't written.
+     */
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return Rows written because they were new or had changed.
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return Rows deleted because they had no ticks any more.
+     */
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    public void print(PrintStream out) {
+        long rows = unchanged.get() + written.get();
+        out.printf("Refreshed %d rows: %d unchanged, %d written (%.1f%%), %d deleted\n",
+                rows, unchanged.get(), written.get(), 100.0 * written.get() / Math.max(rows, 1), deleted.get());
+    }
+}
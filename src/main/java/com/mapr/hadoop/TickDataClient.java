@@ -1,12 +1,231 @@
 package com.mapr.hadoop;
 
+import com.google.common.collect.Lists;
 import com.mine.hbase.GenericHBaseClient;
+import com.mine.hbase.HBaseRequestException;
+import com.mine.hbase.ParallelScan;
+import com.mine.hbase.TimeExceededException;
+import com.stumbleupon.async.Deferred;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hbase.async.KeyValue;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by vince on 5/21/15.
  */
-public class TickDataClient extends GenericHBaseClient {
+public class TickDataClient extends GenericHBaseClient implements TickSink {
+    public static final long HOUR = 3600 * 1000L;
+    public static final byte[] DATA_COLUMN = Bytes.toBytes("data");
+    // where TableRefresh keeps the hash of what it wrote in a row
+    public static final byte[] HASH_COLUMN = Bytes.toBytes("hash");
+    // what a row written as slices has in HASH_COLUMN, as no one hash covers ticks added a slice at a time
+    public static final byte[] SLICED = new byte[0];
+    public static final long DEFAULT_CURRENT_ROW_TTL = 1000;
+
+    private long currentRowTtl = DEFAULT_CURRENT_ROW_TTL;
+    private KeyFormat keyFormat = KeyFormat.STRING;
+
     public TickDataClient(String quorumSpecification, String columnFamily, String tableName) {
         super(quorumSpecification,  columnFamily,  tableName);
     }
+
+    /**
+     * Same as {@link #performPut(KeyValue)}.
+     */
+    @Override
+    public Deferred<Object> put(KeyValue kv) {
+        return performPut(kv);
+    }
+
+    /**
+     * Same as {@link #performRowPut(List)}.
+     */
+    @Override
+    public Deferred<Object> put(List<KeyValue> row) {
+        return performRowPut(row);
+    }
+
+    /**
+     * With a cache, rows that may still be getting ticks are only cached for this many millis.
+     * That is a row for a bucket that started less than an hour ago, or a whole day row.  Older
+     * rows don't change, so they stay cached until evicted.
+     */
+    public void setCurrentRowTtl(long currentRowTtl) {
+        this.currentRowTtl = currentRowTtl;
+    }
+
+    /**
+     * How the row keys of time buckets are laid out, {@link KeyFormat#STRING} unless set.  Must be
+     * what the table was written with.
+     */
+    public void setKeyFormat(KeyFormat keyFormat) {
+        this.keyFormat = keyFormat;
+    }
+
+    public KeyFormat getKeyFormat() {
+        return keyFormat;
+    }
+
+    @Override
+    protected long cacheTtl(byte[] key) {
+        Long start = KeyFormat.bucketStart(key);
+        if (start != null && start + HOUR <= System.currentTimeMillis()) {
+            return 0;
+        }
+        return currentRowTtl;
+    }
+
+    public static String generateKeyString(String symbol, DateTime dateTime) {
+        return KeyFormat.generate(symbol, dateTime.getMillis(), HOUR);
+    }
+
+    /**
+     * Key for the row holding a time bucket.  Buckets of an hour or more use the hourly key, shorter
+     * ones add the minute.  Either way keys for one symbol sort in time order.
+     */
+    public static String generateKeyString(String symbol, DateTime dateTime, long interval) {
+        return KeyFormat.generate(symbol, dateTime.getMillis(), interval);
+    }
+
+    /**
+     * Start of the time bucket holding a time.  Buckets are aligned in local time so that they line
+     * up with the hours and minutes in the row keys.
+     */
+    public static long bucketStart(long time, long interval) {
+        long local = time + DateTimeZone.getDefault().getOffset(time);
+        return time - local % interval;
+    }
+
+    /**
+     * Reads the row for the time bucket that holds a time.
+     *
+     * @return The ticks in that bucket, empty if there is no such row.
+     */
+    public DataReader.TransactionList getTicks(String symbol, long time, long interval, long maxWaitTime) throws TimeExceededException, HBaseRequestException {
+        long bucket = bucketStart(time, interval);
+        return getTicks(symbol, bucket, bucket + interval, interval, maxWaitTime);
+    }
+
+    /**
+     * Reads the ticks for a symbol from start up to end.  Only the rows for buckets that overlap
+     * the range are fetched, in one batch of gets.  Rows can be one data cell or a cell per slice,
+     * see {@link TickSlices}.
+     *
+     * @param interval    The bucket width the table was written with.
+     * @param maxWaitTime When set to less than zero, waits for completion.  Covers all of the gets.
+     */
+    public DataReader.TransactionList getTicks(String symbol, long start, long end, long interval, long maxWaitTime) throws TimeExceededException, HBaseRequestException {
+        List<byte[]> keys = Lists.newArrayList();
+        for (long bucket = bucketStart(start, interval); bucket < end; bucket += interval) {
+            keys.add(keyFormat.encode(symbol, bucket, interval));
+        }
+        ArrayList<ArrayList<KeyValue>> rows = performGet(keys, null, maxWaitTime);
+
+        DataReader.TransactionList r = new DataReader.TransactionList();
+        try {
+            for (ArrayList<KeyValue> row : rows) {
+                DataReader.TransactionList bucket = TickSlices.stitch(row);
+                for (int i = 0; i < bucket.size(); i++) {
+                    if (bucket.times[i] >= start && bucket.times[i] < end) {
+                        r.add(bucket, i);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new HBaseRequestException("Unable to decode ticks for " + symbol, e);
+        }
+        return r;
+    }
+
+    /**
+     * Writes ticks as one cell per slice of the rows for their buckets, so a live feed can keep
+     * adding to the current row without rewriting it, see {@link TickSlices}.  Each row's slices go
+     * in one put.  A slice's cell is
+     * replaced each time, so ticks for a slice that was written before must come with the ones that
+     * were in it.  Simplest is to hold on to the ticks of the current slice and write it once it is
+     * over.
+     *
+     * @param interval The bucket width of the table.
+     * @param width    The slice width, such as a second or a minute.
+     * @param format   How each slice is stored.
+     */
+    public Deferred<ArrayList<Object>> putTicks(String symbol, DataReader.TransactionList ticks, long interval, long width, CellFormat format) {
+        List<Deferred<Object>> results = Lists.newArrayList();
+        for (Map.Entry<Long, DataReader.TransactionList> bucket : ticks.split(interval).entrySet()) {
+            byte[] key = keyFormat.encode(symbol, bucket.getKey(), interval);
+            results.add(performRowPut(TickSlices.row(key, getColumnFamilyBytes(), bucket.getValue(), width, format)));
+        }
+        return Deferred.group(results);
+    }
+
+    /**
+     * Reads what rows have in {@link #HASH_COLUMN}, in one batch of gets.
+     *
+     * @return One value per key in the same order, an eight byte hash, {@link #SLICED}, or null for
+     * rows without one.
+     */
+    public byte[][] getHashes(List<byte[]> keys, long maxWaitTime) throws TimeExceededException, HBaseRequestException {
+        ArrayList<ArrayList<KeyValue>> rows = performGet(keys, HASH_COLUMN, maxWaitTime);
+        byte[][] r = new byte[rows.size()][];
+        for (int i = 0; i < r.length; i++) {
+            ArrayList<KeyValue> row = rows.get(i);
+            if (!row.isEmpty()) {
+                r[i] = row.get(0).value();
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Reads every cell of some rows in one batch of gets.
+     *
+     * @return The cells of each key in the same order, empty for rows that aren't there.
+     */
+    public ArrayList<ArrayList<KeyValue>> getRows(List<byte[]> keys, long maxWaitTime) throws TimeExceededException, HBaseRequestException {
+        return performGet(keys, null, maxWaitTime);
+    }
+
+    /**
+     * Same as {@link #performDelete(java.util.Collection)}.
+     */
+    public Deferred<ArrayList<Object>> deleteRows(List<byte[]> keys) {
+        return performDelete(keys);
+    }
+
+    /**
+     * Deletes single cells, each with {@link #performDeleteCell(KeyValue)}.
+     */
+    public Deferred<ArrayList<Object>> deleteCells(List<KeyValue> cells) {
+        List<Deferred<Object>> results = Lists.newArrayList();
+        for (KeyValue cell : cells) {
+            results.add(performDeleteCell(cell));
+        }
+        return Deferred.group(results);
+    }
+
+    /**
+     * Reads every row from startRow up to stopRow with one scanner per region, all at once, which is
+     * how a whole day gets exported without waiting on one region at a time.
+     *
+     * @param startRow First row key, or null for the start of the table.
+     * @param stopRow  Row key after the last one, or null for the end of the table.
+     * @param splits   The table's split points, see {@link RegionScheduler#readSplits}.
+     * @param ordered  Whether rows come back in key order.  Unordered is faster.
+     */
+    public ParallelScan scanRows(String startRow, String stopRow, List<String> splits, boolean ordered) {
+        List<byte[]> keys = Lists.newArrayList();
+        for (String split : splits) {
+            keys.add(Bytes.toBytes(split));
+        }
+        byte[] start = startRow == null ? new byte[0] : Bytes.toBytes(startRow);
+        byte[] stop = stopRow == null ? new byte[0] : Bytes.toBytes(stopRow);
+        return scan(start, stop, keys, ordered, ParallelScan.DEFAULT_MAX_BUFFERED_ROWS);
+    }
 }
@@ -0,0 +1,501 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Parses CSV tick data directly from bytes.  Lines and fields are found by scanning for newlines and
+ * commas and the symbol, time, prices and volume are decoded in place, so no strings are built per
+ * line.  The only allocations are for symbols we haven't seen before and for the occasional change
+ * of date.  Symbols are turned into small integer ids, see {@link SymbolDictionary}, and everything
+ * kept per symbol is in arrays indexed by id.
+ * <p/>
+ * The result is the same as {@link DataReader#read(com.google.common.io.InputSupplier)} gives for
+ * the same input.
+ */
+public class TickParser {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // a single mapping can't be bigger than 2GB, so big files are walked in pieces this size
+    static final int MAPPED_SEGMENT_SIZE = 1 << 30;
+
+    // powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    // conversion constants
+    private static final int X1MS = 1;
+    private static final int X10MS = 10;
+    private static final int X100MS = 100;
+    private static final int X1SECOND = 1000;
+    private static final int X10SECONDS = 10000;
+    private static final int X1MINUTE = 60 * X1SECOND;
+    private static final int X10MINUTES = 600 * X1SECOND;
+    private static final int X1HOUR = 60 * X1MINUTE;
+    private static final int X10HOURS = 600 * X1MINUTE;
+
+    // Symbol,Date,Open,High,Low,Close,Volume
+    private static final int FIELDS = 7;
+
+    // length of "dd-MMM-yyyy" and of "dd-MMM-yyyy HH:mm:ss.SSS"
+    private static final int DATE_LENGTH = 11;
+    private static final int DATE_TIME_LENGTH = 24;
+
+    private final DateTimeFormatter fmt = DateTimeFormat.forPattern("dd-MMM-yyyy HH:mm:ss.SSS");
+    private final DateTimeFormatter dateOnlyFmt = DateTimeFormat.forPattern("dd-MMM-yyyy");
+
+    private final Map<String, DataReader.TransactionList> data = Maps.newHashMap();
+    // symbols known up front have the ids the dictionary gives them
+    private final SymbolDictionary dictionary;
+    // any others get the ids after those, in the order we first see them
+    private final SymbolTable symbols = new SymbolTable();
+    // indexed by symbol id, null for symbols with no ticks yet
+    private String[] names;
+    private DataReader.TransactionList[] lists;
+
+    private boolean useCache = true;
+    private boolean header = true;
+
+    // where each field of the current line starts and ends
+    private final int[] starts = new int[FIELDS];
+    private final int[] ends = new int[FIELDS];
+
+    // this is the cache of the last date we converted
+    private final byte[] lastDate = new byte[DATE_LENGTH];
+    private boolean haveDate = false;
+    // and the millisecond offset at the beginning of that day
+    private long baseTime = 0;
+
+    public TickParser() {
+        this(SymbolDictionary.EMPTY);
+    }
+
+    /**
+     * @param dictionary Symbols to look up in the dictionary before falling back to registering
+     *                   them as they are seen.
+     */
+    public TickParser(SymbolDictionary dictionary) {
+        this.dictionary = dictionary;
+        names = new String[Math.max(1024, dictionary.size())];
+        lists = new DataReader.TransactionList[names.length];
+    }
+
+    /**
+     * Reads everything from a channel.  The channel is not closed.
+     */
+    public Map<String, DataReader.TransactionList> read(ReadableByteChannel in) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        while (in.read(buf) >= 0) {
+            buf.flip();
+            parse(buf);
+            buf.compact();
+            if (!buf.hasRemaining()) {
+                throw new IOException("Line longer than " + BUFFER_SIZE + " bytes");
+            }
+        }
+        buf.flip();
+        finish(buf);
+        return data;
+    }
+
+    /**
+     * Reads the bytes from start up to end of a file.  Uses positional reads so that several parsers
+     * can share one channel.  The range should begin at the start of a line.
+     */
+    public Map<String, DataReader.TransactionList> read(FileChannel in, long start, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long pos = start;
+        while (pos < end) {
+            if (buf.remaining() > end - pos) {
+                buf.limit(buf.position() + (int) (end - pos));
+            }
+            int n = in.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+            buf.flip();
+            parse(buf);
+            buf.compact();
+            if (!buf.hasRemaining()) {
+                throw new IOException("Line longer than " + BUFFER_SIZE + " bytes");
+            }
+        }
+        buf.flip();
+        finish(buf);
+        return data;
+    }
+
+    /**
+     * Reads the bytes from start up to end of a file by memory mapping it, so that the parser works
+     * straight out of the page cache with no copying.  The file is mapped a segment at a time and
+     * each new mapping starts at the beginning of the line the previous one cut off.
+     */
+    public Map<String, DataReader.TransactionList> readMapped(FileChannel in, long start, long end) throws IOException {
+        return readMapped(in, start, end, MAPPED_SEGMENT_SIZE);
+    }
+
+    Map<String, DataReader.TransactionList> readMapped(FileChannel in, long start, long end, int segmentSize) throws IOException {
+        long pos = start;
+        while (pos < end) {
+            long length = Math.min(segmentSize, end - pos);
+            MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, pos, length);
+            if (pos + length == end) {
+                parse(buf);
+                finish(buf);
+            } else {
+                parse(buf);
+                if (buf.position() == 0) {
+                    throw new IOException("Line longer than " + segmentSize + " bytes at offset " + pos);
+                }
+            }
+            pos += buf.position();
+        }
+        return data;
+    }
+
+    /**
+     * Parses all complete lines between the buffer's position and limit.  On return the position is
+     * just past the last newline, so any partial line is left in the buffer.
+     */
+    public void parse(ByteBuffer buf) {
+        int limit = buf.limit();
+        int start = buf.position();
+        for (int i = start; i < limit; i++) {
+            if (buf.get(i) == '\n') {
+                line(buf, start, i);
+                start = i + 1;
+            }
+        }
+        buf.position(start);
+    }
+
+    /**
+     * Parses whatever is left in the buffer as a final line that has no trailing newline.
+     */
+    public void finish(ByteBuffer buf) {
+        if (buf.position() < buf.limit()) {
+            line(buf, buf.position(), buf.limit());
+        }
+        buf.position(buf.limit());
+    }
+
+    public Map<String, DataReader.TransactionList> getResult() {
+        return data;
+    }
+
+    public void useCache(boolean useCache) {
+        this.useCache = useCache;
+    }
+
+    /**
+     * Set to false when parsing a piece of a file that doesn't start with the header line.
+     */
+    public void expectHeader(boolean header) {
+        this.header = header;
+    }
+
+    private void line(ByteBuffer buf, int start, int end) {
+        if (end > start && buf.get(end - 1) == '\r') {
+            end--;
+        }
+        if (header) {
+            // ignore header
+            header = false;
+            return;
+        }
+        if (start == end) {
+            return;
+        }
+
+        // find the fields, trimmed of spaces
+        int fields = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end && fields < FIELDS; i++) {
+            if (i == end || buf.get(i) == ',') {
+                starts[fields] = skipSpace(buf, fieldStart, i);
+                ends[fields] = trimSpace(buf, starts[fields], i);
+                fields++;
+                fieldStart = i + 1;
+            }
+        }
+        if (fields < 3) {
+            throw new IllegalArgumentException("Expected symbol, date and price in line: " + ascii(buf, start, end));
+        }
+
+        long timeStamp = parseDateTime(buf, starts[1], ends[1]);
+        double open = parsePrice(buf, starts[2], ends[2]);
+        // older files only have the open price, like DataReader take whatever fields are there
+        double high = fields > 3 ? parsePrice(buf, starts[3], ends[3]) : open;
+        double low = fields > 4 ? parsePrice(buf, starts[4], ends[4]) : open;
+        double close = fields > 5 ? parsePrice(buf, starts[5], ends[5]) : open;
+        long volume = fields > 6 ? parseVolume(buf, starts[6], ends[6]) : 0;
+        tick(lookup(buf, starts[0], ends[0]), timeStamp, open, high, low, close, volume);
+    }
+
+    /**
+     * Finds the id of a symbol, registering it on first sight.
+     */
+    private int lookup(ByteBuffer buf, int start, int end) {
+        int id = dictionary.get(buf, start, end);
+        if (id >= 0) {
+            if (names[id] == null) {
+                register(id, dictionary.name(id));
+            }
+            return id;
+        }
+
+        id = symbols.get(buf, start, end);
+        if (id < 0) {
+            byte[] key = new byte[end - start];
+            for (int i = start; i < end; i++) {
+                key[i - start] = buf.get(i);
+            }
+            id = symbols.put(key);
+            register(dictionary.size() + id, new String(key, Charsets.UTF_8));
+        }
+        return dictionary.size() + id;
+    }
+
+    private void register(int id, String name) {
+        if (id >= names.length) {
+            names = Arrays.copyOf(names, Math.max(2 * names.length, id + 1));
+            lists = Arrays.copyOf(lists, names.length);
+        }
+        names[id] = name;
+        lists[id] = new DataReader.TransactionList();
+        data.put(name, lists[id]);
+    }
+
+    /**
+     * Called for every tick.  The default adds it to the list for that symbol.
+     *
+     * @param symbol The id of the symbol, see {@link #symbolName(int)}.
+     */
+    protected void tick(int symbol, long timeStamp, double open, double high, double low, double close, long volume) {
+        lists[symbol].add(timeStamp, open, high, low, close, volume);
+    }
+
+    /**
+     * @return How many different ids there are so far, counting every symbol in the dictionary
+     * whether it has been seen or not.  Ids run from 0 to one less than this.
+     */
+    protected int symbolCount() {
+        return dictionary.size() + symbols.size();
+    }
+
+    /**
+     * @return The symbol, or null if it is in the dictionary but hasn't been seen yet.
+     */
+    protected String symbolName(int symbol) {
+        return names[symbol];
+    }
+
+    // package private so the benchmarks can time it on its own
+    long parseDateTime(ByteBuffer buf, int start, int end) {
+        if (!useCache || end - start != DATE_TIME_LENGTH) {
+            return fmt.parseMillis(ascii(buf, start, end));
+        }
+
+        // is cache valid?
+        boolean same = haveDate;
+        for (int i = 0; same && i < DATE_LENGTH; i++) {
+            same = buf.get(start + i) == lastDate[i];
+        }
+        if (!same) {
+            for (int i = 0; i < DATE_LENGTH; i++) {
+                lastDate[i] = buf.get(start + i);
+            }
+            baseTime = dateOnlyFmt.parseMillis(new String(lastDate, Charsets.US_ASCII));
+            haveDate = true;
+        }
+
+        // it is now ... we can convert directly from here
+        long r = baseTime;
+        r += (buf.get(start + 12) - '0') * X10HOURS;
+        r += (buf.get(start + 13) - '0') * X1HOUR;
+        r += (buf.get(start + 15) - '0') * X10MINUTES;
+        r += (buf.get(start + 16) - '0') * X1MINUTE;
+        r += (buf.get(start + 18) - '0') * X10SECONDS;
+        r += (buf.get(start + 19) - '0') * X1SECOND;
+        r += (buf.get(start + 21) - '0') * X100MS;
+        r += (buf.get(start + 22) - '0') * X10MS;
+        r += (buf.get(start + 23) - '0') * X1MS;
+        return r;
+    }
+
+    /**
+     * Parses a plain decimal such as 36.58.  The digits are accumulated as an integer and divided by a
+     * power of ten once.  Both of those are exact doubles so the division is correctly rounded and we
+     * get exactly what Double.parseDouble would give.  Anything fancier goes to Double.parseDouble.
+     */
+    static double parsePrice(ByteBuffer buf, int start, int end) {
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        int i = start;
+        boolean negative = i < end && buf.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return Double.parseDouble(ascii(buf, start, end));
+            }
+        }
+        if (digits == 0 || digits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(ascii(buf, start, end));
+        }
+        double v = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return negative ? -v : v;
+    }
+
+    static long parseVolume(ByteBuffer buf, int start, int end) {
+        long r = 0;
+        int i = start;
+        boolean negative = i < end && buf.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        // 18 digits can't overflow
+        if (i == end || end - i > 18) {
+            return Long.parseLong(ascii(buf, start, end));
+        }
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') {
+                return Long.parseLong(ascii(buf, start, end));
+            }
+            r = r * 10 + (b - '0');
+        }
+        return negative ? -r : r;
+    }
+
+    private static int skipSpace(ByteBuffer buf, int start, int end) {
+        while (start < end && isSpace(buf.get(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimSpace(ByteBuffer buf, int start, int end) {
+        while (end > start && isSpace(buf.get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static String ascii(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buf.get(i);
+        }
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Open addressing hash table from raw symbol bytes to a dense id, for symbols that aren't in the
+     * dictionary.  Lookups compare bytes in the
+     * input buffer against the stored keys so that no string is needed to find a symbol.
+     */
+    static class SymbolTable {
+        private byte[][] keys = new byte[1024][];
+        private int[] ids = new int[1024];
+        private int size = 0;
+
+        /**
+         * @return The id of the symbol or -1 if it hasn't been seen.
+         */
+        int get(ByteBuffer buf, int start, int end) {
+            int mask = keys.length - 1;
+            for (int i = hash(buf, start, end) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (matches(keys[i], buf, start, end)) {
+                    return ids[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a symbol that isn't in the table yet.
+         *
+         * @return The id given to the symbol.
+         */
+        int put(byte[] key) {
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+            insert(key, size);
+            return size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void insert(byte[] key, int id) {
+            int mask = keys.length - 1;
+            int i = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            ids[i] = id;
+        }
+
+        private void resize() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new byte[2 * oldKeys.length][];
+            ids = new int[2 * oldKeys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    insert(oldKeys[i], oldIds[i]);
+                }
+            }
+        }
+
+        private static int hash(ByteBuffer buf, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + buf.get(i);
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buf, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buf.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.mapr.hadoop;
+
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+
+import java.util.List;
+
+/**
+ * Where the loader's writers send the rows they encode.  {@link TickDataClient} writes them to the
+ * table, or to a {@link com.mine.hbase.RegionSimulator} in its place, and {@link NullTickSink}
+ * drops them, which shows how fast the loader itself can go.
+ */
+public interface TickSink {
+
+    /**
+     * Writes one row.  May wait for room, but not for the write itself.
+     *
+     * @return Completes once the row is stored, or with the error if it couldn't be.
+     */
+    Deferred<Object> put(KeyValue kv);
+
+    /**
+     * Writes several cells of one row as a single put, so the row gets all of them or none.  May
+     * wait for room, but not for the write itself.
+     *
+     * @return Completes once the cells are stored, or with the error if they couldn't be.
+     */
+    Deferred<Object> put(List<KeyValue> row);
+}
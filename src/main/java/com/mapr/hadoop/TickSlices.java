@@ -0,0 +1,104 @@
+package com.mapr.hadoop;
+
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hbase.async.KeyValue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Lays a row out as one cell per time slice instead of one data cell for everything, so ticks that
+ * arrive later only add cells and nothing already written has to be read or written again.
+ * <p/>
+ * A slice's column is the start of the slice in millis as eight big-endian bytes, so the cells of
+ * a row sort in time order.  Cells take the region server's clock as their version, like every
+ * other put, so a row delete from an earlier refresh doesn't hide them.  Writing a slice again
+ * with more ticks replaces it.  The data column a row may already have is read along with the
+ * slices by {@link #stitch(List)}, but a row shouldn't be written both ways, or its ticks come
+ * back twice.
+ */
+public class TickSlices {
+    private TickSlices() {
+    }
+
+    /**
+     * @return The column of the slice that starts at this time.
+     */
+    public static byte[] column(long sliceStart) {
+        return Bytes.toBytes(sliceStart);
+    }
+
+    /**
+     * One cell for every slice that has ticks.
+     *
+     * @param width  Width of a slice in millis, such as a second or a minute.  Slices are aligned
+     *               like the buckets, see {@link TickDataClient#bucketStart(long, long)}.
+     * @param format How each slice's ticks are stored in its cell.
+     */
+    public static List<KeyValue> keyValues(byte[] key, byte[] family, DataReader.TransactionList ticks, long width, CellFormat format) {
+        checkArgument(width > 0, "Slice width must be positive, not %s", width);
+        List<KeyValue> r = Lists.newArrayList();
+        for (Map.Entry<Long, DataReader.TransactionList> slice : ticks.split(width).entrySet()) {
+            r.add(new KeyValue(key, family, column(slice.getKey()), format.encode(slice.getValue())));
+        }
+        return r;
+    }
+
+    /**
+     * The cells of {@link #keyValues} and {@link TickDataClient#SLICED} in the hash column, which is
+     * how a {@link TableRefresh} tells the row has slices, all to go in one put.
+     */
+    public static List<KeyValue> row(byte[] key, byte[] family, DataReader.TransactionList ticks, long width, CellFormat format) {
+        List<KeyValue> r = keyValues(key, family, ticks, width, format);
+        r.add(new KeyValue(key, family, TickDataClient.HASH_COLUMN, TickDataClient.SLICED));
+        return r;
+    }
+
+    /**
+     * Puts the cells of a row back together, slices and data cells in either format alike.  The
+     * hash a {@link TableRefresh} keeps in the row is left out.
+     *
+     * @return The ticks of every cell in time order.  Ticks at the same time keep the order of the
+     * cells and of the ticks within them.
+     */
+    public static DataReader.TransactionList stitch(List<KeyValue> cells) throws IOException {
+        DataReader.TransactionList r = new DataReader.TransactionList();
+        boolean sorted = true;
+        for (KeyValue cell : cells) {
+            if (Arrays.equals(cell.qualifier(), TickDataClient.HASH_COLUMN)) {
+                continue;
+            }
+            DataReader.TransactionList part = CellFormat.decode(cell.value());
+            for (int i = 0; i < part.size(); i++) {
+                sorted &= r.size() == 0 || r.times[r.size() - 1] <= part.times[i];
+                r.add(part, i);
+            }
+        }
+        return sorted ? r : sortByTime(r);
+    }
+
+    private static DataReader.TransactionList sortByTime(final DataReader.TransactionList ticks) {
+        Integer[] order = new Integer[ticks.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // stable, so equal times stay as they were
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(ticks.times[a], ticks.times[b]);
+            }
+        });
+        DataReader.TransactionList r = new DataReader.TransactionList(order.length);
+        for (Integer i : order) {
+            r.add(ticks, i);
+        }
+        return r;
+    }
+}
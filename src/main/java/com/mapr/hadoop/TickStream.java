@@ -0,0 +1,173 @@
+package com.mapr.hadoop;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses ticks and hands them on as rows of one symbol over one time bucket as soon as each bucket
+ * is complete.  This relies on the input being sorted by time, which is how the Drill CTAS in
+ * scripts/split_by_symbol.rb writes it.  Once a tick from a later bucket shows up, every row in the
+ * current bucket is put on the queue.
+ * <p/>
+ * The queue is bounded, so if the writers fall behind the parser simply waits.  Only the current
+ * bucket plus whatever is in the queue is ever held in memory, no matter how big the input is.  If
+ * the writers are given to {@link #watch(List)}, the parser stops waiting once all of them have
+ * stopped, rather than blocking on a full queue forever.
+ */
+public class TickStream extends TickParser {
+    /**
+     * Put on the queue once per consumer after the last row.
+     */
+    public static final Row END = new Row(null, 0, null);
+    // how long a put waits on a full queue before looking at the writers again
+    private static final long WRITER_CHECK_MILLIS = 100;
+
+    private final BlockingQueue<Row> queue;
+    private final long interval;
+
+    private long bucketStart = Long.MIN_VALUE;
+    private long bucketEnd = Long.MIN_VALUE;
+    // indexed by symbol id, null for symbols with no ticks in the current bucket
+    private DataReader.TransactionList[] open = new DataReader.TransactionList[1024];
+    private long rows = 0;
+    private List<? extends Future<?>> consumers = Collections.emptyList();
+
+    /**
+     * @param queue    Where finished rows go.
+     * @param interval Width of a time bucket in milliseconds.
+     */
+    public TickStream(BlockingQueue<Row> queue, long interval) {
+        this(queue, interval, SymbolDictionary.EMPTY);
+    }
+
+    public TickStream(BlockingQueue<Row> queue, long interval, SymbolDictionary dictionary) {
+        super(dictionary);
+        this.queue = queue;
+        this.interval = interval;
+    }
+
+    @Override
+    protected void tick(int symbol, long timeStamp, double open, double high, double low, double close, long volume) {
+        if (timeStamp >= bucketEnd) {
+            flush();
+            bucketStart = TickDataClient.bucketStart(timeStamp, interval);
+            bucketEnd = bucketStart + interval;
+        } else if (timeStamp < bucketStart) {
+            throw new IllegalStateException("Input is not sorted by time, " + symbolName(symbol) + " at " + timeStamp
+                    + " is before the current bucket starting at " + bucketStart);
+        }
+
+        if (symbol >= this.open.length) {
+            this.open = Arrays.copyOf(this.open, Math.max(2 * this.open.length, symbol + 1));
+        }
+        DataReader.TransactionList trans = this.open[symbol];
+        if (trans == null) {
+            trans = new DataReader.TransactionList();
+            this.open[symbol] = trans;
+        }
+        trans.add(timeStamp, open, high, low, close, volume);
+    }
+
+    /**
+     * Has a put on a full queue give up with an IllegalStateException once every one of these has
+     * finished, since nothing will take from the queue then.  That happens when all the writers
+     * have failed, and the exception carries the cause of one of their failures.
+     */
+    public void watch(List<? extends Future<?>> consumers) {
+        this.consumers = consumers;
+    }
+
+    /**
+     * Sends whatever is left and then one {@link #END} for each consumer.
+     */
+    public void close(int consumers) {
+        flush();
+        for (int i = 0; i < consumers; i++) {
+            put(END);
+        }
+    }
+
+    /**
+     * @return How many rows have been put on the queue so far.
+     */
+    public long rows() {
+        return rows;
+    }
+
+    private void flush() {
+        int n = Math.min(symbolCount(), open.length);
+        for (int i = 0; i < n; i++) {
+            if (open[i] != null) {
+                put(new Row(symbolName(i), bucketStart, open[i]));
+                open[i] = null;
+                rows++;
+            }
+        }
+    }
+
+    private void put(Row row) {
+        try {
+            while (!queue.offer(row, WRITER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkConsumers();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for writers");
+        }
+    }
+
+    private void checkConsumers() throws InterruptedException {
+        if (consumers.isEmpty()) {
+            return;
+        }
+        for (Future<?> f : consumers) {
+            if (!f.isDone()) {
+                return;
+            }
+        }
+        for (Future<?> f : consumers) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Every writer has stopped with " + queue.size() + " rows still queued", e.getCause());
+            }
+        }
+        throw new IllegalStateException("Every writer has stopped with " + queue.size() + " rows still queued");
+    }
+
+    /**
+     * All the ticks for one symbol in one time bucket.
+     */
+    public static class Row {
+        private final String symbol;
+        private final long bucket;
+        private final DataReader.TransactionList ticks;
+
+        public Row(String symbol, long bucket, DataReader.TransactionList ticks) {
+            this.symbol = symbol;
+            this.bucket = bucket;
+            this.ticks = ticks;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * @return Start of the time bucket in milliseconds since the epoch.
+         */
+        public long getBucket() {
+            return bucket;
+        }
+
+        public DataReader.TransactionList getTicks() {
+            return ticks;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Callback;
+import org.hbase.async.KeyValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of one GenericHBaseClient, one {@link OperationMetrics} for each kind of request.
+ * While the client is initialized they are registered with the platform MBean server as
+ * com.mine.hbase:type=GenericHBaseClient,table=...,operation=..., and a summary of each period is
+ * logged.
+ *
+ * @author jscott
+ */
+public class ClientMetrics {
+
+	private static Logger log = LoggerFactory.getLogger(ClientMetrics.class);
+	public static final long DEFAULT_LOG_PERIOD = 60000;
+
+	/**
+	 * One timer for the summaries of every client.
+	 */
+	private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "HBaseClientMetrics");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final String tableName;
+	private final long logPeriod;
+	private final OperationMetrics puts = new OperationMetrics("put");
+	private final OperationMetrics gets = new OperationMetrics("get");
+	private final OperationMetrics deletes = new OperationMetrics("delete");
+	private final OperationMetrics scans = new OperationMetrics("scan");
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+	private ScheduledFuture<?> summaries = null;
+
+	/**
+	 * @param logPeriod Millis between log summaries, zero for none.
+	 */
+	public ClientMetrics(String tableName, long logPeriod) {
+		this.tableName = tableName;
+		this.logPeriod = logPeriod;
+	}
+
+	public OperationMetrics getPuts() {
+		return puts;
+	}
+
+	public OperationMetrics getGets() {
+		return gets;
+	}
+
+	public OperationMetrics getDeletes() {
+		return deletes;
+	}
+
+	public OperationMetrics getScans() {
+		return scans;
+	}
+
+	/**
+	 * Registers the MBeans and starts the log summaries. A failure to register is logged and
+	 * otherwise ignored, metrics are not worth failing a client over.
+	 */
+	public synchronized void start() {
+		for (OperationMetrics metrics : new OperationMetrics[]{puts, gets, deletes, scans}) {
+			ObjectName name = register(metrics, tableName, "operation=" + metrics.getName());
+			if (name != null) {
+				registered.add(name);
+			}
+		}
+		if (logPeriod > 0 && summaries == null) {
+			summaries = TIMER.scheduleAtFixedRate(new Runnable() {
+
+				@Override
+				public void run() {
+					logSummary();
+				}
+			}, logPeriod, logPeriod, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Unregisters the MBeans and logs one last summary.
+	 */
+	public synchronized void stop() {
+		for (ObjectName name : registered) {
+			unregister(name);
+		}
+		registered.clear();
+		if (summaries != null) {
+			summaries.cancel(false);
+			summaries = null;
+			logSummary();
+		}
+	}
+
+	/**
+	 * Registers an MBean of a client as com.mine.hbase:type=GenericHBaseClient,table=...,property.
+	 *
+	 * @param property The rest of the name, e.g. "operation=put".
+	 * @return The name, or null if it couldn't be registered or already was.
+	 */
+	static ObjectName register(Object bean, String tableName, String property) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName("com.mine.hbase:type=GenericHBaseClient,table=" + ObjectName.quote(tableName) + "," + property);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(bean, name);
+				return name;
+			}
+		}
+		catch (JMException e) {
+			log.warn("Unable to register {} for table '{}'", property, tableName, e);
+		}
+		return null;
+	}
+
+	static void unregister(ObjectName name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+		catch (JMException e) {
+			log.warn("Unable to unregister {}", name, e);
+		}
+	}
+
+	public void logSummary() {
+		for (OperationMetrics metrics : new OperationMetrics[]{puts, gets, deletes, scans}) {
+			String summary = metrics.summary();
+			if (summary != null) {
+				log.info("Table '{}' {}", tableName, summary);
+			}
+		}
+	}
+
+	/**
+	 * Roughly what a KeyValue costs on the wire.
+	 */
+	static long size(KeyValue keyValue) {
+		// timestamp, lengths and the rest of the request framing
+		return 64L + keyValue.key().length + keyValue.family().length + keyValue.qualifier().length + keyValue.value().length;
+	}
+
+	/**
+	 * Records one request as it completes and passes its result or error on unchanged. When the
+	 * size isn't known up front it is taken from the rows or cells that come back. GenericHBaseClient
+	 * extends it for writes, so the one callback also releases the write window and the cache.
+	 */
+	static class Recorder<T> implements Callback<T, T> {
+
+		private final OperationMetrics metrics;
+		private final FlushIntervalController controller;
+		private final long start;
+		private final long size;
+
+		/**
+		 * @param metrics Where the request is counted, may be null.
+		 * @param size Bytes sent, or -1 to count the bytes received.
+		 * @param controller Also told about the latency, may be null.
+		 */
+		Recorder(OperationMetrics metrics, long size, FlushIntervalController controller) {
+			this.metrics = metrics;
+			this.controller = controller;
+			this.size = size;
+			this.start = metrics != null ? metrics.start() : System.nanoTime();
+		}
+
+		@Override
+		public T call(T arg) {
+			if (metrics != null) {
+				boolean success = !(arg instanceof Exception);
+				metrics.done(start, size >= 0 || !success ? size : received(arg), success);
+			}
+			if (controller != null) {
+				controller.record((System.nanoTime() - start) / 1000);
+			}
+			return arg;
+		}
+
+		private static long received(Object result) {
+			long bytes = 0;
+			if (result instanceof List) {
+				for (Object item : (List<?>) result) {
+					if (item instanceof KeyValue) {
+						bytes += size((KeyValue) item);
+					}
+					else {
+						bytes += received(item);
+					}
+				}
+			}
+			return bytes;
+		}
+	}
+}
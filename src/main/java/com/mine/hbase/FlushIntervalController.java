@@ -0,0 +1,157 @@
+package com.mine.hbase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Retunes the flush interval of a quorum's clients while they run. A longer interval makes bigger
+ * batches, which is what throughput wants, but every put may wait that long before it is even
+ * sent. The controller looks at the put latencies of each period and picks the longest interval
+ * that keeps the 99th percentile under the target.
+ *
+ * When the p99 is over the target the interval comes down by the overshoot, to the minimum if need
+ * be. When it is well under, the interval goes up by half the headroom. A full write window means
+ * the region servers are already the bottleneck, so the interval is not raised then. Periods with
+ * too few puts to say anything are skipped.
+ *
+ * Every client of the quorum gets the same interval, so only one controller per quorum should run.
+ *
+ * @author jscott
+ */
+public class FlushIntervalController {
+
+	private static Logger log = LoggerFactory.getLogger(FlushIntervalController.class);
+	public static final long DEFAULT_PERIOD = 1000;
+	// fewer puts than this in a period don't give a p99 worth acting on
+	static final int MIN_SAMPLES = 100;
+	// only raise the interval while the p99 is under this share of the target
+	private static final double HEADROOM = 0.75;
+
+	/**
+	 * One timer for every controller, adjusting is cheap.
+	 */
+	private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "HBaseFlushController");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final String quorumSpecification;
+	private final long targetMillis;
+	private final short minInterval;
+	private final short maxInterval;
+	private final WriteWindow writeWindow;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private volatile short interval;
+	private ScheduledFuture<?> task = null;
+
+	/**
+	 * @param quorumSpecification The quorum whose clients are tuned.
+	 * @param targetMillis The p99 put latency to stay under.
+	 * @param minInterval Shortest flush interval in millis, zero sends every put straight away.
+	 * @param maxInterval Longest flush interval in millis.
+	 * @param writeWindow The window puts go through, may be null.
+	 */
+	public FlushIntervalController(String quorumSpecification, long targetMillis, short minInterval, short maxInterval, WriteWindow writeWindow) {
+		checkArgument(quorumSpecification != null, "quorumSpecification must be specified");
+		checkArgument(targetMillis > 0, "targetMillis must be positive");
+		checkArgument(minInterval >= 0, "minInterval must not be negative");
+		checkArgument(maxInterval >= minInterval, "maxInterval must be at least minInterval");
+		this.quorumSpecification = quorumSpecification;
+		this.targetMillis = targetMillis;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.writeWindow = writeWindow;
+		Short current = HBaseClientManager.getMaxClientBatchTime(quorumSpecification);
+		short start = current == null ? HBaseClientManager.DEFAULT_MAX_BATCH_TIME : current;
+		this.interval = (short) Math.max(minInterval, Math.min(maxInterval, start));
+	}
+
+	/**
+	 * Starts adjusting, and applies the starting interval if it had to be brought within bounds.
+	 */
+	public synchronized void start(long period) {
+		checkState(task == null, "Controller has already been started");
+		HBaseClientManager.setMaxClientBatchTime(quorumSpecification, interval);
+		task = TIMER.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					adjust();
+				}
+				catch (RuntimeException e) {
+					log.error("Flush interval adjustment failed for quorum '{}'", quorumSpecification, e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	/**
+	 * Called as each put completes, successfully or not.
+	 */
+	public void record(long latencyMicros) {
+		latencies.record(latencyMicros);
+	}
+
+	/**
+	 * @return The flush interval last applied, in millis.
+	 */
+	public short getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Looks at the puts since the last call and moves the interval if they call for it.
+	 *
+	 * @return True if the interval changed.
+	 */
+	boolean adjust() {
+		LatencyHistogram period = latencies.drain();
+		long count = period.count();
+		if (count < MIN_SAMPLES) {
+			return false;
+		}
+		long p99 = period.percentile(0.99) / 1000;
+		boolean windowFull = writeWindow != null
+				&& (writeWindow.getParked() > 0 || writeWindow.getRequests() >= writeWindow.getMaxRequests());
+
+		long next = interval;
+		if (p99 > targetMillis) {
+			next = interval - (p99 - targetMillis);
+		}
+		else if (p99 < targetMillis * HEADROOM && !windowFull) {
+			next = interval + Math.max(1, (targetMillis - p99) / 2);
+		}
+		next = Math.max(minInterval, Math.min(maxInterval, next));
+		if (next == interval) {
+			return false;
+		}
+
+		log.info("Flush interval for quorum '{}' changed from {}ms to {}ms, p99 was {}ms over {} puts (target {}ms){}",
+				new Object[]{quorumSpecification, interval, next, p99, count, targetMillis, windowFull ? ", write window full" : ""});
+		interval = (short) next;
+		HBaseClientManager.setMaxClientBatchTime(quorumSpecification, interval);
+		return true;
+	}
+}
@@ -12,6 +12,9 @@ import static com.google.common.base.Preconditions.*;
 import com.stumbleupon.async.TimeoutException;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
 
 import org.hbase.async.DeleteRequest;
 import org.hbase.async.GetRequest;
@@ -34,18 +37,66 @@ public abstract class GenericHBaseClient {
 	private static Logger log = LoggerFactory.getLogger(GenericHBaseClient.class);
 	public static final String DEFAULT_COLUMN_FAMILY = "a";
 	public static final int WAIT_UNTIL_COMPLETE = -100;
+	public static final int DEFAULT_MAX_GETS_IN_FLIGHT = 64;
 	private String quorumSpecification = null;
 	private String tableName = null;
 	private byte[] tableNameBytes = null;
 	private String columnFamily = null;
 	private byte[] columnFamilyBytes = null;
 	private HBaseClient client = null;
+	// the quorum's whole pool, client is the first of them
+	private HBaseClient[] clients = null;
+	private ClientAffinity clientAffinity = ClientAffinity.ROW_KEY;
+	// most gets of one batch outstanding at once
+	private int maxGetsInFlight = DEFAULT_MAX_GETS_IN_FLIGHT;
 	private boolean isInitialized = false;
+	// when set, puts are held back while too many are outstanding
+	private WriteWindow writeWindow = null;
+	// when set, tunes the flush interval from put latencies
+	private FlushIntervalController flushController = null;
+	// when set, every request is counted and timed
+	private ClientMetrics metrics = null;
+	// when set, gets are answered from it where they can be
+	private RowCache cache = null;
+	// when set, takes every request instead of the cluster
+	private HBaseBackend backend = null;
+	private ObjectName cacheName = null;
 
 	// Logs to enable retries of failed puts.
 //	private HashMap<Deferred<Object>, KeyValue> submitLog = new HashMap<Deferred<Object>, KeyValue>();
 //	private HashMap<Deferred<Object>, KeyValue> retryLog = new HashMap<Deferred<Object>, KeyValue>();
 	public static final int MAX_RETRIES_CAP = 5;
+	private RetryEngine retryEngine = new RetryEngine();
+
+	// how the retry engine sends things again, neither of which blocks
+	private final RetryEngine.Request resendPut = new RetryEngine.Request() {
+
+		@Override
+		public Deferred<Object> send(KeyValue keyValue) {
+			return queuePut(keyValue);
+		}
+	};
+	private final RetryEngine.Request resendDeleteCell = new RetryEngine.Request() {
+
+		@Override
+		public Deferred<Object> send(KeyValue keyValue) {
+			return performDeleteCell(keyValue);
+		}
+	};
+
+	/**
+	 * How a request picks its client when the quorum has a pool of them.
+	 */
+	public enum ClientAffinity {
+		/**
+		 * By a hash of the row key, which keeps the requests for a row in order.
+		 */
+		ROW_KEY,
+		/**
+		 * By the calling thread, so each loader thread mostly sticks to one client.
+		 */
+		THREAD
+	}
 
 	/**
 	 * Calling this constructor requires the setters to be called for the quorumSpecification,
@@ -97,7 +148,14 @@ public abstract class GenericHBaseClient {
 		checkState(tableName != null, "TableName must be set before initialization can occur");
 		log.debug("Initialization of quorum '{}' for table '{}' and column family '{}' started",
 				new Object[]{quorumSpecification, tableName, columnFamily});
-		client = HBaseClientManager.getClient(quorumSpecification);
+		if (backend != null) {
+			log.info("Table '{}' is served by {}, not quorum '{}'", new Object[]{tableName, backend, quorumSpecification});
+			isInitialized = true;
+			startMonitoring();
+			return;
+		}
+		clients = HBaseClientManager.getClients(quorumSpecification);
+		client = clients[0];
 
 		Object result = null;
 		try {
@@ -128,6 +186,7 @@ public abstract class GenericHBaseClient {
 			log.info("Initialization of quorum '{}' for table '{}' and column family '{}' complete",
 					new Object[]{quorumSpecification, tableName, columnFamily});
 			isInitialized = true;
+			startMonitoring();
 		}
 		else if (result instanceof TableNotFoundException) {
 			throw (TableNotFoundException) result;
@@ -141,6 +200,7 @@ public abstract class GenericHBaseClient {
 		else {
 			log.info("Successfully connected to quorum: {}", quorumSpecification);
 			isInitialized = true;
+			startMonitoring();
 		}
 	}
 
@@ -149,15 +209,25 @@ public abstract class GenericHBaseClient {
 	}
 
 	public void term(int maxWaitTime) throws HBaseException {
+		if (isInitialized() && backend != null) {
+			stopMonitoring();
+			isInitialized = false;
+		}
 		if (isInitialized() && client != null) {
+			stopMonitoring();
 			Object result = null;
-			Deferred<Object> shutdown = client.shutdown();
+			List<Deferred<Object>> shutdowns = new ArrayList<Deferred<Object>>(clients.length);
+			for (HBaseClient c : clients) {
+				shutdowns.add(c.shutdown());
+			}
+			Deferred<ArrayList<Object>> shutdown = Deferred.group(shutdowns);
 			try {
+				// each shutdown gives null when it went well
 				if (maxWaitTime > 0) {
-					result = shutdown.joinUninterruptibly(maxWaitTime);
+					shutdown.joinUninterruptibly(maxWaitTime);
 				}
 				else {
-					result = shutdown.joinUninterruptibly();
+					shutdown.joinUninterruptibly();
 				}
 			}
 			catch (Exception e) {
@@ -250,6 +320,223 @@ public abstract class GenericHBaseClient {
 		this.tableNameBytes = tableName.getBytes();
 	}
 
+	/**
+	 * Caps the puts outstanding inside the HBaseClient, counted both in requests and in bytes.
+	 * Without a cap a loader can queue puts faster than the region servers take them until the
+	 * client's buffers exhaust the heap. With one, {@link #performPut(KeyValue)} blocks while the
+	 * window is full and {@link #queuePut(KeyValue)} parks the put instead. Room comes back as each
+	 * put completes.
+	 *
+	 * @param maxBytes Most bytes of puts outstanding at once.
+	 * @param maxRequests Most puts outstanding at once.
+	 */
+	public void setWriteWindow(long maxBytes, int maxRequests) {
+		this.writeWindow = new WriteWindow(maxBytes, maxRequests);
+	}
+
+	/**
+	 * @return The window puts go through, or null if there isn't one.
+	 */
+	public WriteWindow getWriteWindow() {
+		return writeWindow;
+	}
+
+	/**
+	 * Lets the flush interval of the quorum's clients follow the load instead of staying fixed, see
+	 * {@link FlushIntervalController}. Set the write window first if there is going to be one, and
+	 * call this before init.
+	 *
+	 * @param targetMillis The p99 put latency to stay under.
+	 * @param minInterval Shortest flush interval in millis.
+	 * @param maxInterval Longest flush interval in millis.
+	 */
+	public void setFlushTarget(long targetMillis, short minInterval, short maxInterval) {
+		checkState(!isInitialized, "Flush target must be set before initialization");
+		checkState(quorumSpecification != null, "QuorumSpecification must be set before the flush target");
+		this.flushController = new FlushIntervalController(quorumSpecification, targetMillis, minInterval, maxInterval, writeWindow);
+	}
+
+	/**
+	 * @return The controller tuning the flush interval, or null if it is fixed.
+	 */
+	public FlushIntervalController getFlushController() {
+		return flushController;
+	}
+
+	/**
+	 * Counts and times every put, get, delete and scan from send to callback, see
+	 * {@link ClientMetrics}. Call this before init.
+	 *
+	 * @param logPeriod Millis between summaries in the log, zero for none.
+	 */
+	public void enableMetrics(long logPeriod) {
+		checkState(!isInitialized, "Metrics must be enabled before initialization");
+		checkState(tableName != null, "TableName must be set before metrics are enabled");
+		checkArgument(logPeriod >= 0, "logPeriod must not be negative");
+		this.metrics = new ClientMetrics(tableName, logPeriod);
+	}
+
+	/**
+	 * @return The metrics of this client, or null if they haven't been enabled.
+	 */
+	public ClientMetrics getMetrics() {
+		return metrics;
+	}
+
+	private void startMonitoring() {
+		if (flushController != null) {
+			flushController.start(FlushIntervalController.DEFAULT_PERIOD);
+		}
+		if (metrics != null) {
+			metrics.start();
+		}
+		if (cache != null) {
+			cacheName = ClientMetrics.register(cache, tableName, "name=cache");
+		}
+	}
+
+	/**
+	 * Answers gets from the results of earlier ones where it can, see {@link RowCache}. Every put
+	 * and delete made through this client drops what is cached for its row, writes made any other
+	 * way are only seen once the result expires, see {@link #cacheTtl(byte[])}. Call this before
+	 * init.
+	 *
+	 * @param maxBytes Roughly the most memory the cached results may take.
+	 */
+	public void enableCache(long maxBytes) {
+		checkState(!isInitialized, "Cache must be enabled before initialization");
+		this.cache = new RowCache(maxBytes);
+	}
+
+	/**
+	 * @return The cache gets go through, or null if there isn't one.
+	 */
+	public RowCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * How long a cached result for a row may be used. Rows that other writers may still be
+	 * changing should get a short time.
+	 *
+	 * @return Millis, or zero to keep it until it is evicted or written through this client.
+	 */
+	protected long cacheTtl(byte[] key) {
+		return 0;
+	}
+
+	/**
+	 * Gets through the cache, if there is one.
+	 */
+	private Deferred<ArrayList<KeyValue>> cachedGet(final byte[] key, final byte[] qualifier, GetRequest request) {
+		final RowCache rowCache = cache;
+		if (rowCache == null) {
+			return sendGet(request);
+		}
+		ArrayList<KeyValue> cached = rowCache.get(key, qualifier);
+		if (cached != null) {
+			return Deferred.fromResult(cached);
+		}
+		final long stamp = rowCache.stamp(key);
+		return sendGet(request).addCallback(new Callback<ArrayList<KeyValue>, ArrayList<KeyValue>>() {
+
+			@Override
+			public ArrayList<KeyValue> call(ArrayList<KeyValue> row) {
+				rowCache.put(key, qualifier, row, stamp, cacheTtl(key));
+				return row;
+			}
+		});
+	}
+
+	private Deferred<ArrayList<KeyValue>> sendGet(GetRequest request) {
+		return complete(send(request), metrics == null ? null : metrics.getGets(), -1, null, null, 0, null);
+	}
+
+	/**
+	 * Sees a request through with one callback that does whatever there is to do once it completes:
+	 * time and count it, give its room in the write window back, and drop its row from the cache
+	 * again so that a get overtaken by the write can't put the old value back. Writes need a
+	 * callback for the window or the cache anyway, so recording them allocates nothing more.
+	 *
+	 * @param operation Which metrics it counts in, may be null.
+	 * @param size Bytes sent, or -1 to count the bytes received.
+	 * @param window Where to give windowSize bytes back, may be null.
+	 * @param key The row written, null for reads.
+	 */
+	private <T> Deferred<T> complete(Deferred<T> request, OperationMetrics operation, long size, FlushIntervalController controller,
+			WriteWindow window, long windowSize, byte[] key) {
+		RowCache rowCache = key == null ? null : cache;
+		if (window == null && rowCache == null) {
+			if (operation == null && controller == null) {
+				return request;
+			}
+			return request.addBoth(new ClientMetrics.Recorder<T>(operation, size, controller));
+		}
+		return request.addBoth(new Completion<T>(operation, size, controller, window, windowSize, rowCache, key));
+	}
+
+	/**
+	 * The callback of {@link #complete}.
+	 */
+	private static final class Completion<T> extends ClientMetrics.Recorder<T> {
+
+		private final WriteWindow window;
+		private final long windowSize;
+		private final RowCache rowCache;
+		private final byte[] key;
+
+		Completion(OperationMetrics operation, long size, FlushIntervalController controller, WriteWindow window, long windowSize, RowCache rowCache,
+				byte[] key) {
+			super(operation, size, controller);
+			this.window = window;
+			this.windowSize = windowSize;
+			this.rowCache = rowCache;
+			this.key = key;
+		}
+
+		/**
+		 * Pass on the result or error unchanged.
+		 */
+		@Override
+		public T call(T arg) {
+			super.call(arg);
+			if (rowCache != null) {
+				rowCache.invalidate(key);
+			}
+			if (window != null) {
+				window.release(windowSize);
+			}
+			return arg;
+		}
+	}
+
+	private void stopMonitoring() {
+		if (flushController != null) {
+			flushController.stop();
+		}
+		if (metrics != null) {
+			metrics.stop();
+		}
+		if (cacheName != null) {
+			ClientMetrics.unregister(cacheName);
+			cacheName = null;
+		}
+	}
+
+	/**
+	 * Sends every request to the backend instead of a cluster, for loading and reading without
+	 * one, see {@link RegionSimulator}.  Must be called before {@link #init()}, which then doesn't
+	 * connect anywhere.
+	 */
+	public void setBackend(HBaseBackend backend) {
+		checkState(!isInitialized, "The backend must be set before initialization");
+		this.backend = backend;
+	}
+
+	public HBaseBackend getBackend() {
+		return backend;
+	}
+
 	/**
 	 * This method is meant to allow overriding the client to be used for testing, e.g. set a mock
 	 * object for testing the actions of the class.
@@ -260,6 +547,73 @@ public abstract class GenericHBaseClient {
 	 */
 	void setClient(HBaseClient client) {
 		this.client = client;
+		this.clients = new HBaseClient[]{client};
+	}
+
+	/**
+	 * Same as {@link #setClient(HBaseClient)} for a pool of clients.
+	 *
+	 * KEEP this package private!!!
+	 */
+	void setClients(HBaseClient[] clients) {
+		this.client = clients[0];
+		this.clients = clients;
+	}
+
+	/**
+	 * Only matters when the quorum has more than one client, see
+	 * {@link HBaseClientManager#setPoolSize(String, int)}.
+	 */
+	public void setClientAffinity(ClientAffinity clientAffinity) {
+		checkArgument(clientAffinity != null, "clientAffinity must be specified");
+		this.clientAffinity = clientAffinity;
+	}
+
+	public ClientAffinity getClientAffinity() {
+		return clientAffinity;
+	}
+
+	/**
+	 * Caps how many gets of one {@link #performGet(Collection, byte[])} batch are outstanding at
+	 * once, so a big batch doesn't crowd out everything else.
+	 */
+	public void setMaxGetsInFlight(int maxGetsInFlight) {
+		checkArgument(maxGetsInFlight > 0, "maxGetsInFlight must be positive");
+		this.maxGetsInFlight = maxGetsInFlight;
+	}
+
+	public int getMaxGetsInFlight() {
+		return maxGetsInFlight;
+	}
+
+	/**
+	 * @return The client from the pool that requests for this row go through.
+	 */
+	private HBaseClient client(byte[] key) {
+		HBaseClient[] pool = clients;
+		if (pool.length == 1) {
+			return pool[0];
+		}
+		if (clientAffinity == ClientAffinity.THREAD) {
+			return pool[(int) (Thread.currentThread().getId() % pool.length)];
+		}
+		return pool[HBaseClientManager.shard(key, pool.length)];
+	}
+
+	/**
+	 * Hands a get to the client for its row.  Every get, put and delete goes through one of these
+	 * three, after the cache, window and metrics have seen it.
+	 */
+	protected Deferred<ArrayList<KeyValue>> send(GetRequest request) {
+		return backend != null ? backend.get(request) : client(request.key()).get(request);
+	}
+
+	protected Deferred<Object> send(PutRequest request) {
+		return backend != null ? backend.put(request) : client(request.key()).put(request);
+	}
+
+	protected Deferred<Object> send(DeleteRequest request) {
+		return backend != null ? backend.delete(request) : client(request.key()).delete(request);
 	}
 
 	/**
@@ -273,6 +627,70 @@ public abstract class GenericHBaseClient {
 		return scanner;
 	}
 
+	/**
+	 * Same as scanner.nextRows(), but counted in the scan metrics.
+	 */
+	protected Deferred<ArrayList<ArrayList<KeyValue>>> nextRows(Scanner scanner) {
+		return complete(scanner.nextRows(), metrics == null ? null : metrics.getScans(), -1, null, null, 0, null);
+	}
+
+	/**
+	 * Scans [startKey, stopKey) with one scanner for every part of it between split points, all at
+	 * once.  Read the rows with {@link ParallelScan#nextRow(long)} and close it when done.
+	 *
+	 * @param startKey First key, empty for the start of the table.
+	 * @param stopKey Key after the last, empty for the end of the table.
+	 * @param splits Where to cut the range, normally the table's region boundaries.  Those outside
+	 * the range are ignored.
+	 * @param ordered Whether rows come back in key order.  Unordered is faster.
+	 * @param maxBufferedRows Rows each scanner may fetch ahead of the reader.
+	 */
+	protected ParallelScan scan(byte[] startKey, byte[] stopKey, Collection<byte[]> splits, boolean ordered, int maxBufferedRows) {
+		List<byte[]> boundaries = ParallelScan.boundaries(startKey, stopKey, splits);
+		List<ParallelScan.Range> ranges = new ArrayList<ParallelScan.Range>(boundaries.size() - 1);
+		for (int i = 0; i + 1 < boundaries.size(); i++) {
+			ranges.add(openRange(boundaries.get(i), boundaries.get(i + 1)));
+		}
+		return new ParallelScan(ranges, ordered, maxBufferedRows).start();
+	}
+
+	/**
+	 * A scanner over [startKey, stopKey), counted in the scan metrics.
+	 */
+	protected ParallelScan.Range openRange(byte[] startKey, byte[] stopKey) {
+		if (backend != null) {
+			final ParallelScan.Range range = backend.scan(startKey, stopKey);
+			return new ParallelScan.Range() {
+
+				@Override
+				public Deferred<ArrayList<ArrayList<KeyValue>>> nextRows() {
+					return complete(range.nextRows(), metrics == null ? null : metrics.getScans(), -1, null, null, 0, null);
+				}
+
+				@Override
+				public Deferred<Object> close() {
+					return range.close();
+				}
+			};
+		}
+		final Scanner scanner = client(startKey).newScanner(tableNameBytes);
+		scanner.setFamily(columnFamilyBytes);
+		scanner.setStartKey(startKey);
+		scanner.setStopKey(stopKey);
+		return new ParallelScan.Range() {
+
+			@Override
+			public Deferred<ArrayList<ArrayList<KeyValue>>> nextRows() {
+				return GenericHBaseClient.this.nextRows(scanner);
+			}
+
+			@Override
+			public Deferred<Object> close() {
+				return scanner.close();
+			}
+		};
+	}
+
 	/**
 	 *
 	 * @param key
@@ -316,7 +734,7 @@ public abstract class GenericHBaseClient {
 	 */
 	protected Deferred<ArrayList<KeyValue>> performGet(byte[] key) {
 		GetRequest request = new GetRequest(tableNameBytes, key);
-		return client.get(request);
+		return cachedGet(key, null, request);
 	}
 
 	/**
@@ -330,7 +748,51 @@ public abstract class GenericHBaseClient {
 		GetRequest request = new GetRequest(tableNameBytes, key);
 		request.family(columnFamilyBytes);
 		request.qualifier(qualifier);
-		return client.get(request);
+		return cachedGet(key, qualifier, request);
+	}
+
+	/**
+	 * Gets a batch of rows with one deadline for all of them.
+	 *
+	 * @param keys
+	 * @param qualifier Column to get, null for whole rows.
+	 * @param maxWaitTime When set to less than zero, waits for completion. Covers the whole batch.
+	 * @return One row per key in the same order, empty for keys with no row.
+	 * @throws TimeExceededException if max wait time has been exceeded. Gets not yet sent are
+	 * dropped.
+	 * @throws HBaseRequestException if any of the gets failed.
+	 */
+	protected ArrayList<ArrayList<KeyValue>> performGet(Collection<byte[]> keys, byte[] qualifier, long maxWaitTime) throws TimeExceededException, HBaseRequestException {
+		GetBatch batch = new GetBatch(keys, qualifier);
+		Deferred<ArrayList<ArrayList<KeyValue>>> result = batch.start();
+		try {
+			if (maxWaitTime > 0) {
+				return result.joinUninterruptibly(maxWaitTime);
+			}
+			else {
+				return result.joinUninterruptibly();
+			}
+		}
+		catch (TimeoutException e) {
+			batch.cancel();
+			throw new TimeExceededException("Max wait time was exceeded for " + keys.size() + " get requests: " + maxWaitTime + "ms", e);
+		}
+		catch (Exception e) {
+			throw new HBaseRequestException("Result returned from HBase was an exception for get request", e);
+		}
+	}
+
+	/**
+	 * Gets a batch of rows. The gets go out in row key order, so those for one region are sent
+	 * together, and no more than {@link #getMaxGetsInFlight()} are outstanding at a time. The first
+	 * get to fail fails the batch and no more are sent.
+	 *
+	 * @param keys
+	 * @param qualifier Column to get, null for whole rows.
+	 * @return One row per key in the same order, empty for keys with no row.
+	 */
+	protected Deferred<ArrayList<ArrayList<KeyValue>>> performGet(Collection<byte[]> keys, byte[] qualifier) {
+		return new GetBatch(keys, qualifier).start();
 	}
 
 	/**
@@ -384,12 +846,93 @@ public abstract class GenericHBaseClient {
 	 * rick: I had to make this public so it can be used in the submitters outside this package.
 	 * (I prefer a composition/delegate model and having every gateway extend this class doesn't seem right.)
 	 *
+	 * If there is a write window this waits for room in it first, so don't call it from a callback,
+	 * use {@link #queuePut(KeyValue)} there.
+	 *
 	 * @param keyValue Given value is written to HBase
 	 * @return Effectively a list of deferred voids, could still have errors attached.
 	 */
 	public Deferred<Object> performPut(KeyValue keyValue) {
+		WriteWindow window = writeWindow;
+		long size = size(keyValue);
+		if (window != null) {
+			window.acquire(size);
+		}
+		return sendPut(keyValue, window, size);
+	}
+
+	/**
+	 * Puts several cells of one row in a single request, which HBase applies to the row all at once
+	 * or not at all. Waits for room in the write window like {@link #performPut(KeyValue)}.
+	 *
+	 * @param keyValues Cells of the same row and column family.
+	 * @return Completes when the put does.
+	 */
+	public Deferred<Object> performRowPut(List<KeyValue> keyValues) {
+		checkArgument(!keyValues.isEmpty(), "A row put needs at least one cell");
+		byte[] key = keyValues.get(0).key();
+		byte[][] qualifiers = new byte[keyValues.size()][];
+		byte[][] values = new byte[keyValues.size()][];
+		long size = 0;
+		for (int i = 0; i < qualifiers.length; i++) {
+			KeyValue keyValue = keyValues.get(i);
+			checkArgument(Arrays.equals(key, keyValue.key()), "A row put can't span rows");
+			qualifiers[i] = keyValue.qualifier();
+			values[i] = keyValue.value();
+			size += size(keyValue);
+		}
+		WriteWindow window = writeWindow;
+		if (window != null) {
+			window.acquire(size);
+		}
+		PutRequest request = new PutRequest(tableNameBytes, key, keyValues.get(0).family(), qualifiers, values);
+		if (cache != null) {
+			cache.invalidate(key);
+		}
+		return complete(send(request), metrics == null ? null : metrics.getPuts(), size, flushController, window, size, key);
+	}
+
+	/**
+	 * Puts a single cell into HBase without ever blocking. If the write window is full the put is
+	 * parked and sent once enough earlier puts have completed. Parked puts are held in memory, so
+	 * loaders that can wait should use {@link #performPut(KeyValue)} instead.
+	 *
+	 * @param keyValue Given value is written to HBase
+	 * @return Completes when the put does.
+	 */
+	public Deferred<Object> queuePut(final KeyValue keyValue) {
+		final WriteWindow window = writeWindow;
+		final long size = size(keyValue);
+		if (window == null) {
+			return sendPut(keyValue, null, size);
+		}
+		final Deferred<Object> result = new Deferred<Object>();
+		window.submit(size, new Runnable() {
+
+			@Override
+			public void run() {
+				sendPut(keyValue, window, size).chain(result);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @param window Where to give size back once the put completes, null if there is no window.
+	 */
+	private Deferred<Object> sendPut(KeyValue keyValue, WriteWindow window, long size) {
 		PutRequest request = new PutRequest(tableNameBytes, keyValue);
-		return client.put(request);
+		if (cache != null) {
+			cache.invalidate(keyValue.key());
+		}
+		return complete(send(request), metrics == null ? null : metrics.getPuts(), size, flushController, window, size, keyValue.key());
+	}
+
+	/**
+	 * Roughly what a put costs in the client's buffers.
+	 */
+	private static long size(KeyValue keyValue) {
+		return ClientMetrics.size(keyValue);
 	}
 
 	/**
@@ -449,7 +992,10 @@ public abstract class GenericHBaseClient {
 	 */
 	protected Deferred<Object> performDelete(byte[] key) {
 		DeleteRequest request = new DeleteRequest(getTableNameBytes(), key);
-		return client.delete(request);
+		if (cache != null) {
+			cache.invalidate(key);
+		}
+		return complete(send(request), metrics == null ? null : metrics.getDeletes(), key.length, null, null, 0, key);
 	}
 
 	/**
@@ -460,7 +1006,148 @@ public abstract class GenericHBaseClient {
 	 */
 	protected Deferred<Object> performDeleteCell(KeyValue kv) {
 		DeleteRequest request = new DeleteRequest(getTableNameBytes(), kv.key(), getColumnFamilyBytes(), kv.qualifier());
-		return client.delete(request);
+		if (cache != null) {
+			cache.invalidate(kv.key());
+		}
+		return complete(send(request), metrics == null ? null : metrics.getDeletes(), kv.key().length + kv.qualifier().length, null, null, 0, kv.key());
+	}
+
+	/**
+	 * The gets of one multi-get. Completions send the next get through a drain loop rather than
+	 * recursively, so gets that complete straight away don't grow the stack.
+	 */
+	private final class GetBatch {
+
+		private final List<byte[]> keys;
+		private final byte[] qualifier;
+		// indexes into keys in row key order
+		private final Integer[] order;
+		private final Object[] rows;
+		private final int maxInFlight;
+		private final Deferred<ArrayList<ArrayList<KeyValue>>> result = new Deferred<ArrayList<ArrayList<KeyValue>>>();
+		private final AtomicInteger remaining;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger pumping = new AtomicInteger();
+		// no more gets are sent once this is set
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final AtomicBoolean completed = new AtomicBoolean();
+		private int next = 0;
+
+		private GetBatch(Collection<byte[]> keys, byte[] qualifier) {
+			this.keys = new ArrayList<byte[]>(keys);
+			this.qualifier = qualifier;
+			this.maxInFlight = maxGetsInFlight;
+			this.rows = new Object[keys.size()];
+			this.remaining = new AtomicInteger(keys.size());
+			order = new Integer[keys.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compareKeys(GetBatch.this.keys.get(a), GetBatch.this.keys.get(b));
+				}
+			});
+		}
+
+		private Deferred<ArrayList<ArrayList<KeyValue>>> start() {
+			if (order.length == 0) {
+				finish(null);
+			}
+			pump();
+			return result;
+		}
+
+		/**
+		 * Stops sending gets, the ones already sent still complete.
+		 */
+		private void cancel() {
+			finished.set(true);
+		}
+
+		private void pump() {
+			if (pumping.getAndIncrement() != 0) {
+				return;
+			}
+			do {
+				while (!finished.get() && next < order.length && inFlight.get() < maxInFlight) {
+					inFlight.incrementAndGet();
+					send(order[next++]);
+				}
+			}
+			while (pumping.decrementAndGet() != 0);
+		}
+
+		private void send(final int index) {
+			byte[] key = keys.get(index);
+			Deferred<ArrayList<KeyValue>> get;
+			try {
+				get = qualifier == null ? performGet(key) : performGet(key, qualifier);
+			}
+			catch (RuntimeException e) {
+				finish(e);
+				return;
+			}
+			get.addCallbacks(new Callback<Object, ArrayList<KeyValue>>() {
+
+				@Override
+				public Object call(ArrayList<KeyValue> row) {
+					rows[index] = row;
+					inFlight.decrementAndGet();
+					if (remaining.decrementAndGet() == 0) {
+						finish(null);
+					}
+					else {
+						pump();
+					}
+					return row;
+				}
+			}, new Callback<Object, Exception>() {
+
+				/**
+				 * Handled here, the caller hears about it through the batch.
+				 */
+				@Override
+				public Object call(Exception e) {
+					inFlight.decrementAndGet();
+					finish(e);
+					return null;
+				}
+			});
+		}
+
+		@SuppressWarnings("unchecked")
+		private void finish(Exception e) {
+			finished.set(true);
+			if (!completed.compareAndSet(false, true)) {
+				return;
+			}
+			if (e != null) {
+				result.callback(e);
+				return;
+			}
+			ArrayList<ArrayList<KeyValue>> all = new ArrayList<ArrayList<KeyValue>>(rows.length);
+			for (Object row : rows) {
+				all.add(row == null ? new ArrayList<KeyValue>() : (ArrayList<KeyValue>) row);
+			}
+			result.callback(all);
+		}
+	}
+
+	/**
+	 * Unsigned byte order, the order rows are stored in.
+	 */
+	static int compareKeys(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int d = (a[i] & 0xff) - (b[i] & 0xff);
+			if (d != 0) {
+				return d;
+			}
+		}
+		return a.length - b.length;
 	}
 
 	protected KeyValue keyValue(byte[] key, byte[] column, byte[] value) {
@@ -489,34 +1176,96 @@ public abstract class GenericHBaseClient {
 
 
 
+	/**
+	 * Waits for a put and retries it if it fails, see {@link #retryPut}.
+	 *
+	 * @param maxWaitTime When set to less than zero, waits for completion. Covers the retries too.
+	 */
 	public void checkAndRetryPut(Deferred<Object> handle, KeyValue kv, long maxWaitTime, int maxRetries) throws HBaseRequestException, TimeExceededException {
+		RetryEngine.Batch batch = retry(Collections.singletonMap(handle, kv), resendPut, maxRetries);
+		try {
+			if (maxWaitTime > 0 ) {
+				batch.getCompletion().joinUninterruptibly(maxWaitTime);
+			}
+			else {
+				batch.getCompletion().joinUninterruptibly();
+			}
+		}
+		catch (TimeoutException e) {
+			throw new TimeExceededException("Put timed out. max timeout=" + maxWaitTime, e);
+		}
+		catch (Exception e) {
+			throw new HBaseRequestException("Put failed for unexpected reason.", e);
+		}
+		if (batch.getSucceeded() == 0) {
+			throw new HBaseRequestException("Put failed for unexpected reason.", batch.getLastError());
+		}
+	}
+
+	/**
+	 * Retries a put that has already been sent until it succeeds or runs out of retries, waiting a
+	 * little longer before each one. Never blocks.
+	 *
+	 * @return Completes with the put's result, or with its last error.
+	 */
+	public Deferred<Object> retryPut(Deferred<Object> handle, KeyValue kv, int maxRetries) {
+		final RetryEngine.Batch batch = retry(Collections.singletonMap(handle, kv), resendPut, maxRetries);
+		return batch.getCompletion().addCallback(new Callback<Object, Integer>() {
+
+			@Override
+			public Object call(Integer succeeded) {
+				return succeeded == 1 ? null : batch.getLastError();
+			}
+		});
+	}
 
+	/**
+	 * Retries puts that have already been sent, each one as soon as it fails and after a backoff.
+	 * Never blocks. If more than a third of a batch of more than ten fails, retries stop.
+	 *
+	 * @param submitLog The puts in flight and the cell each one writes.
+	 * @return Completes with the number of puts that succeeded once they all have finished.
+	 */
+	public Deferred<Integer> retryPuts(Map<Deferred<Object>, KeyValue> submitLog, int maxRetries) {
+		return retry(submitLog, resendPut, maxRetries).getCompletion();
+	}
+
+	/**
+	 * Does for cell deletes what {@link #retryPuts} does for puts.
+	 */
+	public Deferred<Integer> retryDeleteCells(Map<Deferred<Object>, KeyValue> submitLog, int maxRetries) {
+		return retry(submitLog, resendDeleteCell, maxRetries).getCompletion();
+	}
+
+	/**
+	 * Sets the backoff before retries, see {@link RetryEngine#RetryEngine(long, long)}.
+	 */
+	public void setRetryBackoff(long baseDelay, long maxDelay) {
+		retryEngine = new RetryEngine(baseDelay, maxDelay);
+	}
+
+	private RetryEngine.Batch retry(Map<Deferred<Object>, KeyValue> submitLog, RetryEngine.Request request, int maxRetries) {
 		if (maxRetries > MAX_RETRIES_CAP) {
 			log.warn("Too many retries ({})requested. Number of retries capped at " + MAX_RETRIES_CAP, maxRetries);
 			maxRetries = MAX_RETRIES_CAP;
 		}
+		return retryEngine.retry(submitLog, request, maxRetries);
+	}
 
+	/**
+	 * Waits for a batch started by {@link #retry}. Unlike the rest of this class a timeout is not an
+	 * error here, the puts that made it in time are counted.
+	 */
+	private int awaitBatch(RetryEngine.Batch batch, long maxWaitTime) {
 		try {
 			if (maxWaitTime > 0 ) {
-				handle.joinUninterruptibly(maxWaitTime);
-			}
-			else {
-				handle.joinUninterruptibly();
+				return batch.getCompletion().joinUninterruptibly(maxWaitTime);
 			}
+			return batch.getCompletion().joinUninterruptibly();
 		}
 		catch (Exception e) {
-			if (maxRetries > 0) {
-				log.debug("Put failed. Issuing retry. Key={}", new String(kv.key()));
-				Deferred<Object> handle2 = performPut(kv);
-				checkAndRetryPut(handle2, kv, maxWaitTime, maxRetries-1);
-			}
-			else {
-				log.warn("Put failed. Key=" + new String(kv.key()), e);
-				if (e instanceof TimeoutException || e instanceof InterruptedException) {
-					throw new TimeExceededException("Put timed out. max timeout=" + maxWaitTime, e);
-				}
-				throw new HBaseRequestException("Put failed for unexpected reason.", e);
-			}
+			log.warn("Gave up waiting for retries after " + maxWaitTime + "ms", e);
+			return batch.getSucceeded();
 		}
 	}
 
@@ -545,133 +1294,38 @@ public abstract class GenericHBaseClient {
 		return successCount;
 	}
 
+	/**
+	 * Waits for puts, retrying the ones that fail, see {@link #retryPuts}.
+	 *
+	 * @param maxWaitTime When set to less than zero, waits for completion. Covers the whole batch
+	 * with all its retries.
+	 * @return The number of puts that succeeded.
+	 */
 	public int checkAndRetryPuts(String id, Map<Deferred<Object>, KeyValue> submitLog, long maxWaitTime, int maxRetries) throws HBaseRequestException {
-
-		int successCount = 0;
-		HashMap<Deferred<Object>, KeyValue> retryLog = new HashMap<Deferred<Object>, KeyValue>();
-		HashMap<Deferred<Object>, KeyValue> resubmitLog = new HashMap<Deferred<Object>, KeyValue>();
-
-		if (maxRetries > MAX_RETRIES_CAP) {
-			log.warn("Too many retries ({})requested. Number of retries capped at " + MAX_RETRIES_CAP, maxRetries);
-			maxRetries = MAX_RETRIES_CAP;
+		if (submitLog == null) {
+			return 0;
 		}
-
-		if (submitLog != null) {
-
-			int totalCount = submitLog.size();
-
-			retryLog.clear();
-
-			for (Deferred<Object> result: submitLog.keySet()) {
-				try {
-					if (maxWaitTime > 0 ) {
-						result.joinUninterruptibly(maxWaitTime);
-					}
-					else {
-						result.joinUninterruptibly();
-					}
-					successCount++;
-
-				}
-				catch (Exception e) {
-					KeyValue kv = submitLog.get(result);
-					if (kv != null) {
-						log.debug("Put check failed. Issuing retry. Key={}", new String(kv.key()));
-						retryLog.put(result, kv);
-					}
-					else {
-						log.warn("No key value found in submit log for failed put. Cannot retry.");
-					}
-				}
-			}
-
-			if (maxRetries > 0 && retryLog.size() > 0) {
-
-				// Throw exception if there are too many failures.
-				// This is added to make sure any retry is a responsible retry.
-				if (submitLog.size() > 10 && retryLog.size() > (submitLog.size()/3)) {
-					log.warn("Too many failed puts (" + retryLog.size() + " out of " + submitLog.size() + "). Retry attempt canceled.");
-				}
-				else {
-					log.debug("Retrying {} puts", retryLog.size());
-					// Resubmit failed puts
-					ArrayList<Deferred<Object>> retryResults = new ArrayList<Deferred<Object>>();
-					for (KeyValue kv: retryLog.values()) {
-						Deferred<Object> result = performPut(kv);
-						resubmitLog.put(result, kv);
-					}
-					successCount += checkAndRetryPuts(id, resubmitLog, maxWaitTime, maxRetries-1);
-				}
-			}
-
-			if (log.isDebugEnabled()) {
-				log.debug(successCount + " out of " + totalCount + " puts succeeded.");
-			}
+		int successCount = awaitBatch(retry(submitLog, resendPut, maxRetries), maxWaitTime);
+		if (log.isDebugEnabled()) {
+			log.debug(successCount + " out of " + submitLog.size() + " puts succeeded. id=" + id);
 		}
 		return successCount;
 	}
 
+	/**
+	 * Waits for cell deletes, retrying the ones that fail, see {@link #retryDeleteCells}.
+	 *
+	 * @param maxWaitTime When set to less than zero, waits for completion. Covers the whole batch
+	 * with all its retries.
+	 * @return The number of deletes that succeeded.
+	 */
 	public int checkAndRetryDeleteCells(String id, Map<Deferred<Object>, KeyValue> submitLog, long maxWaitTime, int maxRetries) throws HBaseRequestException {
-
-		int successCount = 0;
-		HashMap<Deferred<Object>, KeyValue> retryLog = new HashMap<Deferred<Object>, KeyValue>();
-		HashMap<Deferred<Object>, KeyValue> resubmitLog = new HashMap<Deferred<Object>, KeyValue>();
-
-		if (maxRetries > MAX_RETRIES_CAP) {
-			log.warn("Too many retries ({})requested. Number of retries capped at " + MAX_RETRIES_CAP, maxRetries);
-			maxRetries = MAX_RETRIES_CAP;
+		if (submitLog == null) {
+			return 0;
 		}
-
-		if (submitLog != null) {
-
-			int totalCount = submitLog.size();
-
-			retryLog.clear();
-
-			for (Deferred<Object> result: submitLog.keySet()) {
-				try {
-					if (maxWaitTime > 0 ) {
-						result.joinUninterruptibly(maxWaitTime);
-					}
-					else {
-						result.joinUninterruptibly();
-					}
-					successCount++;
-
-				}
-				catch (Exception e) {
-					KeyValue kv = submitLog.get(result);
-					if (kv != null) {
-						log.debug("DeleteCell check failed. Issuing retry. Key={}", new String(kv.key()));
-						retryLog.put(result, kv);
-					}
-					else {
-						log.warn("No key value found in submit log for failed deleteCell. Cannot retry.");
-					}
-				}
-			}
-
-			if (maxRetries > 0 && retryLog.size() > 0) {
-
-				// Throw exception if there are too many failures.
-				// This is added to make sure any retry is a responsible retry.
-				if (submitLog.size() > 10 && retryLog.size() > (submitLog.size()/3)) {
-					log.warn("Too many failed deletes (" + retryLog.size() + " out of " + submitLog.size() + "). Retry attempt canceled.");
-				}
-				else {
-					log.debug("Retrying {} deletes", retryLog.size());
-					// Resubmit failed puts
-					for (KeyValue kv: retryLog.values()) {
-						Deferred<Object> result = performDeleteCell(kv);
-						resubmitLog.put(result, kv);
-					}
-					successCount += checkAndRetryDeleteCells(id, resubmitLog, maxWaitTime, maxRetries-1);
-				}
-			}
-
-			if (log.isDebugEnabled()) {
-				log.debug(successCount + " out of " + totalCount + " deletes succeeded.");
-			}
+		int successCount = awaitBatch(retry(submitLog, resendDeleteCell, maxRetries), maxWaitTime);
+		if (log.isDebugEnabled()) {
+			log.debug(successCount + " out of " + submitLog.size() + " deletes succeeded. id=" + id);
 		}
 		return successCount;
 	}
@@ -0,0 +1,36 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.DeleteRequest;
+import org.hbase.async.GetRequest;
+import org.hbase.async.KeyValue;
+import org.hbase.async.PutRequest;
+
+import java.util.ArrayList;
+
+/**
+ * Takes the requests of a {@link GenericHBaseClient} in place of asynchbase, see
+ * {@link GenericHBaseClient#setBackend(HBaseBackend)}.  The client's window, retries, metrics and
+ * cache all still apply, only the cluster is replaced.
+ *
+ * As with asynchbase, none of these may block, they answer through the Deferred.
+ *
+ * @author jscott
+ */
+public interface HBaseBackend {
+
+	/**
+	 * @return The cells of the row, empty if there is no such row.
+	 */
+	Deferred<ArrayList<KeyValue>> get(GetRequest request);
+
+	Deferred<Object> put(PutRequest request);
+
+	Deferred<Object> delete(DeleteRequest request);
+
+	/**
+	 * @param startKey First key, empty for the start of the table.
+	 * @param stopKey Key after the last, empty for the end of the table.
+	 */
+	ParallelScan.Range scan(byte[] startKey, byte[] stopKey);
+}
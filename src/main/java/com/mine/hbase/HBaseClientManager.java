@@ -2,24 +2,35 @@ package com.mine.hbase;
 
 import com.stumbleupon.async.Callback;
 import com.stumbleupon.async.Deferred;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import org.hbase.async.HBaseClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  * This class is not intended to be extended. It is NOT package private because it has globally
  * accessible accessor methods for modifying the internally managed client instances.
  *
+ * Each quorum gets a pool of HBaseClient instances, one by default. A single client funnels every
+ * request through one Netty pipeline and one set of region client locks, which is what limits a
+ * loader with many threads. With a bigger pool the requests are spread over several clients, see
+ * {@link #setPoolSize(String, int)} and {@link #shard(byte[], int)}.
+ *
  * @author jscott
  */
 public final class HBaseClientManager {
 
 	private static Logger log = LoggerFactory.getLogger(HBaseClientManager.class);
-	private static final Map<String, HBaseClient> HBASE_CLIENTS = new ConcurrentHashMap<String, HBaseClient>();
+	private static final Map<String, HBaseClient[]> HBASE_CLIENTS = new ConcurrentHashMap<String, HBaseClient[]>();
 	private static final Map<String, Short> MAX_BATCH_TIMES = new ConcurrentHashMap<String, Short>();
+	private static final Map<String, Integer> POOL_SIZES = new ConcurrentHashMap<String, Integer>();
 	public static final short DEFAULT_MAX_BATCH_TIME = 1000;
+	public static final int DEFAULT_POOL_SIZE = 1;
 
 	/**
 	 * When the VM shuts down we want this to always run. This will prevent data loss by allowing
@@ -31,21 +42,23 @@ public final class HBaseClientManager {
 			@Override
 			public void run() {
 				log.info("Shutdown of {} has started...", getClass().getName());
-				for (Map.Entry<String, HBaseClient> entry : HBASE_CLIENTS.entrySet()) {
-					Deferred<Object> shutdownRequest = entry.getValue().shutdown();
+				for (Map.Entry<String, HBaseClient[]> entry : HBASE_CLIENTS.entrySet()) {
 					final String quorum = entry.getKey();
-					shutdownRequest.addErrback(
-							new Callback<Exception, Exception>() {
-
-								/**
-								 * Pass on the error to the next error callback (if any);
-								 */
-								@Override
-								public Exception call(Exception arg) {
-									log.error("Exception occurred during a shutdown request for quorum '{}'", quorum);
-									return arg;
-								}
-							});
+					for (HBaseClient client : entry.getValue()) {
+						Deferred<Object> shutdownRequest = client.shutdown();
+						shutdownRequest.addErrback(
+								new Callback<Exception, Exception>() {
+
+									/**
+									 * Pass on the error to the next error callback (if any);
+									 */
+									@Override
+									public Exception call(Exception arg) {
+										log.error("Exception occurred during a shutdown request for quorum '{}'", quorum);
+										return arg;
+									}
+								});
+					}
 				}
 				log.info("Shutdown of {} has completed...", getClass().getName());
 			}
@@ -58,23 +71,85 @@ public final class HBaseClientManager {
 	/**
 	 * 
 	 * @param quorumSpecification comma separated list of servers in quorum
-	 * @return HBaseClient
+	 * @return The first HBaseClient of the quorum's pool
 	 */
 	public static HBaseClient getClient(String quorumSpecification) {
+		return getClients(quorumSpecification)[0];
+	}
+
+	/**
+	 * Creates the pool for the quorum the first time it is asked for. Don't modify the array.
+	 *
+	 * @param quorumSpecification comma separated list of servers in quorum
+	 * @return Every HBaseClient of the quorum's pool
+	 */
+	public static HBaseClient[] getClients(String quorumSpecification) {
 		String clientKey = clientKey(quorumSpecification);
-		HBaseClient client = HBASE_CLIENTS.get(clientKey);
-
-		if (client == null) {
-			log.info("Creating HBaseClient for performing {}s, against quorum {}", quorumSpecification);
-			client = new HBaseClient(quorumSpecification);
-			Short waitTime = MAX_BATCH_TIMES.get(clientKey);
-			if (waitTime != null) {
-				client.setFlushInterval(waitTime);
+		HBaseClient[] clients = HBASE_CLIENTS.get(clientKey);
+		if (clients != null) {
+			return clients;
+		}
+
+		synchronized (HBASE_CLIENTS) {
+			clients = HBASE_CLIENTS.get(clientKey);
+			if (clients == null) {
+				Integer poolSize = POOL_SIZES.get(clientKey);
+				clients = new HBaseClient[poolSize == null ? DEFAULT_POOL_SIZE : poolSize];
+				log.info("Creating {} HBaseClient(s) against quorum {}", clients.length, quorumSpecification);
+				Short waitTime = MAX_BATCH_TIMES.get(clientKey);
+				for (int i = 0; i < clients.length; i++) {
+					clients[i] = new HBaseClient(quorumSpecification);
+					if (waitTime != null) {
+						clients[i].setFlushInterval(waitTime);
+					}
+				}
+				HBASE_CLIENTS.put(clientKey, clients);
 			}
-			HBASE_CLIENTS.put(clientKey, client);
 		}
+		return clients;
+	}
+
+	/**
+	 * Sets how many HBaseClient instances the quorum gets. This must be done before the first
+	 * client for the quorum is created.
+	 *
+	 * @param quorumSpecification comma separated list of servers in quorum
+	 * @param poolSize Number of clients, at least one.
+	 * @throws IllegalStateException if the quorum's clients already exist with another pool size
+	 */
+	public static void setPoolSize(String quorumSpecification, int poolSize) {
+		checkArgument(poolSize > 0, "poolSize must be positive");
+		String clientKey = clientKey(quorumSpecification);
+		synchronized (HBASE_CLIENTS) {
+			HBaseClient[] clients = HBASE_CLIENTS.get(clientKey);
+			checkState(clients == null || clients.length == poolSize,
+					"Clients for quorum %s have already been created, pool size is %s", quorumSpecification, clients == null ? 0 : clients.length);
+			POOL_SIZES.put(clientKey, poolSize);
+		}
+	}
 
-		return client;
+	/**
+	 * @param quorumSpecification comma separated list of servers in quorum
+	 * @return The number of clients the quorum has or will have.
+	 */
+	public static int getPoolSize(String quorumSpecification) {
+		Integer poolSize = POOL_SIZES.get(clientKey(quorumSpecification));
+		return poolSize == null ? DEFAULT_POOL_SIZE : poolSize;
+	}
+
+	/**
+	 * Picks the client for a row. All requests for one row go through the same client, so puts and
+	 * deletes of a row still reach the region server in the order they were made.
+	 *
+	 * @return An index from 0 to shards - 1.
+	 */
+	public static int shard(byte[] key, int shards) {
+		int h = Arrays.hashCode(key);
+		// keys that differ only in their last bytes still spread
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return (h & Integer.MAX_VALUE) % shards;
 	}
 
 	private static String clientKey(String quorumSpecification) {
@@ -87,28 +162,31 @@ public final class HBaseClientManager {
 	 */
 	public static Short getMaxClientBatchTime(String quorumSpecification) {
 		String clientKey = clientKey(quorumSpecification);
-		HBaseClient client = HBASE_CLIENTS.get(clientKey);
+		HBaseClient[] clients = HBASE_CLIENTS.get(clientKey);
 		Short value = null;
-		if (client != null) {
-			value = client.getFlushInterval();
+		if (clients != null) {
+			value = clients[0].getFlushInterval();
 		}
 		return value;
 	}
 
 	/**
 	 * If the client is active this change will happen immediately (within two batching cycles).
+	 * It applies to every client in the quorum's pool.
 	 *
 	 * @param Enum (read, write, etc..)
 	 * @param quorumSpecification comma separated list of servers in quorum
 	 * @param maxClientBatchTime If set to zero, batching is disabled and all requests are sent
 	 * immediately. This value is in millis
 	 */
-	public void setMaxClientBatchTime(String quorumSpecification, short maxClientBatchTime) {
+	public static void setMaxClientBatchTime(String quorumSpecification, short maxClientBatchTime) {
 		String clientKey = clientKey(quorumSpecification);
 		MAX_BATCH_TIMES.put(clientKey, maxClientBatchTime);
-		HBaseClient client = HBASE_CLIENTS.get(clientKey);
-		if (client != null) {
-			client.setFlushInterval(maxClientBatchTime);
+		HBaseClient[] clients = HBASE_CLIENTS.get(clientKey);
+		if (clients != null) {
+			for (HBaseClient client : clients) {
+				client.setFlushInterval(maxClientBatchTime);
+			}
 		}
 	}
 }
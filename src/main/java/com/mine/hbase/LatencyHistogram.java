@@ -0,0 +1,92 @@
+package com.mine.hbase;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies into log-linear buckets, so recording is a single atomic increment and a
+ * percentile is read back to within about 6%. Values are in whatever unit the caller records,
+ * microseconds here.
+ *
+ * Each power of two is split into 16 buckets. Values under 16 get a bucket of their own.
+ *
+ * @author jscott
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	public void record(long value) {
+		counts.incrementAndGet(bucket(Math.max(value, 0)));
+	}
+
+	/**
+	 * @return How many values have been recorded.
+	 */
+	public long count() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @param fraction 0.99 for the 99th percentile.
+	 * @return The largest value in the bucket the percentile falls in, 0 if nothing was recorded.
+	 */
+	public long percentile(double fraction) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= Math.max(rank, 1)) {
+				return upperBound(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Moves everything recorded so far into a new histogram and leaves this one empty. Values
+	 * recorded meanwhile end up in one or the other, never both.
+	 */
+	public LatencyHistogram drain() {
+		LatencyHistogram drained = new LatencyHistogram();
+		for (int i = 0; i < BUCKETS; i++) {
+			long n = counts.getAndSet(i, 0);
+			if (n != 0) {
+				drained.counts.set(i, n);
+			}
+		}
+		return drained;
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int magnitude = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long bound = ((SUB_BUCKETS + sub + 1) << (magnitude - SUB_BITS)) - 1;
+		return bound < 0 ? Long.MAX_VALUE : bound;
+	}
+}
@@ -0,0 +1,138 @@
+package com.mine.hbase;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters, an in-flight gauge and a latency histogram for one kind of request. Recording is a
+ * handful of atomic increments with no locks and no allocation, so it costs the same whether or
+ * not anyone is looking.
+ *
+ * @author jscott
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+	private final String name;
+	private final long created = System.nanoTime();
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	// same again, emptied by every summary
+	private final LatencyHistogram recent = new LatencyHistogram();
+	// what the last summary saw
+	private long summaryTime = created;
+	private long summaryCount = 0;
+	private long summaryBytes = 0;
+
+	public OperationMetrics(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Call as a request is sent.
+	 *
+	 * @return The start time to pass to {@link #done}.
+	 */
+	public long start() {
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Call from the request's callback or errback.
+	 */
+	public void done(long start, long size, boolean success) {
+		long micros = (System.nanoTime() - start) / 1000;
+		inFlight.decrementAndGet();
+		count.incrementAndGet();
+		if (success) {
+			bytes.addAndGet(size);
+		}
+		else {
+			errors.incrementAndGet();
+		}
+		latencies.record(micros);
+		recent.record(micros);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	@Override
+	public long getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public double getOpsPerSecond() {
+		return count.get() / seconds(System.nanoTime() - created);
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		return bytes.get() / seconds(System.nanoTime() - created);
+	}
+
+	@Override
+	public long getP50Micros() {
+		return latencies.percentile(0.5);
+	}
+
+	@Override
+	public long getP99Micros() {
+		return latencies.percentile(0.99);
+	}
+
+	@Override
+	public long getP999Micros() {
+		return latencies.percentile(0.999);
+	}
+
+	@Override
+	public long getMaxMicros() {
+		return latencies.percentile(1);
+	}
+
+	/**
+	 * One line about the requests since the last summary, or null if there weren't any.
+	 */
+	public synchronized String summary() {
+		long now = System.nanoTime();
+		long n = count.get();
+		long b = bytes.get();
+		LatencyHistogram period = recent.drain();
+		double seconds = seconds(now - summaryTime);
+		long ops = n - summaryCount;
+		long opBytes = b - summaryBytes;
+		summaryTime = now;
+		summaryCount = n;
+		summaryBytes = b;
+		if (ops == 0 && inFlight.get() == 0) {
+			return null;
+		}
+		return String.format("%s: %.0f ops/s, %.2f MB/s, %d in flight, %d errors, latency p50 %.1fms p99 %.1fms p99.9 %.1fms max %.1fms",
+				name, ops / seconds, opBytes / seconds / (1 << 20), inFlight.get(), errors.get(),
+				period.percentile(0.5) / 1000.0, period.percentile(0.99) / 1000.0, period.percentile(0.999) / 1000.0, period.percentile(1) / 1000.0);
+	}
+
+	private static double seconds(long nanos) {
+		return Math.max(nanos, 1) * 1e-9;
+	}
+}
@@ -0,0 +1,30 @@
+package com.mine.hbase;
+
+/**
+ * What JMX shows for one kind of request. Counts and rates are since the client was initialized,
+ * latencies are from sending a request to its callback.
+ *
+ * @author jscott
+ */
+public interface OperationMetricsMXBean {
+
+	long getCount();
+
+	long getErrors();
+
+	long getBytes();
+
+	long getInFlight();
+
+	double getOpsPerSecond();
+
+	double getBytesPerSecond();
+
+	long getP50Micros();
+
+	long getP99Micros();
+
+	long getP999Micros();
+
+	long getMaxMicros();
+}
@@ -0,0 +1,343 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Scans a key range as several smaller ranges at once, one scanner each, so that every region the
+ * range covers streams rows back at the same time instead of one after the other.  The range is cut
+ * at the split points it is given, normally the region boundaries of the table.
+ *
+ * Rows are read with {@link #nextRow(long)}.  In key order, rows of a later range are fetched ahead
+ * while an earlier one is being read, but are only handed out once the ones before them are done.
+ * Unordered, rows come out of whichever range has some, which is as fast as the regions can go.
+ *
+ * Each range buffers at most maxBufferedRows rows (plus whatever one fetch brings back) and stops
+ * fetching until the reader catches up, so a slow reader doesn't fill the heap.
+ *
+ * The first failed fetch ends the scan, the reader gets it from {@link #nextRow(long)}.
+ *
+ * @author jscott
+ */
+public class ParallelScan {
+
+	private static Logger log = LoggerFactory.getLogger(ParallelScan.class);
+	public static final int DEFAULT_MAX_BUFFERED_ROWS = 1024;
+
+	/**
+	 * One scanner over part of the range.
+	 */
+	public interface Range {
+
+		/**
+		 * @return The next batch of rows, or <code>null</code> once there are no more.
+		 */
+		Deferred<ArrayList<ArrayList<KeyValue>>> nextRows();
+
+		Deferred<Object> close();
+	}
+
+	private final Part[] parts;
+	private final boolean ordered;
+	private final int maxBufferedRows;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition arrived = lock.newCondition();
+	// every part before this one is done and has been read
+	private int current = 0;
+	// the part unordered reads try first
+	private int turn = 0;
+	private boolean closed = false;
+	private Exception failure = null;
+
+	/**
+	 * @param ranges One per part, in key order.
+	 */
+	ParallelScan(List<Range> ranges, boolean ordered, int maxBufferedRows) {
+		checkArgument(!ranges.isEmpty(), "need at least one range");
+		checkArgument(maxBufferedRows > 0, "maxBufferedRows must be positive");
+		this.parts = new Part[ranges.size()];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = new Part(ranges.get(i));
+		}
+		this.ordered = ordered;
+		this.maxBufferedRows = maxBufferedRows;
+	}
+
+	/**
+	 * Cuts [startKey, stopKey) at every split point inside it.
+	 *
+	 * @param startKey First key, empty for the start of the table.
+	 * @param stopKey Key after the last, empty for the end of the table.
+	 * @return The start of each part followed by the stop of the last, so one more than there are
+	 * parts.
+	 */
+	static List<byte[]> boundaries(byte[] startKey, byte[] stopKey, Collection<byte[]> splits) {
+		Comparator<byte[]> order = new Comparator<byte[]>() {
+
+			@Override
+			public int compare(byte[] a, byte[] b) {
+				return GenericHBaseClient.compareKeys(a, b);
+			}
+		};
+		byte[][] sorted = splits.toArray(new byte[splits.size()][]);
+		Arrays.sort(sorted, order);
+
+		List<byte[]> boundaries = new ArrayList<byte[]>();
+		boundaries.add(startKey);
+		for (byte[] split : sorted) {
+			byte[] last = boundaries.get(boundaries.size() - 1);
+			if (order.compare(split, last) > 0 && (stopKey.length == 0 || order.compare(split, stopKey) < 0)) {
+				boundaries.add(split);
+			}
+		}
+		boundaries.add(stopKey);
+		return boundaries;
+	}
+
+	ParallelScan start() {
+		log.debug("Scanning {} ranges", parts.length);
+		for (Part part : parts) {
+			pump(part);
+		}
+		return this;
+	}
+
+	/**
+	 * @param maxWaitTime When set to less than zero, waits for as long as it takes.
+	 * @return The cells of the next row, or <code>null</code> once every row has been read or the
+	 * scan was closed.
+	 * @throws TimeExceededException if no row came in time.
+	 * @throws HBaseRequestException if fetching rows failed.
+	 */
+	public ArrayList<KeyValue> nextRow(long maxWaitTime) throws TimeExceededException, HBaseRequestException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitTime);
+		Part from;
+		ArrayList<KeyValue> row;
+		lock.lock();
+		try {
+			while (true) {
+				if (failure != null) {
+					throw new HBaseRequestException("Scan failed", failure);
+				}
+				if (closed) {
+					return null;
+				}
+				from = ready();
+				if (from != null) {
+					row = from.rows.poll();
+					break;
+				}
+				if (current == parts.length) {
+					return null;
+				}
+				if (maxWaitTime <= 0) {
+					arrived.awaitUninterruptibly();
+				}
+				else {
+					long left = deadline - System.nanoTime();
+					if (left <= 0) {
+						throw new TimeExceededException("Max wait time was exceeded for scan: " + maxWaitTime + "ms");
+					}
+					arrived.awaitNanos(left);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			throw new TimeExceededException("Max wait time was exceeded for scan: " + maxWaitTime + "ms", e);
+		}
+		finally {
+			lock.unlock();
+		}
+		pump(from);
+		return row;
+	}
+
+	/**
+	 * Stops fetching and closes the scanners.  Rows not read yet are dropped.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			arrived.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		for (Part part : parts) {
+			pump(part);
+		}
+	}
+
+	/**
+	 * @return How many scanners the range was cut into.
+	 */
+	public int getRanges() {
+		return parts.length;
+	}
+
+	/**
+	 * @return Rows fetched and not read yet.
+	 */
+	public int getBuffered() {
+		lock.lock();
+		try {
+			int buffered = 0;
+			for (Part part : parts) {
+				buffered += part.rows.size();
+			}
+			return buffered;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The part the next row comes from, if it has one yet.  Moves past parts that are done.  Holds
+	 * the lock.
+	 */
+	private Part ready() {
+		while (current < parts.length && parts[current].done && parts[current].rows.isEmpty()) {
+			current++;
+		}
+		if (ordered) {
+			return current < parts.length && !parts[current].rows.isEmpty() ? parts[current] : null;
+		}
+		// take turns, so no part's buffer fills while another's is read
+		for (int i = 0; i < parts.length; i++) {
+			Part part = parts[turn];
+			turn = (turn + 1) % parts.length;
+			if (!part.rows.isEmpty()) {
+				return part;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Fetches rows for a part until it has enough, is done or has a fetch outstanding.  Completions
+	 * that come straight back loop here rather than recurse.
+	 */
+	private void pump(Part part) {
+		if (part.pumping.getAndIncrement() != 0) {
+			return;
+		}
+		do {
+			fetch(part);
+		}
+		while (part.pumping.decrementAndGet() != 0);
+	}
+
+	private void fetch(final Part part) {
+		boolean close = false;
+		lock.lock();
+		try {
+			if (part.fetching || part.closed) {
+				return;
+			}
+			if (closed || failure != null || part.done) {
+				close = part.closed = true;
+			}
+			else if (part.rows.size() >= maxBufferedRows) {
+				return;
+			}
+			else {
+				part.fetching = true;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		if (close) {
+			part.range.close();
+			return;
+		}
+
+		Deferred<ArrayList<ArrayList<KeyValue>>> rows;
+		try {
+			rows = part.range.nextRows();
+		}
+		catch (RuntimeException e) {
+			rows = Deferred.fromError(e);
+		}
+		rows.addCallbacks(new Callback<Object, ArrayList<ArrayList<KeyValue>>>() {
+
+			@Override
+			public Object call(ArrayList<ArrayList<KeyValue>> batch) {
+				lock.lock();
+				try {
+					part.fetching = false;
+					if (batch == null) {
+						part.done = true;
+					}
+					else {
+						part.rows.addAll(batch);
+					}
+					arrived.signalAll();
+				}
+				finally {
+					lock.unlock();
+				}
+				pump(part);
+				return null;
+			}
+		}, new Callback<Object, Exception>() {
+
+			/**
+			 * Handled here, the reader hears about it from nextRow.
+			 */
+			@Override
+			public Object call(Exception e) {
+				lock.lock();
+				try {
+					part.fetching = false;
+					if (failure == null) {
+						failure = e;
+					}
+					arrived.signalAll();
+				}
+				finally {
+					lock.unlock();
+				}
+				log.warn("Scan failed", e);
+				for (Part other : parts) {
+					pump(other);
+				}
+				return null;
+			}
+		});
+	}
+
+	private static class Part {
+
+		private final Range range;
+		private final ArrayDeque<ArrayList<KeyValue>> rows = new ArrayDeque<ArrayList<KeyValue>>();
+		private final AtomicInteger pumping = new AtomicInteger();
+		// a fetch is outstanding
+		private boolean fetching = false;
+		// the scanner has no more rows
+		private boolean done = false;
+		private boolean closed = false;
+
+		private Part(Range range) {
+			this.range = range;
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.DeleteRequest;
+import org.hbase.async.GetRequest;
+import org.hbase.async.KeyValue;
+import org.hbase.async.PutRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A table held in memory, for loading and reading without a cluster.  Rows live in a sorted map per
+ * region, cut at the split points the table would be created with.  Each request is answered from a
+ * timer after a fixed latency plus a random jitter, and each region takes in only so many bytes per
+ * second, so a region that gets more than its share of the writes falls behind just like a real one.
+ * A fraction of the requests can be made to fail.
+ *
+ * Writes are applied when they are acknowledged, failed ones are not applied at all.
+ *
+ * @author jscott
+ */
+public class RegionSimulator implements HBaseBackend {
+
+	public static final int SCAN_BATCH = 128;
+	private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			return GenericHBaseClient.compareKeys(a, b);
+		}
+	};
+
+	/**
+	 * Answers every simulator's requests.  None of them do more than a map lookup.
+	 */
+	private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "RegionSimulator");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	// the first key of every region but the first, sorted
+	private final byte[][] splits;
+	private final Region[] regions;
+	private final Random random = new Random();
+	private volatile long latencyNanos = 0;
+	private volatile long jitterNanos = 0;
+	private volatile long bytesPerSecond = 0;
+	private volatile double failureRate = 0;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * @param splits Split points the table would be created with, in any order.
+	 */
+	public RegionSimulator(Collection<byte[]> splits) {
+		this.splits = splits.toArray(new byte[splits.size()][]);
+		Arrays.sort(this.splits, KEY_ORDER);
+		regions = new Region[this.splits.length + 1];
+		for (int i = 0; i < regions.length; i++) {
+			regions[i] = new Region();
+		}
+	}
+
+	/**
+	 * @param millis Time every request takes.
+	 * @param jitterMillis Most extra time, picked at random for each request.
+	 */
+	public void setLatency(long millis, long jitterMillis) {
+		checkArgument(millis >= 0 && jitterMillis >= 0, "latency must not be negative");
+		this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+	}
+
+	/**
+	 * @param bytesPerSecond Most bytes of puts each region takes in per second, zero for no limit.
+	 */
+	public void setRegionBandwidth(long bytesPerSecond) {
+		checkArgument(bytesPerSecond >= 0, "bytesPerSecond must not be negative");
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * @param failureRate Fraction of requests, from 0 to 1, that fail.
+	 */
+	public void setFailureRate(double failureRate) {
+		checkArgument(failureRate >= 0 && failureRate <= 1, "failureRate must be from 0 to 1");
+		this.failureRate = failureRate;
+	}
+
+	@Override
+	public Deferred<ArrayList<KeyValue>> get(final GetRequest request) {
+		final Region region = region(request.key());
+		return answer(region, 0, new Operation<ArrayList<KeyValue>>() {
+
+			@Override
+			public ArrayList<KeyValue> run() {
+				ArrayList<KeyValue> row = new ArrayList<KeyValue>();
+				NavigableMap<byte[], byte[]> cells = region.rows.get(request.key());
+				if (cells == null) {
+					return row;
+				}
+				if (request.qualifiers() == null) {
+					for (Map.Entry<byte[], byte[]> cell : cells.entrySet()) {
+						row.add(new KeyValue(request.key(), request.family(), cell.getKey(), cell.getValue()));
+					}
+					return row;
+				}
+				for (byte[] qualifier : request.qualifiers()) {
+					byte[] value = cells.get(qualifier);
+					if (value != null) {
+						row.add(new KeyValue(request.key(), request.family(), qualifier, value));
+					}
+				}
+				return row;
+			}
+		});
+	}
+
+	@Override
+	public Deferred<Object> put(final PutRequest request) {
+		final Region region = region(request.key());
+		long size = request.key().length;
+		for (int i = 0; i < request.qualifiers().length; i++) {
+			size += request.qualifiers()[i].length + request.values()[i].length;
+		}
+		return answer(region, size, new Operation<Object>() {
+
+			@Override
+			public Object run() {
+				NavigableMap<byte[], byte[]> cells = region.rows.get(request.key());
+				if (cells == null) {
+					cells = new ConcurrentSkipListMap<byte[], byte[]>(KEY_ORDER);
+					NavigableMap<byte[], byte[]> raced = region.rows.putIfAbsent(request.key(), cells);
+					cells = raced == null ? cells : raced;
+				}
+				for (int i = 0; i < request.qualifiers().length; i++) {
+					cells.put(request.qualifiers()[i], request.values()[i]);
+				}
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public Deferred<Object> delete(final DeleteRequest request) {
+		final Region region = region(request.key());
+		return answer(region, 0, new Operation<Object>() {
+
+			@Override
+			public Object run() {
+				byte[][] qualifiers = request.qualifiers();
+				// asynchbase marks a whole row delete with one empty qualifier
+				if (qualifiers == null || qualifiers.length == 0 || (qualifiers.length == 1 && qualifiers[0].length == 0)) {
+					region.rows.remove(request.key());
+					return null;
+				}
+				NavigableMap<byte[], byte[]> cells = region.rows.get(request.key());
+				if (cells != null) {
+					for (byte[] qualifier : qualifiers) {
+						cells.remove(qualifier);
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public ParallelScan.Range scan(final byte[] startKey, final byte[] stopKey) {
+		return new ParallelScan.Range() {
+
+			private byte[] next = startKey;
+			private boolean done = false;
+
+			@Override
+			public Deferred<ArrayList<ArrayList<KeyValue>>> nextRows() {
+				return answer(regions[regionIndex(next)], 0, new Operation<ArrayList<ArrayList<KeyValue>>>() {
+
+					@Override
+					public ArrayList<ArrayList<KeyValue>> run() {
+						if (done) {
+							return null;
+						}
+						ArrayList<ArrayList<KeyValue>> batch = new ArrayList<ArrayList<KeyValue>>();
+						// a batch stops at the end of a region, like a real scanner's
+						int index = regionIndex(next);
+						byte[] last = null;
+						for (Map.Entry<byte[], NavigableMap<byte[], byte[]>> row : regions[index].rows.tailMap(next, true).entrySet()) {
+							if (batch.size() == SCAN_BATCH || (stopKey.length > 0 && KEY_ORDER.compare(row.getKey(), stopKey) >= 0)) {
+								break;
+							}
+							last = row.getKey();
+							ArrayList<KeyValue> cells = new ArrayList<KeyValue>();
+							// one family, so it isn't kept
+							for (Map.Entry<byte[], byte[]> cell : row.getValue().entrySet()) {
+								cells.add(new KeyValue(last, new byte[0], cell.getKey(), cell.getValue()));
+							}
+							batch.add(cells);
+						}
+						if (batch.size() == SCAN_BATCH) {
+							// the smallest key after the last one
+							next = Arrays.copyOf(last, last.length + 1);
+						}
+						else if (index == splits.length || (stopKey.length > 0 && KEY_ORDER.compare(splits[index], stopKey) >= 0)) {
+							done = true;
+						}
+						else {
+							next = splits[index];
+						}
+						return batch.isEmpty() && done ? null : batch;
+					}
+				});
+			}
+
+			@Override
+			public Deferred<Object> close() {
+				return Deferred.fromResult(null);
+			}
+		};
+	}
+
+	/**
+	 * @return Requests answered or still outstanding.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return Requests that were made to fail.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return Rows stored, in every region.
+	 */
+	public long getRows() {
+		long rows = 0;
+		for (Region region : regions) {
+			rows += region.rows.size();
+		}
+		return rows;
+	}
+
+	/**
+	 * @return Rows stored in each region, in key order.
+	 */
+	public long[] getRowsPerRegion() {
+		long[] rows = new long[regions.length];
+		for (int i = 0; i < regions.length; i++) {
+			rows[i] = regions[i].rows.size();
+		}
+		return rows;
+	}
+
+	private Region region(byte[] key) {
+		return regions[regionIndex(key)];
+	}
+
+	private int regionIndex(byte[] key) {
+		int i = Arrays.binarySearch(splits, key, KEY_ORDER);
+		// a split point is the first key of the region after it
+		return i >= 0 ? i + 1 : -i - 1;
+	}
+
+	/**
+	 * Runs the operation from the timer once the region has taken in the request's bytes and the
+	 * latency has passed.
+	 */
+	private <T> Deferred<T> answer(Region region, long size, final Operation<T> operation) {
+		requests.incrementAndGet();
+		long delay = latencyNanos;
+		final boolean fail;
+		synchronized (random) {
+			delay += jitterNanos == 0 ? 0 : (long) (random.nextDouble() * jitterNanos);
+			fail = random.nextDouble() < failureRate;
+		}
+		if (bytesPerSecond > 0 && size > 0) {
+			delay += region.take(size * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+		}
+
+		final Deferred<T> result = new Deferred<T>();
+		TIMER.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				if (fail) {
+					failures.incrementAndGet();
+					result.callback(new HBaseRequestException("Simulated failure"));
+					return;
+				}
+				T value;
+				try {
+					value = operation.run();
+				}
+				catch (RuntimeException e) {
+					result.callback(e);
+					return;
+				}
+				result.callback(value);
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+		return result;
+	}
+
+	private interface Operation<T> {
+
+		T run();
+	}
+
+	private static class Region {
+
+		private final ConcurrentSkipListMap<byte[], NavigableMap<byte[], byte[]>> rows = new ConcurrentSkipListMap<byte[], NavigableMap<byte[], byte[]>>(KEY_ORDER);
+		// when the region is done taking in what it has been sent so far
+		private long busyUntil = 0;
+
+		/**
+		 * @return Nanos until the region has taken in this request as well.
+		 */
+		private synchronized long take(long nanos) {
+			long now = System.nanoTime();
+			busyUntil = Math.max(busyUntil, now) + nanos;
+			return busyUntil - now;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Retries failed requests without ever waiting on one. Each request gets a callback and an errback,
+ * and a failed request is sent again from a shared timer after an exponential backoff with jitter.
+ * Nothing joins, so a batch of any size ties up no threads while it is outstanding.
+ *
+ * Retrying is meant to get past the odd failure, not to hammer a cluster that is in trouble. If more
+ * than a third of a batch of more than ten requests fails, the batch stops retrying and the rest of
+ * its failures are final.
+ *
+ * @author jscott
+ */
+public class RetryEngine {
+
+	private static Logger log = LoggerFactory.getLogger(RetryEngine.class);
+	public static final long DEFAULT_BASE_DELAY = 50;
+	public static final long DEFAULT_MAX_DELAY = 5000;
+
+	/**
+	 * One timer for every engine. It only sends requests, so a single thread is plenty.
+	 */
+	private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "HBaseRetryTimer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final long baseDelay;
+	private final long maxDelay;
+	private final Random random = new Random();
+
+	/**
+	 * Sends one request, again.
+	 */
+	public interface Request {
+
+		/**
+		 * Must not block, it is called from callbacks and from the timer.
+		 */
+		Deferred<Object> send(KeyValue keyValue);
+	}
+
+	public RetryEngine() {
+		this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * @param baseDelay Millis to wait before the first retry of a request. Each retry after that
+	 * waits twice as long, up to maxDelay, and the actual wait is picked at random between half of
+	 * that and all of it.
+	 * @param maxDelay Longest wait in millis.
+	 */
+	public RetryEngine(long baseDelay, long maxDelay) {
+		checkArgument(baseDelay >= 0, "baseDelay must not be negative");
+		checkArgument(maxDelay >= baseDelay, "maxDelay must be at least baseDelay");
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Watches requests that have already been sent and sends the ones that fail again.
+	 *
+	 * @param submitLog The requests in flight and what each of them sent.
+	 * @param request How to send one again.
+	 * @param maxRetries How many times each one may be sent again.
+	 * @return Completes once every request has either succeeded or given up.
+	 */
+	public Batch retry(Map<Deferred<Object>, KeyValue> submitLog, Request request, int maxRetries) {
+		Batch batch = new Batch(submitLog.size(), request, maxRetries);
+		for (Map.Entry<Deferred<Object>, KeyValue> entry : submitLog.entrySet()) {
+			batch.watch(entry.getKey(), entry.getValue(), 0);
+		}
+		batch.submitted();
+		return batch;
+	}
+
+	/**
+	 * Millis to wait before retry number attempt (counting from 1).
+	 */
+	long delay(int attempt) {
+		long delay = baseDelay << Math.min(attempt - 1, 30);
+		if (delay > maxDelay || delay < 0) {
+			delay = maxDelay;
+		}
+		double jitter;
+		synchronized (random) {
+			jitter = random.nextDouble();
+		}
+		return (long) (delay * (0.5 + 0.5 * jitter));
+	}
+
+	/**
+	 * The requests from one call to {@link #retry}.
+	 */
+	public class Batch {
+
+		private final int size;
+		private final Request request;
+		private final int maxRetries;
+		private final Deferred<Integer> completion = new Deferred<Integer>();
+		// one for the caller still adding requests, so the batch can't finish early
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private final AtomicInteger succeeded = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		// requests that failed at least once
+		private final AtomicInteger failedOnce = new AtomicInteger();
+		private volatile boolean open = false;
+		private volatile Exception lastError = null;
+
+		private Batch(int size, Request request, int maxRetries) {
+			this.size = size;
+			this.request = request;
+			this.maxRetries = maxRetries;
+		}
+
+		/**
+		 * @return The number of requests that succeeded, once all of them are done.
+		 */
+		public Deferred<Integer> getCompletion() {
+			return completion;
+		}
+
+		public int getSucceeded() {
+			return succeeded.get();
+		}
+
+		/**
+		 * @return How many requests have failed for good so far.
+		 */
+		public int getFailed() {
+			return failed.get();
+		}
+
+		/**
+		 * @return True once too much of the batch failed and retries were stopped.
+		 */
+		public boolean isOpen() {
+			return open;
+		}
+
+		/**
+		 * @return The error from the most recent failure, if there was one.
+		 */
+		public Exception getLastError() {
+			return lastError;
+		}
+
+		/**
+		 * @return The request's Deferred, which once the callbacks here have run carries the outcome of
+		 * its last attempt.
+		 */
+		private Deferred<Object> watch(Deferred<Object> result, final KeyValue keyValue, final int attempt) {
+			pending.incrementAndGet();
+			return result.addCallbacks(new Callback<Object, Object>() {
+
+				@Override
+				public Object call(Object arg) {
+					succeeded.incrementAndGet();
+					done();
+					return arg;
+				}
+			}, new Callback<Object, Exception>() {
+
+				/**
+				 * Anyone else waiting on the request gets the outcome of the retry, or this error if it
+				 * won't be retried.
+				 */
+				@Override
+				public Object call(Exception e) {
+					return failure(keyValue, attempt, e);
+				}
+			});
+		}
+
+		/**
+		 * @return The error if it is final, otherwise a Deferred that completes with the outcome of
+		 * the retries.
+		 */
+		private Object failure(final KeyValue keyValue, final int attempt, Exception e) {
+			lastError = e;
+			if (attempt == 0 && failedOnce.incrementAndGet() > size / 3 && size > 10 && !open) {
+				open = true;
+				log.warn("Too many failed requests (" + failedOnce.get() + " out of " + size + "). Retries canceled.");
+			}
+			if (keyValue == null || open || attempt >= maxRetries) {
+				if (keyValue != null) {
+					log.warn("Request failed. Key=" + new String(keyValue.key()), e);
+				}
+				else {
+					log.warn("No key value found in submit log for failed request. Cannot retry.");
+				}
+				failed.incrementAndGet();
+				done();
+				return e;
+			}
+
+			long wait = delay(attempt + 1);
+			log.debug("Request failed. Retrying in {}ms. Key={}", wait, new String(keyValue.key()));
+			final Deferred<Object> outcome = new Deferred<Object>();
+			TIMER.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					Deferred<Object> result;
+					try {
+						result = request.send(keyValue);
+					}
+					catch (Exception e) {
+						result = Deferred.fromError(e);
+					}
+					watch(result, keyValue, attempt + 1).chain(outcome);
+					done();
+				}
+			}, wait, TimeUnit.MILLISECONDS);
+			return outcome;
+		}
+
+		private void submitted() {
+			done();
+		}
+
+		private void done() {
+			if (pending.decrementAndGet() == 0) {
+				if (log.isDebugEnabled()) {
+					log.debug(succeeded.get() + " out of " + size + " requests succeeded.");
+				}
+				completion.callback(succeeded.get());
+			}
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package com.mine.hbase;
+
+import org.hbase.async.KeyValue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps the results of recent gets, bounded by their size in bytes and evicting the least recently
+ * used row first. A row is cached with the results of whatever gets were made on it, whole row or
+ * single column, and a write to the row drops all of them.
+ *
+ * A get that was already on its way when the row was written could bring back the old value after
+ * the write dropped it. To keep that out, a reader takes a stamp before sending the get and the
+ * result is only cached if no write to a row in the same stripe happened in between.
+ *
+ * @author jscott
+ */
+public class RowCache implements RowCacheMXBean {
+
+	private static final int STRIPES = 1024;
+	// rough bytes for the map entry, the row and the list around each result, which also counts
+	// the row key
+	private static final long OVERHEAD = 128;
+
+	private final long maxBytes;
+	private final LinkedHashMap<ByteBuffer, Row> rows = new LinkedHashMap<ByteBuffer, Row>(16, 0.75f, true);
+	private final AtomicLongArray writes = new AtomicLongArray(STRIPES);
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+	private long invalidations = 0;
+
+	public RowCache(long maxBytes) {
+		checkArgument(maxBytes > 0, "maxBytes must be positive");
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param qualifier The column that was asked for, null for the whole row.
+	 * @return A copy of the cached result, or null if there isn't a current one.
+	 */
+	public synchronized ArrayList<KeyValue> get(byte[] key, byte[] qualifier) {
+		ByteBuffer rowKey = ByteBuffer.wrap(key);
+		Row row = rows.get(rowKey);
+		Result result = row == null ? null : row.find(qualifier);
+		if (result != null && result.expires != 0 && result.expires <= System.currentTimeMillis()) {
+			expirations++;
+			row.results.remove(result);
+			bytes -= result.bytes;
+			if (row.results.isEmpty()) {
+				rows.remove(rowKey);
+			}
+			result = null;
+		}
+		if (result == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<KeyValue>(result.cells);
+	}
+
+	/**
+	 * Call before sending the get whose result may be cached.
+	 */
+	public long stamp(byte[] key) {
+		return writes.get(stripe(key));
+	}
+
+	/**
+	 * Caches the result of a get unless the row was written since the stamp was taken.
+	 *
+	 * @param ttl Millis the result may be used for, zero or less for as long as it stays cached.
+	 */
+	public synchronized void put(byte[] key, byte[] qualifier, ArrayList<KeyValue> cells, long stamp, long ttl) {
+		if (writes.get(stripe(key)) != stamp) {
+			return;
+		}
+		long size = OVERHEAD + key.length + (qualifier == null ? 0 : qualifier.length);
+		for (KeyValue kv : cells) {
+			size += ClientMetrics.size(kv);
+		}
+		if (size > maxBytes) {
+			return;
+		}
+		ByteBuffer rowKey = ByteBuffer.wrap(key.clone());
+		Row row = rows.get(rowKey);
+		if (row == null) {
+			row = new Row();
+			rows.put(rowKey, row);
+		}
+		Result old = row.find(qualifier);
+		if (old != null) {
+			row.results.remove(old);
+			bytes -= old.bytes;
+		}
+		row.results.add(new Result(qualifier, new ArrayList<KeyValue>(cells), size, ttl > 0 ? System.currentTimeMillis() + ttl : 0));
+		bytes += size;
+		evict();
+	}
+
+	/**
+	 * Drops everything cached for a row. Call before a write to it is sent and again once it has
+	 * completed.
+	 */
+	public void invalidate(byte[] key) {
+		writes.incrementAndGet(stripe(key));
+		synchronized (this) {
+			Row row = rows.remove(ByteBuffer.wrap(key));
+			if (row != null) {
+				invalidations++;
+				for (Result result : row.results) {
+					bytes -= result.bytes;
+				}
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		rows.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	@Override
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	@Override
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	@Override
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	@Override
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	@Override
+	public synchronized int getRows() {
+		return rows.size();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<ByteBuffer, Row>> it = rows.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<ByteBuffer, Row> eldest = it.next();
+			for (Result result : eldest.getValue().results) {
+				bytes -= result.bytes;
+			}
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private static int stripe(byte[] key) {
+		return (Arrays.hashCode(key) & Integer.MAX_VALUE) % STRIPES;
+	}
+
+	private static class Row {
+
+		// a row seldom has more than a couple, a list beats a map
+		private final ArrayList<Result> results = new ArrayList<Result>(2);
+
+		private Result find(byte[] qualifier) {
+			for (Result result : results) {
+				if (Arrays.equals(result.qualifier, qualifier)) {
+					return result;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static class Result {
+
+		private final byte[] qualifier;
+		private final ArrayList<KeyValue> cells;
+		private final long bytes;
+		private final long expires;
+
+		private Result(byte[] qualifier, ArrayList<KeyValue> cells, long bytes, long expires) {
+			this.qualifier = qualifier;
+			this.cells = cells;
+			this.bytes = bytes;
+			this.expires = expires;
+		}
+	}
+}
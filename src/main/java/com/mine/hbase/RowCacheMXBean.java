@@ -0,0 +1,27 @@
+package com.mine.hbase;
+
+/**
+ * What JMX shows for a {@link RowCache}.
+ *
+ * @author jscott
+ */
+public interface RowCacheMXBean {
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRate();
+
+	long getEvictions();
+
+	long getExpirations();
+
+	long getInvalidations();
+
+	long getBytes();
+
+	long getMaxBytes();
+
+	int getRows();
+}
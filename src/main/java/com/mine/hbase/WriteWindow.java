@@ -0,0 +1,210 @@
+package com.mine.hbase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits how many requests, and how many bytes of them, may be outstanding at once.  A request
+ * takes its share of the window before it is sent and gives it back when its Deferred completes,
+ * successfully or not.
+ *
+ * There are two ways to wait for room.  {@link #acquire(long)} blocks the calling thread, which is
+ * what a loader thread wants.  {@link #submit(long, Runnable)} never blocks, it parks the work and
+ * runs it from whichever thread releases enough room.  Callbacks must use the second, as blocking
+ * them would stop the very completions that free the window.
+ *
+ * A single request bigger than the whole byte limit is let through once nothing else is
+ * outstanding, otherwise it would wait forever.
+ *
+ * @author jscott
+ */
+public class WriteWindow {
+
+	private final long maxBytes;
+	private final int maxRequests;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	private final ArrayDeque<Parked> parked = new ArrayDeque<Parked>();
+	private long bytes = 0;
+	private int requests = 0;
+	private long peakBytes = 0;
+	private int peakRequests = 0;
+
+	/**
+	 * @param maxBytes Most bytes outstanding at once.
+	 * @param maxRequests Most requests outstanding at once.
+	 */
+	public WriteWindow(long maxBytes, int maxRequests) {
+		checkArgument(maxBytes > 0, "maxBytes must be positive");
+		checkArgument(maxRequests > 0, "maxRequests must be positive");
+		this.maxBytes = maxBytes;
+		this.maxRequests = maxRequests;
+	}
+
+	/**
+	 * Waits until there is room for a request of this size and takes it.  Interrupts don't stop the
+	 * wait, but the thread's interrupt status is set again before returning.
+	 */
+	public void acquire(long size) {
+		lock.lock();
+		try {
+			// parked work was first in line
+			while (!parked.isEmpty() || !fits(size)) {
+				released.awaitUninterruptibly();
+			}
+			take(size);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes room for a request if there is some right now.
+	 *
+	 * @return <code>false</code> if the window is full.
+	 */
+	public boolean tryAcquire(long size) {
+		lock.lock();
+		try {
+			if (!parked.isEmpty() || !fits(size)) {
+				return false;
+			}
+			take(size);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs the task now if there is room, otherwise once enough earlier requests have been released.
+	 * Either way room for the request has been taken by the time the task runs.
+	 */
+	public void submit(long size, Runnable task) {
+		lock.lock();
+		try {
+			if (!parked.isEmpty() || !fits(size)) {
+				parked.add(new Parked(size, task));
+				return;
+			}
+			take(size);
+		}
+		finally {
+			lock.unlock();
+		}
+		task.run();
+	}
+
+	/**
+	 * Gives back the room taken by one request and starts whatever parked work now fits.
+	 */
+	public void release(long size) {
+		List<Runnable> ready = new ArrayList<Runnable>();
+		lock.lock();
+		try {
+			bytes -= size;
+			requests--;
+			while (!parked.isEmpty() && fits(parked.peek().size)) {
+				Parked next = parked.poll();
+				take(next.size);
+				ready.add(next.task);
+			}
+			released.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		for (Runnable task : ready) {
+			task.run();
+		}
+	}
+
+	public long getBytes() {
+		lock.lock();
+		try {
+			return bytes;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public int getRequests() {
+		lock.lock();
+		try {
+			return requests;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return How many requests are parked waiting for room.
+	 */
+	public int getParked() {
+		lock.lock();
+		try {
+			return parked.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public long getPeakBytes() {
+		lock.lock();
+		try {
+			return peakBytes;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public int getPeakRequests() {
+		lock.lock();
+		try {
+			return peakRequests;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	private boolean fits(long size) {
+		return requests < maxRequests && (requests == 0 || bytes + size <= maxBytes);
+	}
+
+	private void take(long size) {
+		bytes += size;
+		requests++;
+		peakBytes = Math.max(peakBytes, bytes);
+		peakRequests = Math.max(peakRequests, requests);
+	}
+
+	private static class Parked {
+		private final long size;
+		private final Runnable task;
+
+		private Parked(long size, Runnable task) {
+			this.size = size;
+			this.task = task;
+		}
+	}
+}
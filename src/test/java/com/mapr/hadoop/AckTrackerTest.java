@@ -0,0 +1,101 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AckTrackerTest {
+    @Test
+    public void testAcks() throws InterruptedException {
+        final List<Deferred<Object>> sent = Lists.newArrayList();
+        TickDataClient tdc = new TickDataClient("", "cf1", "ticks") {
+            @Override
+            public Deferred<Object> performPut(KeyValue keyValue) {
+                Deferred<Object> put = new Deferred<Object>();
+                sent.add(put);
+                return put;
+            }
+        };
+
+        AckTracker acks = new AckTracker();
+        acks.put(tdc, "AAPL", keyValue("AAPL_2015-05-18-09", 100));
+        acks.put(tdc, "AAPL", keyValue("AAPL_2015-05-18-10", 100));
+        acks.put(tdc, "ZIOP", keyValue("ZIOP_2015-05-18-09", 10));
+        // queued is not written
+        assertEquals(3, acks.getPending());
+        assertEquals(0, acks.getRows());
+        assertFalse(acks.await(10));
+
+        sent.get(0).callback(null);
+        sent.get(1).callback(null);
+        sent.get(2).callback(new RuntimeException("region server went away"));
+        assertTrue(acks.await(10));
+        assertEquals(2, acks.getRows());
+        assertEquals(2 * (18 + 100), acks.getBytes());
+        assertEquals(1, acks.getFailures());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        acks.print(new PrintStream(bytes, true));
+        String report = new String(bytes.toByteArray(), Charsets.UTF_8);
+        assertTrue(report, report.startsWith("Acked 2 rows"));
+        assertTrue(report, report.contains("1 failed, 0 outstanding"));
+        assertTrue(report, report.contains("Largest symbols (median 0.0 KB): AAPL 0.2 KB in 2 rows, ZIOP 0.0 KB in 0 rows"));
+        assertTrue(report, report.contains("Slowest symbols by mean ack latency"));
+        assertTrue(report, report.contains("1 symbols had failed puts: ZIOP (1)"));
+    }
+
+    @Test
+    public void testNullSink() throws InterruptedException {
+        NullTickSink sink = new NullTickSink();
+        AckTracker acks = new AckTracker();
+        acks.put(sink, "AAPL", keyValue("AAPL_2015-05-18-09", 100));
+        acks.put(sink, "ZIOP", keyValue("ZIOP_2015-05-18-09", 10));
+        // acked as soon as it is put
+        assertEquals(0, acks.getPending());
+        assertTrue(acks.await(0));
+        assertEquals(2, acks.getRows());
+        assertEquals(2, sink.getRows());
+        assertEquals(18 + 4 + 100 + 18 + 4 + 10, sink.getBytes());
+    }
+
+    @Test
+    public void testRow() throws InterruptedException {
+        final List<Deferred<Object>> sent = Lists.newArrayList();
+        TickDataClient tdc = new TickDataClient("", "cf1", "ticks") {
+            @Override
+            public Deferred<Object> performRowPut(List<KeyValue> keyValues) {
+                Deferred<Object> put = new Deferred<Object>();
+                sent.add(put);
+                return put;
+            }
+        };
+
+        AckTracker acks = new AckTracker();
+        acks.put(tdc, "AAPL", Lists.newArrayList(keyValue("AAPL_2015-05-18-09", 100), keyValue("AAPL_2015-05-18-09", 8)));
+        acks.put(tdc, "ZIOP", Lists.newArrayList(keyValue("ZIOP_2015-05-18-09", 10), keyValue("ZIOP_2015-05-18-09", 8)));
+        // one put and one row each, however many cells
+        assertEquals(2, sent.size());
+        assertEquals(2, acks.getPending());
+
+        sent.get(0).callback(null);
+        sent.get(1).callback(new RuntimeException("region server went away"));
+        assertTrue(acks.await(10));
+        assertEquals(1, acks.getRows());
+        assertEquals(18 + 100 + 8, acks.getBytes());
+        assertEquals(1, acks.getFailures());
+    }
+
+    private static KeyValue keyValue(String key, int size) {
+        return new KeyValue(key.getBytes(Charsets.UTF_8), "cf1".getBytes(Charsets.UTF_8), TickDataClient.DATA_COLUMN, new byte[size]);
+    }
+}
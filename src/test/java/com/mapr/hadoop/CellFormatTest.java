@@ -0,0 +1,52 @@
+package com.mapr.hadoop;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CellFormatTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        DataReader.TransactionList ticks = new DataReader.TransactionList();
+        ticks.add(1431941400125L, 36.58);
+        ticks.add(1431941400125L, 36.6);
+        ticks.add(1431941472500L, 1999.99);
+        // out of order times and falling prices give negative deltas
+        ticks.add(1431941000000L, 0);
+        ticks.add(1431964799999L, 0.001);
+        ticks.add(1431964800000L, 128.38, 128.9, 127.91, 128.02, 1200);
+
+        for (CellFormat format : CellFormat.values()) {
+            DataReader.TransactionList copy = CellFormat.decode(format.encode(ticks));
+            assertEquals(format.name(), ticks.asJsonMaps(), copy.asJsonMaps());
+        }
+        assertEquals(0, CellFormat.decode(CellFormat.BINARY.encode(new DataReader.TransactionList())).size());
+    }
+
+    @Test
+    public void testOpenOnlyBinary() throws IOException {
+        // what BINARY wrote before it kept high, low, close and volume
+        byte[] cell = {1, 2, 20, 10, (byte) 0xD0, 0x0F, (byte) 0xE8, 0x07};
+        DataReader.TransactionList ticks = CellFormat.decode(cell);
+        assertEquals(2, ticks.size());
+        assertEquals(15, ticks.times[1]);
+        assertEquals(1.5, ticks.opens[1], 0);
+        assertEquals(1.5, ticks.closes[1], 0);
+        assertEquals(0, ticks.volumes[1]);
+    }
+
+    @Test
+    public void testBinaryIsSmaller() {
+        DataReader.TransactionList ticks = new DataReader.TransactionList();
+        for (int i = 0; i < 100000; i++) {
+            ticks.add(1431941400000L + 37 * i, 100 + (i % 200) / 100.0);
+        }
+        int json = CellFormat.JSON_MAPS.encode(ticks).length;
+        int binary = CellFormat.BINARY.encode(ticks).length;
+        System.out.printf("json %d bytes, binary %d bytes\n", json, binary);
+        assertTrue(binary * 5 < json);
+    }
+}
@@ -2,14 +2,31 @@ package com.mapr.hadoop;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.joda.time.DateTime;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -47,6 +64,196 @@ public class HBaseExampleTest {
         }
     }
 
+    @Test
+    public void testByteReaderMatches() throws IOException, URISyntaxException {
+        DataReader rd = new DataReader();
+        // partial_ticks.csv has lines with anything from just the open price to every field
+        for (String file : new String[]{"ticks.csv", "partial_ticks.csv"}) {
+            for (boolean cache : new boolean[]{false, true}) {
+                rd.useCache(cache);
+                Map<String, DataReader.TransactionList> expected = rd.read(Resources.newReaderSupplier(Resources.getResource(file), Charsets.UTF_8));
+                Map<String, DataReader.TransactionList> actual;
+                try (FileChannel in = FileChannel.open(resourcePath(file))) {
+                    actual = rd.read(in);
+                }
+                assertEquals(expected.keySet(), actual.keySet());
+                for (String symbol : expected.keySet()) {
+                    DataReader.TransactionList e = expected.get(symbol);
+                    DataReader.TransactionList a = actual.get(symbol);
+                    assertEquals(e.size(), a.size());
+                    for (int i = 0; i < e.size(); i++) {
+                        assertEquals(e.times[i], a.times[i]);
+                        assertEquals(Double.doubleToLongBits(e.opens[i]), Double.doubleToLongBits(a.opens[i]));
+                        assertEquals(Double.doubleToLongBits(e.highs[i]), Double.doubleToLongBits(a.highs[i]));
+                        assertEquals(Double.doubleToLongBits(e.lows[i]), Double.doubleToLongBits(a.lows[i]));
+                        assertEquals(Double.doubleToLongBits(e.closes[i]), Double.doubleToLongBits(a.closes[i]));
+                        assertEquals(e.volumes[i], a.volumes[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelReadMatches() throws IOException, URISyntaxException {
+        DataReader rd = new DataReader();
+        Map<String, DataReader.TransactionList> expected;
+        try (FileChannel in = FileChannel.open(resourcePath("ticks.csv"))) {
+            expected = rd.read(in);
+        }
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            for (int chunks = 1; chunks < 12; chunks++) {
+                Map<String, DataReader.TransactionList> actual = rd.read(resourcePath("ticks.csv"), es, chunks);
+                assertEquals(expected.keySet(), actual.keySet());
+                for (String symbol : expected.keySet()) {
+                    assertEquals(expected.get(symbol).asJsonArrays(), actual.get(symbol).asJsonArrays());
+                }
+            }
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test
+    public void testOffHeapReadMatches() throws IOException, URISyntaxException {
+        DataReader rd = new DataReader();
+        Map<String, DataReader.TransactionList> expected = rd.read(resourcePath("ticks.csv"));
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            for (int chunks = 1; chunks < 12; chunks++) {
+                Map<String, OffHeapTransactionList> actual = rd.readOffHeap(resourcePath("ticks.csv"), es, chunks);
+                assertEquals(expected.keySet(), actual.keySet());
+                for (String symbol : expected.keySet()) {
+                    assertEquals(expected.get(symbol).asJsonArrays(), actual.get(symbol).toTransactionList().asJsonArrays());
+                    actual.get(symbol).close();
+                }
+            }
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test
+    public void testMappedReadMatches() throws IOException, URISyntaxException {
+        DataReader rd = new DataReader();
+        Map<String, DataReader.TransactionList> expected;
+        try (FileChannel in = FileChannel.open(resourcePath("ticks.csv"))) {
+            expected = rd.read(in);
+        }
+        assertEquals(expected.keySet(), rd.read(resourcePath("ticks.csv")).keySet());
+
+        // tiny segments force lines to straddle mappings
+        for (int segment = 128; segment < 1024; segment += 37) {
+            Map<String, DataReader.TransactionList> actual;
+            try (FileChannel in = FileChannel.open(resourcePath("ticks.csv"))) {
+                actual = new TickParser().readMapped(in, 0, in.size(), segment);
+            }
+            assertEquals(expected.keySet(), actual.keySet());
+            for (String symbol : expected.keySet()) {
+                assertEquals(expected.get(symbol).asJsonArrays(), actual.get(symbol).asJsonArrays());
+            }
+        }
+    }
+
+    @Test
+    public void testStreamRows() throws IOException, URISyntaxException {
+        BlockingQueue<TickStream.Row> queue = new ArrayBlockingQueue<TickStream.Row>(100);
+        TickStream stream = new TickStream(queue, 3600 * 1000L);
+        try (FileChannel in = FileChannel.open(resourcePath("ticks.csv"))) {
+            stream.readMapped(in, 0, in.size());
+        }
+        stream.close(1);
+
+        int rows = 0;
+        int ticks = 0;
+        for (TickStream.Row row = queue.poll(); row != TickStream.END; row = queue.poll()) {
+            for (int i = 0; i < row.getTicks().size(); i++) {
+                assertEquals(row.getBucket(), TickDataClient.bucketStart(row.getTicks().times[i], TickDataClient.HOUR));
+            }
+            rows++;
+            ticks += row.getTicks().size();
+        }
+        assertEquals(9, rows);
+        assertEquals(10, ticks);
+        assertEquals(9, stream.rows());
+    }
+
+    @Test
+    public void testStreamWritersFail() throws IOException, URISyntaxException {
+        BlockingQueue<TickStream.Row> queue = new ArrayBlockingQueue<TickStream.Row>(1);
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        Future<Long> writer = es.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                throw new IllegalStateException("region server went away");
+            }
+        });
+        es.shutdown();
+        TickStream stream = new TickStream(queue, 3600 * 1000L);
+        stream.watch(Collections.singletonList(writer));
+        // nine rows don't fit in a queue of one, so the parser would wait forever
+        try (FileChannel in = FileChannel.open(resourcePath("ticks.csv"))) {
+            stream.readMapped(in, 0, in.size());
+            fail("Should have given up on the writers");
+        } catch (IllegalStateException e) {
+            assertEquals("region server went away", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testSplitIntoBuckets() throws IOException, URISyntaxException {
+        Map<String, DataReader.TransactionList> m = new DataReader().read(resourcePath("ticks.csv"));
+        DataReader.TransactionList aapl = m.get("AAPL");
+        SortedMap<Long, DataReader.TransactionList> buckets = aapl.split(TickDataClient.HOUR);
+        assertEquals(3, buckets.size());
+        int ticks = 0;
+        for (Map.Entry<Long, DataReader.TransactionList> bucket : buckets.entrySet()) {
+            String key = TickDataClient.generateKeyString("AAPL", new DateTime(bucket.getKey()), TickDataClient.HOUR);
+            assertEquals(key, TickDataClient.generateKeyString("AAPL", new DateTime(bucket.getValue().times[0])));
+            ticks += bucket.getValue().size();
+        }
+        assertEquals(aapl.size(), ticks);
+
+        // keys within a symbol sort in time order
+        String previous = "";
+        for (long bucket : m.get("AAIT").split(60 * 1000L).keySet()) {
+            String key = TickDataClient.generateKeyString("AAIT", new DateTime(bucket), 60 * 1000L);
+            assertTrue(key.compareTo(previous) > 0);
+            previous = key;
+        }
+    }
+
+    @Test
+    public void testCacheTtl() {
+        TickDataClient tdc = new TickDataClient("", "cf1", "ticks");
+        tdc.setCurrentRowTtl(500);
+        long now = System.currentTimeMillis();
+        // old rows don't change any more
+        assertEquals(0, tdc.cacheTtl(Bytes.toBytes(TickDataClient.generateKeyString("AAPL", new DateTime(now - 3 * TickDataClient.HOUR)))));
+        assertEquals(0, tdc.cacheTtl(Bytes.toBytes(TickDataClient.generateKeyString("AAPL", new DateTime(now - 3 * TickDataClient.HOUR), 60000))));
+        // the current bucket and whole day rows still do
+        assertEquals(500, tdc.cacheTtl(Bytes.toBytes(TickDataClient.generateKeyString("AAPL", new DateTime(now)))));
+        assertEquals(500, tdc.cacheTtl(Bytes.toBytes(TickDataClient.generateKeyString("AAPL", new DateTime(now), 60000))));
+        assertEquals(500, tdc.cacheTtl(Bytes.toBytes("AAPL")));
+        // binary keys too
+        assertEquals(0, tdc.cacheTtl(KeyFormat.BINARY.encode("AAPL", TickDataClient.bucketStart(now - 3 * TickDataClient.HOUR, TickDataClient.HOUR), TickDataClient.HOUR)));
+        assertEquals(500, tdc.cacheTtl(KeyFormat.BINARY.encode("AAPL", TickDataClient.bucketStart(now, 60000), 60000)));
+    }
+
+    @Test
+    public void testJsonMapsRoundTrip() throws IOException, URISyntaxException {
+        Map<String, DataReader.TransactionList> m = new DataReader().read(resourcePath("ticks.csv"));
+        for (DataReader.TransactionList trans : m.values()) {
+            DataReader.TransactionList copy = DataReader.TransactionList.fromJsonMaps(trans.asJsonMaps().getBytes(Charsets.UTF_8));
+            assertEquals(trans.asJsonMaps(), copy.asJsonMaps());
+        }
+    }
+
+    private Path resourcePath(String name) throws URISyntaxException {
+        return Paths.get(Resources.getResource(name).toURI());
+    }
+
     @Test
     public void testJsonMapsAreValid() throws IOException {
         DataReader rd = new DataReader();
@@ -0,0 +1,45 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonTickWriterTest {
+    @Test
+    public void testSameAsFormatter() {
+        DataReader.TransactionList ticks = new DataReader.TransactionList();
+        // ties, negative zero, huge and non-finite values all take the slow path
+        double[] prices = {0, -0.0, 0.0005, 1.0005, 2.675, 999.9995, -1.0005, -0.0004, 4.35, 0.1 + 0.2,
+                1e9, 1e10, 123456789.1235, Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN, Double.NEGATIVE_INFINITY};
+        long[] times = {0, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1431941400125L};
+        for (int i = 0; i < prices.length; i++) {
+            ticks.add(times[i % times.length], prices[i]);
+        }
+        Random rand = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            ticks.add(rand.nextLong() >> rand.nextInt(64), rand.nextInt(2000) + rand.nextInt(100) / 100.0);
+            ticks.add(rand.nextLong(), Double.longBitsToDouble(rand.nextLong()));
+        }
+
+        assertEquals(ticks.asJsonMaps(), new String(JsonTickWriter.jsonMaps(ticks), Charsets.US_ASCII));
+        assertEquals(ticks.asJsonArrays(), new String(JsonTickWriter.jsonArrays(ticks), Charsets.US_ASCII));
+
+        DataReader.TransactionList empty = new DataReader.TransactionList();
+        assertEquals(empty.asJsonMaps(), new String(JsonTickWriter.jsonMaps(empty), Charsets.US_ASCII));
+        assertEquals(empty.asJsonArrays(), new String(JsonTickWriter.jsonArrays(empty), Charsets.US_ASCII));
+    }
+
+    @Test
+    public void testReusableBuffer() {
+        DataReader.TransactionList ticks = new DataReader.TransactionList();
+        ticks.add(1431941400125L, 36.58);
+        ticks.add(1431941472500L, 36.6);
+        byte[] buf = new byte[4096];
+        int end = JsonTickWriter.writeJsonMaps(ticks, buf, 10);
+        assertEquals(JsonTickWriter.jsonMapsLength(ticks), end - 10);
+        assertEquals(ticks.asJsonMaps(), new String(buf, 10, end - 10, Charsets.US_ASCII));
+    }
+}
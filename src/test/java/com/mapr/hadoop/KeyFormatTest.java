@@ -0,0 +1,87 @@
+package com.mapr.hadoop;
+
+import com.google.common.primitives.UnsignedBytes;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeyFormatTest {
+    private static final long START = 1431955800000L;
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void testString() {
+        // the same as the String.format keys before
+        long bucket = TickDataClient.bucketStart(START, TickDataClient.HOUR);
+        assertEquals(String.format("AAPL_%tY-%<tm-%<td-%<tH", new DateTime(bucket).toDate()),
+                Bytes.toString(KeyFormat.STRING.encode("AAPL", bucket, TickDataClient.HOUR)));
+        bucket = TickDataClient.bucketStart(START, 5 * MINUTE);
+        assertEquals(String.format("AAPL_%tY-%<tm-%<td-%<tH-%<tM", new DateTime(bucket).toDate()),
+                Bytes.toString(KeyFormat.STRING.encode("AAPL", bucket, 5 * MINUTE)));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (KeyFormat format : KeyFormat.values()) {
+            for (long interval : new long[]{MINUTE, 15 * MINUTE, TickDataClient.HOUR, 24 * TickDataClient.HOUR}) {
+                long bucket = TickDataClient.bucketStart(START, interval);
+                byte[] key = format.encode("BRK.A", bucket, interval);
+                assertEquals(format + " " + interval, bucket, (long) KeyFormat.bucketStart(key));
+                assertEquals("BRK.A", KeyFormat.symbol(key));
+            }
+        }
+        // day rows are just the symbol
+        assertNull(KeyFormat.bucketStart(Bytes.toBytes("AAPL")));
+        assertEquals("AAPL", KeyFormat.symbol(Bytes.toBytes("AAPL")));
+        // symbols that aren't ASCII still work
+        assertEquals("\u00C4", KeyFormat.symbol(KeyFormat.BINARY.encode("\u00C4", START, MINUTE)));
+    }
+
+    @Test
+    public void testBinary() {
+        byte[] key = KeyFormat.BINARY.encode("AAPL", START, TickDataClient.HOUR);
+        assertEquals(9, key.length);
+        long minute = START / MINUTE;
+        assertEquals(Arrays.toString(new byte[]{'A', 'A', 'P', 'L', 0, (byte) (minute >> 24), (byte) (minute >> 16), (byte) (minute >> 8), (byte) minute}),
+                Arrays.toString(key));
+        assertEquals(18, KeyFormat.STRING.encode("AAPL", START, TickDataClient.HOUR).length);
+    }
+
+    @Test
+    public void testOrder() {
+        Comparator<byte[]> order = UnsignedBytes.lexicographicalComparator();
+        List<String> symbols = Arrays.asList("A", "AA", "AAPL", "B");
+        for (KeyFormat format : KeyFormat.values()) {
+            byte[] previous = null;
+            for (String symbol : symbols) {
+                // across the top bit of a byte of the minute as well
+                for (long bucket = START; bucket < START + 300 * MINUTE; bucket += MINUTE) {
+                    byte[] key = format.encode(symbol, bucket, MINUTE);
+                    if (previous != null && KeyFormat.symbol(previous).equals(symbol)) {
+                        assertTrue(format + " " + bucket, order.compare(previous, key) < 0);
+                    }
+                    previous = key;
+                }
+            }
+        }
+
+        // binary keys keep every symbol before the longer symbols that start with it
+        byte[] previous = new byte[0];
+        for (String symbol : symbols) {
+            byte[] first = KeyFormat.BINARY.encode(symbol, START, MINUTE);
+            assertTrue(order.compare(previous, first) < 0);
+            previous = KeyFormat.BINARY.encode(symbol, START + 1000 * TickDataClient.HOUR, MINUTE);
+        }
+        // and a symbol's name is a split point in front of its rows
+        assertTrue(order.compare(Bytes.toBytes("AAPL"), KeyFormat.BINARY.encode("AAPL", START, MINUTE)) < 0);
+        assertTrue(order.compare(KeyFormat.BINARY.encode("AA", START, MINUTE), Bytes.toBytes("AAPL")) < 0);
+    }
+}
@@ -0,0 +1,186 @@
+package com.mapr.hadoop;
+
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.SortedMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class OffHeapTransactionListTest {
+    private static final int SYMBOLS = 3000;
+
+    @Test
+    public void testSameAsHeap() {
+        DataReader.TransactionList heap = new DataReader.TransactionList();
+        OffHeapTransactionList offHeap = new OffHeapTransactionList();
+        try {
+            // enough to need several chunks
+            for (int i = 0; i < 100000; i++) {
+                long time = 1431941400000L + 97 * i;
+                double price = 100 + (i % 1000) / 8.0;
+                heap.add(time, price, price + 1, price - 1, price + 0.5, i);
+                offHeap.add(time, price, price + 1, price - 1, price + 0.5, i);
+            }
+            assertEquals(heap.size(), offHeap.size());
+            for (int i = 0; i < heap.size(); i += 331) {
+                assertEquals(heap.times[i], offHeap.getTime(i));
+                assertEquals(heap.highs[i], offHeap.getHigh(i), 0);
+                assertEquals(heap.volumes[i], offHeap.getVolume(i));
+            }
+            assertEquals(heap.asJsonArrays(), offHeap.toTransactionList().asJsonArrays());
+
+            SortedMap<Long, DataReader.TransactionList> expected = heap.split(TickDataClient.HOUR);
+            SortedMap<Long, DataReader.TransactionList> actual = offHeap.split(TickDataClient.HOUR);
+            assertEquals(expected.keySet(), actual.keySet());
+            for (Long bucket : expected.keySet()) {
+                assertEquals(expected.get(bucket).asJsonArrays(), actual.get(bucket).asJsonArrays());
+            }
+        } finally {
+            offHeap.close();
+        }
+    }
+
+    // the process-wide OffHeapTransactionList.reservedBytes() moves with whatever else runs at the
+    // same time, so these look at the lists' own
+    @Test
+    public void testTransferAndClose() {
+        OffHeapTransactionList a = new OffHeapTransactionList();
+        OffHeapTransactionList b = new OffHeapTransactionList();
+        for (int i = 0; i < 1000; i++) {
+            a.add(i, i, i, i, i, i);
+            b.add(1000 + i, i, i, i, i, i);
+        }
+        long reserved = a.getReservedBytes() + b.getReservedBytes();
+        assertTrue(reserved > 0);
+
+        a.transferFrom(b);
+        assertEquals(2000, a.size());
+        assertEquals(0, b.size());
+        assertEquals(reserved, a.getReservedBytes());
+        assertEquals(0, b.getReservedBytes());
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(i, a.getTime(i));
+        }
+        // a's last chunk is left part full, new ticks go into a fresh one
+        a.add(2000, 0, 0, 0, 0, 0);
+        assertEquals(2000, a.getTime(2000));
+        assertEquals(999, a.getTime(999));
+
+        b.close();
+        a.close();
+        a.close();
+        assertEquals(0, a.getReservedBytes());
+    }
+
+    @Test
+    public void testTrim() {
+        OffHeapTransactionList ticks = new OffHeapTransactionList();
+        for (int i = 0; i < 1000; i++) {
+            ticks.add(i, i + 0.5, i + 1, i - 1, i + 0.25, 2 * i);
+        }
+        // chunks of 256 and 512 and a quarter full one of 1024
+        assertEquals((256 + 512 + 1024) * 48, ticks.getReservedBytes());
+        ticks.trim();
+        assertEquals(1000 * 48, ticks.getReservedBytes());
+        ticks.add(1000, 1000.5, 1001, 999, 1000.25, 2000);
+        for (int i = 0; i <= 1000; i += 7) {
+            assertEquals(i, ticks.getTime(i));
+            assertEquals(i + 0.5, ticks.getOpen(i), 0);
+            assertEquals(i + 0.25, ticks.getClose(i), 0);
+            assertEquals(2 * i, ticks.getVolume(i));
+        }
+        ticks.close();
+        assertEquals(0, ticks.getReservedBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() {
+        OffHeapTransactionList ticks = new OffHeapTransactionList();
+        ticks.add(0, 1, 1, 1, 1, 1);
+        ticks.close();
+        ticks.getTime(0);
+    }
+
+    /**
+     * Loads the same ticks spread over a few thousand symbols both ways and prints what the
+     * collector did.  The off-heap lists must leave the heap nearly alone and, once trimmed, hold
+     * exactly 48 bytes per tick outside it.  What the heap looks like after System.gc() is up to
+     * the collector and anything else running, so this only runs when asked for, with
+     * -Dgc.ticks=1000000 or -Dgc.ticks=10000000 for a full size comparison.
+     */
+    @Test
+    public void testGcComparison() {
+        Integer ticks = Integer.getInteger("gc.ticks");
+        assumeTrue(ticks != null);
+        int n = ticks;
+        for (int round = 0; round < 2; round++) {
+            System.gc();
+            long heapBase = heapUsed();
+            long[] gc0 = gcTotals();
+            double t0 = System.nanoTime() * 1e-9;
+            DataReader.TransactionList[] heap = new DataReader.TransactionList[SYMBOLS];
+            for (int i = 0; i < SYMBOLS; i++) {
+                heap[i] = new DataReader.TransactionList();
+            }
+            for (int i = 0; i < n; i++) {
+                heap[symbol(i)].add(1431941400000L + i, 100, 101, 99, 100.5, i);
+            }
+            double t1 = System.nanoTime() * 1e-9;
+            long[] gc1 = gcTotals();
+            long heapUsed = heapUsed() - heapBase;
+            heap = null;
+
+            System.gc();
+            long offHeapBase = heapUsed();
+            long[] gc2 = gcTotals();
+            double t2 = System.nanoTime() * 1e-9;
+            OffHeapTransactionList[] offHeap = new OffHeapTransactionList[SYMBOLS];
+            for (int i = 0; i < SYMBOLS; i++) {
+                offHeap[i] = new OffHeapTransactionList();
+            }
+            for (int i = 0; i < n; i++) {
+                offHeap[symbol(i)].add(1431941400000L + i, 100, 101, 99, 100.5, i);
+            }
+            double t3 = System.nanoTime() * 1e-9;
+            long[] gc3 = gcTotals();
+            long offHeapUsed = heapUsed() - offHeapBase;
+            long reserved = 0;
+            for (OffHeapTransactionList list : offHeap) {
+                list.trim();
+                reserved += list.getReservedBytes();
+                list.close();
+            }
+
+            System.out.printf("%d ticks, heap %.3fs %d GCs %dms %dMB, off heap %.3fs %d GCs %dms %dMB + %dMB direct\n",
+                    n, t1 - t0, gc1[0] - gc0[0], gc1[1] - gc0[1], heapUsed >> 20,
+                    t3 - t2, gc3[0] - gc2[0], gc3[1] - gc2[1], offHeapUsed >> 20, reserved >> 20);
+            assertEquals(48L * n, reserved);
+            // only the list objects and their chunk handles are on the heap
+            assertTrue(offHeapUsed + " vs " + heapUsed, offHeapUsed < heapUsed / 4);
+        }
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // a skewed mix, as in real data a few symbols trade far more than the rest
+    private static int symbol(int i) {
+        int r = (int) (((i * 2654435761L) >>> 8) % SYMBOLS);
+        return i % 4 == 0 ? r : r % 100;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return new long[]{count, time};
+    }
+}
@@ -0,0 +1,89 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RegionSchedulerTest {
+    @Test
+    public void testRegion() throws IOException {
+        List<String> splits = RegionScheduler.readSplits(Resources.newReaderSupplier(Resources.getResource("splits.txt"), Charsets.UTF_8));
+        assertEquals(13, splits.size());
+        RegionScheduler scheduler = new RegionScheduler(splits, 1);
+        assertEquals(14, scheduler.regions());
+        assertEquals(0, region(scheduler, "AAAA"));
+        // a split point starts the region after it
+        assertEquals(1, region(scheduler, "AAIT"));
+        assertEquals(1, region(scheduler, "AAPL_2015-05-18-09"));
+        assertEquals(1, region(scheduler, "ATRN"));
+        assertEquals(2, region(scheduler, "ATRO"));
+        assertEquals(8, region(scheduler, "MSFT"));
+        assertEquals(13, region(scheduler, "ZIOP"));
+        assertEquals(13, region(scheduler, "ZNGA"));
+    }
+
+    @Test
+    public void testInvokeAll() throws InterruptedException, ExecutionException {
+        final RegionScheduler scheduler = new RegionScheduler(Arrays.asList("M", "F"), 2);
+        final AtomicInteger[] running = new AtomicInteger[scheduler.regions()];
+        final AtomicInteger[] peak = new AtomicInteger[scheduler.regions()];
+        for (int i = 0; i < running.length; i++) {
+            running[i] = new AtomicInteger();
+            peak[i] = new AtomicInteger();
+        }
+        List<Callable<String>> tasks = Lists.newArrayList();
+        List<byte[]> keys = Lists.newArrayList();
+        // most of the work is in one region
+        for (int i = 0; i < 60; i++) {
+            final String key = (i % 4 == 0 ? "A" : i % 4 == 1 ? "G" : "Q") + i;
+            keys.add(key.getBytes(Charsets.UTF_8));
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws InterruptedException {
+                    int region = region(scheduler, key);
+                    int now = running[region].incrementAndGet();
+                    while (peak[region].get() < now) {
+                        peak[region].compareAndSet(peak[region].get(), now);
+                    }
+                    Thread.sleep(1);
+                    running[region].decrementAndGet();
+                    return key;
+                }
+            });
+        }
+
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = scheduler.invokeAll(es, tasks, keys);
+            assertEquals(tasks.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                assertTrue(results.get(i).isDone());
+                assertEquals(new String(keys.get(i), Charsets.UTF_8), results.get(i).get());
+            }
+            for (AtomicInteger p : peak) {
+                assertTrue(p.get() <= 2);
+            }
+            assertEquals(2, peak[2].get());
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    private static int region(RegionScheduler scheduler, String key) {
+        return scheduler.region(key.getBytes(Charsets.UTF_8));
+    }
+}
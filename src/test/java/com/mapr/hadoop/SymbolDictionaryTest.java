@@ -0,0 +1,75 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class SymbolDictionaryTest {
+    @Test
+    public void testLookup() {
+        SymbolDictionary dictionary = new SymbolDictionary(Arrays.asList("AAL", "AAIT", "AA", "MSFT", "AAL"));
+        assertEquals(4, dictionary.size());
+        assertEquals(0, get(dictionary, "AAL"));
+        assertEquals(1, get(dictionary, "AAIT"));
+        assertEquals(2, get(dictionary, "AA"));
+        assertEquals(3, get(dictionary, "MSFT"));
+        assertEquals("MSFT", dictionary.name(3));
+
+        // prefixes, extensions and bytes that aren't in any symbol
+        assertEquals(-1, get(dictionary, "A"));
+        assertEquals(-1, get(dictionary, "AALL"));
+        assertEquals(-1, get(dictionary, "aal"));
+        assertEquals(-1, get(dictionary, "ZIOP"));
+        assertEquals(-1, get(dictionary, ""));
+        assertEquals(-1, get(SymbolDictionary.EMPTY, "AAL"));
+
+        // the lookup works on any slice of a buffer
+        ByteBuffer buf = ByteBuffer.wrap("xxMSFT,".getBytes(Charsets.UTF_8));
+        assertEquals(3, dictionary.get(buf, 2, 6));
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        SymbolDictionary dictionary = SymbolDictionary.read(Resources.newReaderSupplier(Resources.getResource("symbols_only.tsv"), Charsets.UTF_8));
+        assertEquals(2985, dictionary.size());
+        assertEquals("AAIT", dictionary.name(0));
+        assertEquals(0, get(dictionary, "AAIT"));
+        assertEquals(-1, get(dictionary, "Symbol"));
+        for (int i = 0; i < dictionary.size(); i++) {
+            assertEquals(i, get(dictionary, dictionary.name(i)));
+        }
+    }
+
+    @Test
+    public void testParserWithDictionary() throws IOException, URISyntaxException {
+        Map<String, DataReader.TransactionList> expected;
+        try (FileChannel in = FileChannel.open(Paths.get(Resources.getResource("ticks.csv").toURI()))) {
+            expected = new TickParser().read(in);
+        }
+        // ZIOP isn't in this dictionary, so it has to be registered as it is seen
+        SymbolDictionary dictionary = new SymbolDictionary(Arrays.asList("AAPL", "MSFT", "AAIT", "GOOG"));
+        Map<String, DataReader.TransactionList> actual;
+        try (FileChannel in = FileChannel.open(Paths.get(Resources.getResource("ticks.csv").toURI()))) {
+            actual = new TickParser(dictionary).read(in);
+        }
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String symbol : expected.keySet()) {
+            assertEquals(expected.get(symbol).asJsonArrays(), actual.get(symbol).asJsonArrays());
+        }
+    }
+
+    private static int get(SymbolDictionary dictionary, String symbol) {
+        byte[] bytes = symbol.getBytes(Charsets.UTF_8);
+        return dictionary.get(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+}
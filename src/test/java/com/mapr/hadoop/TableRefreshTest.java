@@ -0,0 +1,220 @@
+package com.mapr.hadoop;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mine.hbase.RegionSimulator;
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TableRefreshTest {
+    private static final long START = TickDataClient.bucketStart(1431955800000L, TickDataClient.HOUR);
+    private static final long END = START + 4 * TickDataClient.HOUR;
+
+    @Test
+    public void testRefresh() throws Exception {
+        RegionSimulator simulator = new RegionSimulator(new ArrayList<byte[]>());
+        TickDataClient client = new TickDataClient("", "cf1", "ticks");
+        client.setBackend(simulator);
+        client.setKeyFormat(KeyFormat.BINARY);
+        client.init();
+
+        DataReader.TransactionList ticks = ticks(4, 0);
+        TableRefresh first = refresh(client, "AAPL", ticks);
+        assertEquals(4, first.getWritten());
+        assertEquals(0, first.getUnchanged());
+        assertEquals(4, simulator.getRows());
+        assertEquals(ticks.asJsonMaps(), client.getTicks("AAPL", START, END, TickDataClient.HOUR, 1000).asJsonMaps());
+
+        // the same data again writes nothing
+        long requests = simulator.getRequests();
+        TableRefresh same = refresh(client, "AAPL", ticks);
+        assertEquals(0, same.getWritten());
+        assertEquals(4, same.getUnchanged());
+        // just the batch of gets
+        assertEquals(4, simulator.getRequests() - requests);
+
+        // one tick of the third hour changes
+        DataReader.TransactionList changed = ticks(4, 0);
+        changed.closes[changed.size() / 2 + 1] += 0.01;
+        TableRefresh one = refresh(client, "AAPL", changed);
+        assertEquals(1, one.getWritten());
+        assertEquals(3, one.getUnchanged());
+        assertEquals(changed.asJsonMaps(), client.getTicks("AAPL", START, END, TickDataClient.HOUR, 1000).asJsonMaps());
+
+        // the last hour goes away, then the whole symbol
+        TableRefresh shorter = refresh(client, "AAPL", ticks(3, 0));
+        assertEquals(1, shorter.getWritten());
+        assertEquals(1, shorter.getDeleted());
+        assertEquals(3, simulator.getRows());
+        TableRefresh gone = refresh(client, "AAPL", new DataReader.TransactionList());
+        assertEquals(3, gone.getDeleted());
+        assertEquals(0, simulator.getRows());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        one.print(new PrintStream(bytes, true));
+        assertEquals("Refreshed 4 rows: 3 unchanged, 1 written (25.0%), 0 deleted\n", new String(bytes.toByteArray(), Charsets.UTF_8));
+        client.term();
+    }
+
+    @Test
+    public void testHash() {
+        DataReader.TransactionList ticks = ticks(2, 0);
+        assertEquals(TableRefresh.hash(ticks, CellFormat.BINARY), TableRefresh.hash(ticks(2, 0), CellFormat.BINARY));
+        // the same ticks stored another way are a different cell
+        assertFalse(TableRefresh.hash(ticks, CellFormat.BINARY) == TableRefresh.hash(ticks, CellFormat.JSON_MAPS));
+
+        List<Long> hashes = Lists.newArrayList();
+        hashes.add(TableRefresh.hash(ticks, CellFormat.BINARY));
+        hashes.add(TableRefresh.hash(ticks(2, 1), CellFormat.BINARY));
+        hashes.add(TableRefresh.hash(ticks(1, 0), CellFormat.BINARY));
+        hashes.add(TableRefresh.hash(new DataReader.TransactionList(), CellFormat.BINARY));
+        DataReader.TransactionList volume = ticks(2, 0);
+        volume.volumes[3]++;
+        hashes.add(TableRefresh.hash(volume, CellFormat.BINARY));
+        DataReader.TransactionList time = ticks(2, 0);
+        time.times[3]++;
+        hashes.add(TableRefresh.hash(time, CellFormat.BINARY));
+        assertEquals(hashes.size(), Sets.newHashSet(hashes).size());
+    }
+
+    @Test
+    public void testPlainLoad() throws Exception {
+        RegionSimulator simulator = new RegionSimulator(new ArrayList<byte[]>());
+        TickDataClient client = new TickDataClient("", "cf1", "ticks");
+        client.setBackend(simulator);
+        client.init();
+
+        // rows written without a hash are written again, once
+        DataReader.TransactionList ticks = ticks(2, 0);
+        for (Map.Entry<Long, DataReader.TransactionList> bucket : ticks.split(TickDataClient.HOUR).entrySet()) {
+            byte[] key = KeyFormat.STRING.encode("AAPL", bucket.getKey(), TickDataClient.HOUR);
+            client.performPut(new KeyValue(key, client.getColumnFamilyBytes(), TickDataClient.DATA_COLUMN,
+                    CellFormat.BINARY.encode(bucket.getValue()))).joinUninterruptibly(1000);
+        }
+        assertEquals(2, refresh(client, "AAPL", ticks).getWritten());
+        assertEquals(0, refresh(client, "AAPL", ticks).getWritten());
+        assertEquals(ticks.asJsonMaps(), client.getTicks("AAPL", START, END, TickDataClient.HOUR, 1000).asJsonMaps());
+
+        // a plain load writes the hash in the same put, so its rows are deleted once they have no ticks
+        load(client, ticks(3, 0), 0);
+        TableRefresh shorter = refresh(client, "AAPL", ticks);
+        assertEquals(0, shorter.getWritten());
+        assertEquals(1, shorter.getDeleted());
+        assertEquals(2, simulator.getRows());
+        client.term();
+    }
+
+    @Test
+    public void testSlices() throws Exception {
+        RegionSimulator simulator = new RegionSimulator(new ArrayList<byte[]>());
+        TickDataClient client = new TickDataClient("", "cf1", "ticks");
+        client.setBackend(simulator);
+        client.init();
+
+        // a tick per slice, which a refresh replaces with one data cell, and a bucket that went away
+        load(client, ticks(4, 0), 6 * 60 * 1000L);
+        DataReader.TransactionList ticks = ticks(3, 0);
+        TableRefresh first = refresh(client, "AAPL", ticks);
+        assertEquals(3, first.getWritten());
+        assertEquals(1, first.getDeleted());
+        assertEquals(ticks.asJsonMaps(), client.getTicks("AAPL", START, END, TickDataClient.HOUR, 1000).asJsonMaps());
+        long requests = simulator.getRequests();
+        assertEquals(0, refresh(client, "AAPL", ticks).getWritten());
+        // just the hashes
+        assertEquals(4, simulator.getRequests() - requests);
+        client.term();
+    }
+
+    @Test
+    public void testSlicesKeptOnFailure() throws Exception {
+        RegionSimulator simulator = new RegionSimulator(new ArrayList<byte[]>());
+        TickDataClient client = new TickDataClient("", "cf1", "ticks");
+        client.setBackend(simulator);
+        client.init();
+
+        // the slices are only deleted once the data that replaces them is in
+        DataReader.TransactionList ticks = ticks(4, 0);
+        load(client, ticks, 6 * 60 * 1000L);
+        TickSink failing = new TickSink() {
+            @Override
+            public Deferred<Object> put(KeyValue kv) {
+                return Deferred.fromError(new RuntimeException("region server went away"));
+            }
+
+            @Override
+            public Deferred<Object> put(List<KeyValue> row) {
+                return Deferred.fromError(new RuntimeException("region server went away"));
+            }
+        };
+        AckTracker acks = new AckTracker();
+        new TableRefresh(client, failing, acks, TickDataClient.HOUR, START, END, CellFormat.BINARY, client.getKeyFormat(), 1000).refresh("AAPL", ticks(4, 1));
+        assertTrue(acks.await(1000));
+        assertEquals(4, acks.getFailures());
+        assertEquals(ticks.asJsonMaps(), client.getTicks("AAPL", START, END, TickDataClient.HOUR, 1000).asJsonMaps());
+        client.term();
+    }
+
+    @Test
+    public void testLoadThenRefresh() throws Exception {
+        RegionSimulator simulator = new RegionSimulator(new ArrayList<byte[]>());
+        TickDataClient client = new TickDataClient("", "cf1", "ticks");
+        client.setBackend(simulator);
+        client.init();
+
+        // a plain load leaves the hashes a refresh needs
+        DataReader.TransactionList ticks = ticks(4, 0);
+        load(client, ticks, 0);
+        assertEquals(0, refresh(client, "AAPL", ticks).getWritten());
+
+        // and replaces them, so going back to the first ticks rewrites what the load changed
+        DataReader.TransactionList changed = ticks(4, 0);
+        changed.closes[changed.size() / 2 + 1] += 0.01;
+        load(client, changed, 0);
+        assertEquals(1, refresh(client, "AAPL", ticks).getWritten());
+        assertEquals(ticks.asJsonMaps(), client.getTicks("AAPL", START, END, TickDataClient.HOUR, 1000).asJsonMaps());
+        client.term();
+    }
+
+    private static void load(TickDataClient client, DataReader.TransactionList ticks, long slice) throws InterruptedException {
+        Map<String, DataReader.TransactionList> m = Maps.newHashMap();
+        m.put("AAPL", ticks);
+        AckTracker acks = new AckTracker();
+        new HBaseExample.TickWriterCallable(client, m, "ticks", "cf1", "AAPL", TickDataClient.HOUR, CellFormat.BINARY, client.getKeyFormat(), slice, acks).call();
+        assertTrue(acks.await(1000));
+        assertEquals(0, acks.getFailures());
+    }
+
+    private static TableRefresh refresh(TickDataClient client, String symbol, DataReader.TransactionList ticks) throws Exception {
+        AckTracker acks = new AckTracker();
+        TableRefresh r = new TableRefresh(client, client, acks, TickDataClient.HOUR, START, END, CellFormat.BINARY, client.getKeyFormat(), 1000);
+        r.refresh(symbol, ticks);
+        assertTrue(acks.await(1000));
+        assertEquals(0, acks.getFailures());
+        return r;
+    }
+
+    /**
+     * Ten ticks an hour, with prices that depend on the seed.
+     */
+    private static DataReader.TransactionList ticks(int hours, int seed) {
+        DataReader.TransactionList r = new DataReader.TransactionList();
+        for (int i = 0; i < hours * 10; i++) {
+            double price = 100 + seed + i;
+            r.add(START + i * 6 * 60 * 1000L, price, price + 1, price - 1, price, 100 + i);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,99 @@
+package com.mapr.hadoop;
+
+import com.mine.hbase.RegionSimulator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hbase.async.KeyValue;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TickSlicesTest {
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void testRoundTrip() throws IOException, URISyntaxException {
+        Map<String, DataReader.TransactionList> m = new DataReader().read(Paths.get(getClass().getResource("/ticks.csv").toURI()));
+        for (CellFormat format : CellFormat.values()) {
+            for (DataReader.TransactionList ticks : m.values()) {
+                List<KeyValue> cells = TickSlices.keyValues(Bytes.toBytes("k"), Bytes.toBytes("cf1"), ticks, MINUTE, format);
+                assertEquals(ticks.split(MINUTE).size(), cells.size());
+                long previous = Long.MIN_VALUE;
+                for (KeyValue cell : cells) {
+                    // columns in time order, versioned when they are written
+                    long start = Bytes.toLong(cell.qualifier());
+                    assertTrue(start > previous);
+                    previous = start;
+                    DataReader.TransactionList slice = CellFormat.decode(cell.value());
+                    assertEquals(KeyValue.TIMESTAMP_NOW, cell.timestamp());
+                    assertTrue(slice.times[0] >= start && slice.times[slice.size() - 1] < start + MINUTE);
+                }
+                assertEquals(ticks.asJsonMaps(), TickSlices.stitch(cells).asJsonMaps());
+            }
+        }
+    }
+
+    @Test
+    public void testStitchOutOfOrder() throws IOException {
+        DataReader.TransactionList a = new DataReader.TransactionList();
+        a.add(3000, 3);
+        a.add(5000, 5);
+        DataReader.TransactionList b = new DataReader.TransactionList();
+        b.add(1000, 1);
+        b.add(3000, 4);
+        List<KeyValue> cells = new ArrayList<KeyValue>();
+        // a data cell sorts after the slices
+        cells.add(new KeyValue(Bytes.toBytes("k"), Bytes.toBytes("cf1"), TickSlices.column(1000), CellFormat.BINARY.encode(b)));
+        cells.add(new KeyValue(Bytes.toBytes("k"), Bytes.toBytes("cf1"), TickDataClient.DATA_COLUMN, CellFormat.JSON_MAPS.encode(a)));
+        DataReader.TransactionList r = TickSlices.stitch(cells);
+        assertEquals(4, r.size());
+        assertEquals(1000, r.times[0]);
+        // equal times keep the order of the cells
+        assertEquals(4, r.opens[1], 0);
+        assertEquals(3, r.opens[2], 0);
+        assertEquals(5000, r.times[3]);
+        assertEquals(0, TickSlices.stitch(Collections.<KeyValue>emptyList()).size());
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        RegionSimulator simulator = new RegionSimulator(new ArrayList<byte[]>());
+        TickDataClient client = new TickDataClient("", "cf1", "ticks");
+        client.setBackend(simulator);
+        client.setKeyFormat(KeyFormat.BINARY);
+        client.init();
+
+        long start = TickDataClient.bucketStart(1431955800000L, TickDataClient.HOUR);
+        DataReader.TransactionList first = new DataReader.TransactionList();
+        DataReader.TransactionList second = new DataReader.TransactionList();
+        DataReader.TransactionList all = new DataReader.TransactionList();
+        for (int i = 0; i < 600; i++) {
+            // ten minutes, the second five arriving later
+            (i < 300 ? first : second).add(start + i * 1000, i);
+            all.add(start + i * 1000, i);
+        }
+        client.putTicks("AAPL", first, TickDataClient.HOUR, MINUTE, CellFormat.BINARY).joinUninterruptibly(1000);
+        assertEquals(300, client.getTicks("AAPL", start, TickDataClient.HOUR, 1000).size());
+        long requests = simulator.getRequests();
+        client.putTicks("AAPL", second, TickDataClient.HOUR, MINUTE, CellFormat.BINARY).joinUninterruptibly(1000);
+        // only the new slices were written, in one put
+        assertEquals(1, simulator.getRequests() - requests);
+        assertEquals(1, simulator.getRows());
+
+        assertEquals(all.asJsonMaps(), client.getTicks("AAPL", start, TickDataClient.HOUR, 1000).asJsonMaps());
+        // any time in the bucket gives all of it, not just what comes after
+        assertEquals(all.asJsonMaps(), client.getTicks("AAPL", start + 30 * MINUTE, TickDataClient.HOUR, 1000).asJsonMaps());
+        DataReader.TransactionList range = client.getTicks("AAPL", start + 90 * 1000, start + 150 * 1000, TickDataClient.HOUR, 1000);
+        assertEquals(60, range.size());
+        assertEquals(start + 90 * 1000, range.times[0]);
+        client.term();
+    }
+}
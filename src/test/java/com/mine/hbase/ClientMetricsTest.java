@@ -0,0 +1,78 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClientMetricsTest {
+
+	@Test
+	public void testRecorder() throws Exception {
+		OperationMetrics metrics = new OperationMetrics("put");
+		Deferred<Object> put = new Deferred<Object>();
+		put.addBoth(new ClientMetrics.Recorder<Object>(metrics, 100, null));
+		assertEquals(1, metrics.getInFlight());
+		assertEquals(0, metrics.getCount());
+		put.callback(null);
+		assertEquals(0, metrics.getInFlight());
+		assertEquals(1, metrics.getCount());
+		assertEquals(100, metrics.getBytes());
+
+		Deferred<Object> failed = new Deferred<Object>();
+		failed.addBoth(new ClientMetrics.Recorder<Object>(metrics, 100, null));
+		failed.callback(new RuntimeException("failed"));
+		assertEquals(2, metrics.getCount());
+		assertEquals(1, metrics.getErrors());
+		assertEquals(100, metrics.getBytes());
+
+		// gets count what comes back
+		OperationMetrics gets = new OperationMetrics("get");
+		Deferred<ArrayList<KeyValue>> get = new Deferred<ArrayList<KeyValue>>();
+		get.addBoth(new ClientMetrics.Recorder<ArrayList<KeyValue>>(gets, -1, null));
+		ArrayList<KeyValue> row = new ArrayList<KeyValue>();
+		row.add(new KeyValue("key".getBytes(), "a".getBytes(), "data".getBytes(), new byte[100]));
+		get.callback(row);
+		assertEquals(64 + 3 + 1 + 4 + 100, gets.getBytes());
+		assertTrue(gets.getMaxMicros() >= gets.getP50Micros());
+	}
+
+	@Test
+	public void testSummary() {
+		OperationMetrics metrics = new OperationMetrics("delete");
+		assertNull(metrics.summary());
+		metrics.done(metrics.start(), 10, true);
+		String summary = metrics.summary();
+		assertNotNull(summary);
+		assertTrue(summary, summary.startsWith("delete: "));
+		// nothing since
+		assertNull(metrics.summary());
+	}
+
+	@Test
+	public void testJmx() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.mine.hbase:type=GenericHBaseClient,table=" + ObjectName.quote("/tables/ticks") + ",operation=put");
+		ClientMetrics metrics = new ClientMetrics("/tables/ticks", 0);
+		metrics.start();
+		try {
+			metrics.getPuts().done(metrics.getPuts().start(), 10, true);
+			assertEquals(1L, server.getAttribute(name, "Count"));
+			assertEquals(10L, server.getAttribute(name, "Bytes"));
+		}
+		finally {
+			metrics.stop();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,65 @@
+package com.mine.hbase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlushIntervalControllerTest {
+
+	@Test
+	public void testAdjust() {
+		FlushIntervalController controller = new FlushIntervalController("testAdjust", 100, (short) 10, (short) 1000, null);
+		assertEquals(HBaseClientManager.DEFAULT_MAX_BATCH_TIME, controller.getInterval());
+
+		// too slow, down by the overshoot
+		record(controller, 400);
+		assertTrue(controller.adjust());
+		// the percentile is only good to a few percent
+		assertTrue(controller.getInterval() > 680 && controller.getInterval() <= 700);
+		record(controller, 5000);
+		assertTrue(controller.adjust());
+		assertEquals(10, controller.getInterval());
+
+		// fast, up by half the headroom
+		record(controller, 20);
+		assertTrue(controller.adjust());
+		assertEquals(50, controller.getInterval());
+
+		// close enough to the target
+		record(controller, 90);
+		assertFalse(controller.adjust());
+
+		// not enough puts to go by
+		for (int i = 0; i < FlushIntervalController.MIN_SAMPLES - 1; i++) {
+			controller.record(1000000);
+		}
+		assertFalse(controller.adjust());
+		assertEquals(50, controller.getInterval());
+	}
+
+	@Test
+	public void testFullWindow() {
+		WriteWindow window = new WriteWindow(1000, 1);
+		FlushIntervalController controller = new FlushIntervalController("testFullWindow", 100, (short) 0, (short) 200, window);
+		assertEquals(200, controller.getInterval());
+		record(controller, 500);
+		controller.adjust();
+		assertEquals(0, controller.getInterval());
+
+		window.acquire(10);
+		record(controller, 10);
+		assertFalse(controller.adjust());
+		window.release(10);
+		record(controller, 10);
+		assertTrue(controller.adjust());
+		assertEquals(45, controller.getInterval());
+	}
+
+	private static void record(FlushIntervalController controller, long millis) {
+		for (int i = 0; i < FlushIntervalController.MIN_SAMPLES; i++) {
+			controller.record(millis * 1000);
+		}
+	}
+}
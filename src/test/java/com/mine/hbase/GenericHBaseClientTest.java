@@ -0,0 +1,203 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.DeleteRequest;
+import org.hbase.async.GetRequest;
+import org.hbase.async.KeyValue;
+import org.hbase.async.PutRequest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GenericHBaseClientTest {
+
+	@Test
+	public void testMultiGet() throws Exception {
+		FakeGets gets = new FakeGets();
+		GenericHBaseClient client = client(gets);
+		client.setMaxGetsInFlight(2);
+
+		List<byte[]> keys = Arrays.asList("c".getBytes(), "a".getBytes(), "missing".getBytes(), "b".getBytes());
+		Deferred<ArrayList<ArrayList<KeyValue>>> result = client.performGet(keys, "data".getBytes());
+		// capped, and sent in row key order
+		assertEquals(2, gets.requests.size());
+		assertEquals("a", new String(gets.requests.get(0).key()));
+		assertEquals("b", new String(gets.requests.get(1).key()));
+		assertEquals("data", new String(gets.requests.get(0).qualifiers[0]));
+
+		while (gets.answered < gets.requests.size()) {
+			gets.answer(gets.answered);
+		}
+		ArrayList<ArrayList<KeyValue>> rows = result.joinUninterruptibly(1000);
+		assertEquals(4, gets.requests.size());
+		// in the order asked for
+		assertEquals(4, rows.size());
+		assertEquals("c", new String(rows.get(0).get(0).key()));
+		assertEquals("a", new String(rows.get(1).get(0).key()));
+		assertTrue(rows.get(2).isEmpty());
+		assertEquals("b", new String(rows.get(3).get(0).key()));
+	}
+
+	@Test
+	public void testMultiGetFailure() throws Exception {
+		FakeGets gets = new FakeGets();
+		GenericHBaseClient client = client(gets);
+		client.setMaxGetsInFlight(1);
+		Deferred<ArrayList<ArrayList<KeyValue>>> result = client.performGet(Arrays.asList("a".getBytes(), "b".getBytes(), "c".getBytes()), null);
+		gets.requests.clear();
+		gets.pending.remove(0).callback(new RuntimeException("region moved"));
+		try {
+			result.joinUninterruptibly(1000);
+			fail();
+		}
+		catch (RuntimeException e) {
+			assertEquals("region moved", e.getMessage());
+		}
+		// nothing more was sent
+		assertTrue(gets.requests.isEmpty());
+	}
+
+	@Test
+	public void testMultiGetDeadline() throws Exception {
+		FakeGets gets = new FakeGets();
+		GenericHBaseClient client = client(gets);
+		client.setMaxGetsInFlight(1);
+		long t0 = System.currentTimeMillis();
+		try {
+			client.performGet(Arrays.asList("a".getBytes(), "b".getBytes()), null, 50);
+			fail();
+		}
+		catch (TimeExceededException e) {
+			// one deadline for the batch, not one per get
+			assertTrue(System.currentTimeMillis() - t0 < 1000);
+		}
+		gets.answer(0);
+		assertEquals(1, gets.requests.size());
+	}
+
+	@Test
+	public void testMultiGetImmediate() throws Exception {
+		GenericHBaseClient client = client(new FakeGets() {
+
+			@Override
+			Deferred<ArrayList<KeyValue>> get(GetRequest r) {
+				return Deferred.fromResult(row(r.key()));
+			}
+		});
+		List<byte[]> keys = new ArrayList<byte[]>();
+		for (int i = 0; i < 100000; i++) {
+			keys.add(("key" + i).getBytes());
+		}
+		// completions that come straight back must not recurse
+		ArrayList<ArrayList<KeyValue>> rows = client.performGet(keys, null, 5000);
+		assertEquals(keys.size(), rows.size());
+		assertEquals("key99999", new String(rows.get(99999).get(0).key()));
+		assertTrue(client.performGet(new ArrayList<byte[]>(), null, 1000).isEmpty());
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		final List<PutRequest> puts = new ArrayList<PutRequest>();
+		FakeGets gets = new FakeGets() {
+
+			@Override
+			Deferred<ArrayList<KeyValue>> get(GetRequest r) {
+				requests.add(r);
+				return Deferred.fromResult(row(r.key()));
+			}
+
+			@Override
+			Deferred<Object> put(PutRequest r) {
+				puts.add(r);
+				return Deferred.fromResult(null);
+			}
+		};
+		GenericHBaseClient client = client(gets);
+		client.enableCache(1 << 20);
+		byte[] key = "AAPL".getBytes();
+		assertEquals(1, client.performGet(key, "data".getBytes()).joinUninterruptibly(1000).size());
+		assertEquals(1, client.performGet(key, "data".getBytes()).joinUninterruptibly(1000).size());
+		assertEquals(1, gets.requests.size());
+		assertEquals(1, client.getCache().getHits());
+
+		// a write drops the row
+		client.performPut(new KeyValue(key, "a".getBytes(), "data".getBytes(), new byte[1])).joinUninterruptibly(1000);
+		assertEquals(1, puts.size());
+		client.performGet(key, "data".getBytes()).joinUninterruptibly(1000);
+		assertEquals(2, gets.requests.size());
+
+		// as does a put of several cells, which goes as one request
+		List<KeyValue> row = new ArrayList<KeyValue>();
+		row.add(new KeyValue(key, "a".getBytes(), "data".getBytes(), new byte[1]));
+		row.add(new KeyValue(key, "a".getBytes(), "hash".getBytes(), new byte[8]));
+		client.performRowPut(row).joinUninterruptibly(1000);
+		assertEquals(2, puts.size());
+		assertEquals(2, puts.get(1).qualifiers().length);
+		client.performGet(key, "data".getBytes()).joinUninterruptibly(1000);
+		assertEquals(3, gets.requests.size());
+	}
+
+	private static GenericHBaseClient client(final FakeGets gets) {
+		return new GenericHBaseClient("", "a", "t") {
+
+			@Override
+			protected Deferred<ArrayList<KeyValue>> send(GetRequest request) {
+				return gets.get(request);
+			}
+
+			@Override
+			protected Deferred<Object> send(PutRequest request) {
+				return gets.put(request);
+			}
+
+			@Override
+			protected Deferred<Object> send(DeleteRequest request) {
+				return gets.delete(request);
+			}
+		};
+	}
+
+	/**
+	 * Answers gets when told to, rows whose key starts with "missing" don't exist.
+	 */
+	private static class FakeGets {
+
+		final List<GetRequest> requests = new ArrayList<GetRequest>();
+		final List<Deferred<ArrayList<KeyValue>>> pending = new ArrayList<Deferred<ArrayList<KeyValue>>>();
+		int answered = 0;
+
+		Deferred<ArrayList<KeyValue>> get(GetRequest r) {
+			Deferred<ArrayList<KeyValue>> d = new Deferred<ArrayList<KeyValue>>();
+			requests.add(r);
+			pending.add(d);
+			return d;
+		}
+
+		void answer(int i) {
+			answered++;
+			pending.get(i).callback(row(requests.get(i).key()));
+		}
+
+		static ArrayList<KeyValue> row(byte[] key) {
+			ArrayList<KeyValue> row = new ArrayList<KeyValue>();
+			if (!new String(key).startsWith("missing")) {
+				row.add(new KeyValue(key, "a".getBytes(), "data".getBytes(), key));
+			}
+			return row;
+		}
+
+		Deferred<Object> put(PutRequest r) {
+			throw new UnsupportedOperationException();
+		}
+
+		Deferred<Object> delete(DeleteRequest r) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
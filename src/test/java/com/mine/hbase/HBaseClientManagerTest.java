@@ -0,0 +1,54 @@
+package com.mine.hbase;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.mapr.hadoop.KeyFormat;
+import com.mapr.hadoop.SymbolDictionary;
+import com.mapr.hadoop.TickDataClient;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HBaseClientManagerTest {
+
+	@Test
+	public void testShard() throws IOException {
+		SymbolDictionary symbols = SymbolDictionary.read(Resources.newReaderSupplier(Resources.getResource("symbols_only.tsv"), Charsets.UTF_8));
+		int shards = 4;
+		// row keys as TickDataClient makes them, which mostly differ in their last bytes
+		for (KeyFormat format : KeyFormat.values()) {
+			for (long interval : new long[]{TickDataClient.HOUR, 5 * 60 * 1000L}) {
+				int[] counts = new int[shards];
+				for (int symbol = 0; symbol < symbols.size(); symbol++) {
+					for (int bucket = 0; bucket < 8; bucket++) {
+						byte[] key = format.encode(symbols.name(symbol), 1431939600000L + bucket * interval, interval);
+						int shard = HBaseClientManager.shard(key, shards);
+						assertTrue(shard >= 0 && shard < shards);
+						assertEquals(shard, HBaseClientManager.shard(key.clone(), shards));
+						counts[shard]++;
+					}
+				}
+				int expected = 8 * symbols.size() / shards;
+				for (int count : counts) {
+					assertTrue("uneven shards " + count + " for " + format + " keys", Math.abs(count - expected) < expected / 10);
+				}
+			}
+		}
+		assertEquals(0, HBaseClientManager.shard(new byte[0], 1));
+	}
+
+	@Test
+	public void testPoolSize() {
+		assertEquals(HBaseClientManager.DEFAULT_POOL_SIZE, HBaseClientManager.getPoolSize("testPoolSize"));
+		HBaseClientManager.setPoolSize("testPoolSize", 3);
+		assertEquals(3, HBaseClientManager.getPoolSize("testPoolSize"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadPoolSize() {
+		HBaseClientManager.setPoolSize("testBadPoolSize", 0);
+	}
+}
@@ -0,0 +1,53 @@
+package com.mine.hbase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testPercentile() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.percentile(0.99));
+		for (int i = 1; i <= 100000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(100000, histogram.count());
+		assertWithin(50000, histogram.percentile(0.5));
+		assertWithin(99000, histogram.percentile(0.99));
+		assertWithin(100000, histogram.percentile(1));
+		// small values are exact
+		LatencyHistogram small = new LatencyHistogram();
+		small.record(3);
+		small.record(-1);
+		assertEquals(3, small.percentile(1));
+		assertEquals(0, small.percentile(0.5));
+	}
+
+	@Test
+	public void testBuckets() {
+		for (long v = 0; v < 1 << 20; v += 7) {
+			int bucket = LatencyHistogram.bucket(v);
+			assertTrue(v <= LatencyHistogram.upperBound(bucket));
+			assertTrue(bucket == 0 || v > LatencyHistogram.upperBound(bucket - 1));
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testDrain() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1000);
+		histogram.record(2000);
+		LatencyHistogram drained = histogram.drain();
+		assertEquals(0, histogram.count());
+		assertEquals(2, drained.count());
+		assertWithin(2000, drained.percentile(1));
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(actual + " is not about " + expected, actual >= expected && actual <= expected * 1.07);
+	}
+}
@@ -0,0 +1,222 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelScanTest {
+
+	@Test
+	public void testBoundaries() {
+		List<byte[]> splits = Arrays.asList("m".getBytes(), "c".getBytes(), "x".getBytes(), "a".getBytes());
+		assertEquals("[, a, c, m, x, ]", keys(ParallelScan.boundaries(new byte[0], new byte[0], splits)));
+		// splits outside the range, or on its edges, don't cut it
+		assertEquals("[c, m, x]", keys(ParallelScan.boundaries("c".getBytes(), "x".getBytes(), splits)));
+		assertEquals("[b, c, d]", keys(ParallelScan.boundaries("b".getBytes(), "d".getBytes(), splits)));
+		assertEquals("[y, ]", keys(ParallelScan.boundaries("y".getBytes(), new byte[0], splits)));
+	}
+
+	@Test
+	public void testOrdered() throws Exception {
+		FakeRange a = new FakeRange("a", 5, 2);
+		FakeRange b = new FakeRange("b", 7, 3);
+		FakeRange c = new FakeRange("c", 0, 3);
+		FakeRange d = new FakeRange("d", 4, 10);
+		ParallelScan scan = new ParallelScan(Arrays.<ParallelScan.Range>asList(a, b, c, d), true, 100).start();
+		// all of them fetch at once
+		assertTrue(a.pending != null && b.pending != null && c.pending != null && d.pending != null);
+
+		// later ranges answer first, but their rows wait
+		while (d.answer() || b.answer() || c.answer()) {
+		}
+		try {
+			scan.nextRow(20);
+			fail();
+		}
+		catch (TimeExceededException e) {
+			// nothing from a yet
+		}
+		a.answerAll();
+		assertEquals("a0 a1 a2 a3 a4 b0 b1 b2 b3 b4 b5 b6 d0 d1 d2 d3", read(scan));
+		assertTrue(a.closed && b.closed && c.closed && d.closed);
+	}
+
+	@Test
+	public void testUnordered() throws Exception {
+		FakeRange a = new FakeRange("a", 5, 2);
+		FakeRange b = new FakeRange("b", 3, 3);
+		ParallelScan scan = new ParallelScan(Arrays.<ParallelScan.Range>asList(a, b), false, 100).start();
+		b.answerAll();
+		// b's rows don't wait for a
+		assertEquals("b0", key(scan.nextRow(1000)));
+		a.answer();
+		assertEquals("a0", key(scan.nextRow(1000)));
+		assertEquals("b1", key(scan.nextRow(1000)));
+		a.answerAll();
+		assertEquals("a1 b2 a2 a3 a4", read(scan));
+	}
+
+	@Test
+	public void testBuffering() throws Exception {
+		FakeRange a = new FakeRange("a", 10000, 10);
+		a.immediate = true;
+		ParallelScan scan = new ParallelScan(Arrays.<ParallelScan.Range>asList(a), true, 100).start();
+		// stops fetching once it is ahead of the reader
+		assertEquals(100, scan.getBuffered());
+		assertEquals("a0", key(scan.nextRow(1000)));
+		assertEquals(109, scan.getBuffered());
+		int rows = 1;
+		while (scan.nextRow(1000) != null) {
+			rows++;
+			assertTrue(scan.getBuffered() <= 110);
+		}
+		assertEquals(10000, rows);
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		FakeRange a = new FakeRange("a", 5, 1);
+		FakeRange b = new FakeRange("b", 5, 1);
+		ParallelScan scan = new ParallelScan(Arrays.<ParallelScan.Range>asList(a, b), false, 100).start();
+		a.answer();
+		b.pending.callback(new RuntimeException("region moved"));
+		try {
+			scan.nextRow(1000);
+			fail();
+		}
+		catch (HBaseRequestException e) {
+			assertEquals("region moved", e.getCause().getMessage());
+		}
+		// the outstanding fetch of a closes it once it is back
+		assertTrue(b.closed);
+		a.answer();
+		assertTrue(a.closed);
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		FakeRange a = new FakeRange("a", 5, 1);
+		a.immediate = true;
+		ParallelScan scan = new ParallelScan(Arrays.<ParallelScan.Range>asList(a), true, 100).start();
+		assertEquals("a0", key(scan.nextRow(1000)));
+		scan.close();
+		assertTrue(a.closed);
+		assertNull(scan.nextRow(1000));
+	}
+
+	@Test
+	public void testScan() throws Exception {
+		final List<String> opened = new ArrayList<String>();
+		GenericHBaseClient client = new GenericHBaseClient("", "a", "t") {
+
+			@Override
+			protected ParallelScan.Range openRange(byte[] startKey, byte[] stopKey) {
+				opened.add(new String(startKey) + "-" + new String(stopKey));
+				FakeRange range = new FakeRange(new String(startKey), 2, 2);
+				range.immediate = true;
+				return range;
+			}
+		};
+		ParallelScan scan = client.scan("b".getBytes(), new byte[0], Arrays.asList("a".getBytes(), "m".getBytes()), true, 10);
+		assertEquals("[b-m, m-]", opened.toString());
+		assertEquals(2, scan.getRanges());
+		assertEquals("b0 b1 m0 m1", read(scan));
+	}
+
+	private static String read(ParallelScan scan) throws Exception {
+		StringBuilder r = new StringBuilder();
+		ArrayList<KeyValue> row;
+		while ((row = scan.nextRow(1000)) != null) {
+			r.append(r.length() == 0 ? "" : " ").append(key(row));
+		}
+		return r.toString();
+	}
+
+	private static String key(ArrayList<KeyValue> row) {
+		return new String(row.get(0).key());
+	}
+
+	private static String keys(List<byte[]> keys) {
+		List<String> r = new ArrayList<String>();
+		for (byte[] key : keys) {
+			r.add(new String(key));
+		}
+		return r.toString();
+	}
+
+	/**
+	 * Rows prefix0, prefix1, ... in batches, each batch when told to unless immediate.
+	 */
+	private static class FakeRange implements ParallelScan.Range {
+
+		final String prefix;
+		final int rows;
+		final int batch;
+		boolean immediate = false;
+		int next = 0;
+		Deferred<ArrayList<ArrayList<KeyValue>>> pending = null;
+		boolean closed = false;
+
+		FakeRange(String prefix, int rows, int batch) {
+			this.prefix = prefix;
+			this.rows = rows;
+			this.batch = batch;
+		}
+
+		@Override
+		public Deferred<ArrayList<ArrayList<KeyValue>>> nextRows() {
+			// one fetch at a time
+			assertNull(pending);
+			pending = new Deferred<ArrayList<ArrayList<KeyValue>>>();
+			Deferred<ArrayList<ArrayList<KeyValue>>> result = pending;
+			if (immediate) {
+				answer();
+			}
+			return result;
+		}
+
+		/**
+		 * @return False if there was nothing to answer.
+		 */
+		boolean answer() {
+			Deferred<ArrayList<ArrayList<KeyValue>>> d = pending;
+			if (d == null) {
+				return false;
+			}
+			pending = null;
+			if (next == rows) {
+				d.callback(null);
+				return true;
+			}
+			ArrayList<ArrayList<KeyValue>> r = new ArrayList<ArrayList<KeyValue>>();
+			for (; next < rows && r.size() < batch; next++) {
+				byte[] key = (prefix + next).getBytes();
+				ArrayList<KeyValue> row = new ArrayList<KeyValue>();
+				row.add(new KeyValue(key, "a".getBytes(), "data".getBytes(), key));
+				r.add(row);
+			}
+			d.callback(r);
+			return true;
+		}
+
+		void answerAll() {
+			while (answer()) {
+			}
+		}
+
+		@Override
+		public Deferred<Object> close() {
+			closed = true;
+			return Deferred.fromResult(null);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RegionSimulatorTest {
+
+	@Test
+	public void testPutGetDelete() throws Exception {
+		RegionSimulator simulator = new RegionSimulator(Arrays.asList("m".getBytes()));
+		GenericHBaseClient client = client(simulator);
+		client.performPut(kv("a", "q1", "1")).joinUninterruptibly(1000);
+		client.performPut(kv("a", "q2", "2")).joinUninterruptibly(1000);
+		client.performPut(kv("x", "q1", "3")).joinUninterruptibly(1000);
+		assertEquals("[1, 1]", Arrays.toString(simulator.getRowsPerRegion()));
+
+		ArrayList<KeyValue> row = client.performGet("a".getBytes(), 1000);
+		assertEquals(2, row.size());
+		assertEquals("2", new String(row.get(1).value()));
+		assertEquals("3", new String(client.performGet("x".getBytes(), "q1".getBytes()).joinUninterruptibly(1000).get(0).value()));
+		assertTrue(client.performGet("b".getBytes(), 1000).isEmpty());
+
+		client.performDeleteCell(kv("a", "q1", "")).joinUninterruptibly(1000);
+		assertEquals(1, client.performGet("a".getBytes(), 1000).size());
+		client.performDelete("a".getBytes()).joinUninterruptibly(1000);
+		assertTrue(client.performGet("a".getBytes(), 1000).isEmpty());
+		assertEquals(1, simulator.getRows());
+		client.term();
+	}
+
+	@Test
+	public void testScan() throws Exception {
+		RegionSimulator simulator = new RegionSimulator(Arrays.asList("k2".getBytes(), "k5".getBytes()));
+		GenericHBaseClient client = client(simulator);
+		List<byte[]> keys = new ArrayList<byte[]>();
+		for (int i = 0; i < 1000; i++) {
+			String key = "k" + i;
+			client.performPut(kv(key, "q", key));
+			keys.add(key.getBytes());
+		}
+		assertEquals(1000, client.performGet(keys, null, 5000).size());
+
+		// one scanner walks all three regions
+		ParallelScan.Range range = simulator.scan("k1".getBytes(), "k7".getBytes());
+		int rows = 0;
+		ArrayList<ArrayList<KeyValue>> batch;
+		while ((batch = range.nextRows().joinUninterruptibly(1000)) != null) {
+			assertTrue(batch.size() <= RegionSimulator.SCAN_BATCH);
+			rows += batch.size();
+		}
+		// k1, k10-k19, k100-k199 and so on up to k6...
+		assertEquals(666, rows);
+
+		ParallelScan scan = client.scan(new byte[0], new byte[0], Arrays.asList("k2".getBytes(), "k5".getBytes()), true, 100);
+		String last = "";
+		rows = 0;
+		ArrayList<KeyValue> row;
+		while ((row = scan.nextRow(1000)) != null) {
+			String key = new String(row.get(0).key());
+			assertTrue(key.compareTo(last) > 0);
+			last = key;
+			rows++;
+		}
+		assertEquals(1000, rows);
+		client.term();
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		RegionSimulator simulator = new RegionSimulator(new ArrayList<byte[]>());
+		simulator.setFailureRate(1);
+		GenericHBaseClient client = client(simulator);
+		try {
+			client.performPut(kv("a", "q", "1")).joinUninterruptibly(1000);
+			fail();
+		}
+		catch (HBaseRequestException e) {
+			assertEquals("Simulated failure", e.getMessage());
+		}
+		assertEquals(1, simulator.getFailures());
+		// failed writes aren't applied
+		assertEquals(0, simulator.getRows());
+
+		// and retries get them through, as long as few enough fail for the engine to keep trying
+		simulator.setFailureRate(0.1);
+		client.setRetryBackoff(1, 5);
+		List<KeyValue> puts = new ArrayList<KeyValue>();
+		for (int i = 0; i < 100; i++) {
+			puts.add(kv("k" + i, "q", "1"));
+		}
+		Map<Deferred<Object>, KeyValue> sent = new HashMap<Deferred<Object>, KeyValue>();
+		for (KeyValue put : puts) {
+			sent.put(client.performPut(put), put);
+		}
+		simulator.setFailureRate(0);
+		assertEquals(100, (int) client.retryPuts(sent, 3).joinUninterruptibly(5000));
+		assertEquals(100, simulator.getRows());
+		assertTrue(simulator.getFailures() > 1);
+		client.term();
+	}
+
+	@Test
+	public void testLatency() throws Exception {
+		RegionSimulator simulator = new RegionSimulator(Arrays.asList("m".getBytes()));
+		simulator.setLatency(20, 10);
+		GenericHBaseClient client = client(simulator);
+		long t0 = System.nanoTime();
+		client.performPut(kv("a", "q", "1")).joinUninterruptibly(1000);
+		long millis = (System.nanoTime() - t0) / 1000000;
+		assertTrue(millis + " ms", millis >= 20 && millis < 500);
+
+		// 10 KB a second, so 1 KB takes a tenth of a second, and puts to a region queue up
+		simulator.setLatency(0, 0);
+		simulator.setRegionBandwidth(10000);
+		t0 = System.nanoTime();
+		client.performPut(kv("a", "q", new String(new byte[1000]))).joinUninterruptibly(1000);
+		client.performPut(kv("b", "q", new String(new byte[1000]))).joinUninterruptibly(1000);
+		millis = (System.nanoTime() - t0) / 1000000;
+		assertTrue(millis + " ms", millis >= 190 && millis < 1000);
+
+		// the other region isn't held up
+		t0 = System.nanoTime();
+		client.performPut(kv("x", "q", "1")).joinUninterruptibly(1000);
+		assertTrue((System.nanoTime() - t0) / 1000000 < 50);
+		client.term();
+	}
+
+	private static GenericHBaseClient client(RegionSimulator simulator) throws Exception {
+		GenericHBaseClient client = new GenericHBaseClient("", "a", "t") {
+		};
+		client.setBackend(simulator);
+		client.init();
+		return client;
+	}
+
+	private static KeyValue kv(String key, String qualifier, String value) {
+		return new KeyValue(key.getBytes(), "a".getBytes(), qualifier.getBytes(), value.getBytes());
+	}
+}
@@ -0,0 +1,157 @@
+package com.mine.hbase;
+
+import com.stumbleupon.async.Deferred;
+import org.hbase.async.KeyValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryEngineTest {
+
+	@Test
+	public void testRetriesUntilSuccess() throws Exception {
+		final AtomicInteger sends = new AtomicInteger();
+		RetryEngine engine = new RetryEngine(1, 10);
+		Map<Deferred<Object>, KeyValue> submitLog = new HashMap<Deferred<Object>, KeyValue>();
+		submitLog.put(Deferred.<Object>fromError(new RuntimeException("first")), keyValue(0));
+		submitLog.put(Deferred.<Object>fromResult(null), keyValue(1));
+
+		// fails twice more and then works
+		RetryEngine.Batch batch = engine.retry(submitLog, new RetryEngine.Request() {
+
+			@Override
+			public Deferred<Object> send(KeyValue keyValue) {
+				if (sends.incrementAndGet() < 3) {
+					return Deferred.fromError(new RuntimeException("again"));
+				}
+				return Deferred.fromResult(null);
+			}
+		}, 5);
+		assertEquals(2, (int) batch.getCompletion().joinUninterruptibly(5000));
+		assertEquals(3, sends.get());
+		assertEquals(0, batch.getFailed());
+	}
+
+	@Test
+	public void testGivesUp() throws Exception {
+		RetryEngine engine = new RetryEngine(1, 10);
+		Map<Deferred<Object>, KeyValue> submitLog = new HashMap<Deferred<Object>, KeyValue>();
+		submitLog.put(Deferred.<Object>fromError(new RuntimeException("first")), keyValue(0));
+		RetryEngine.Batch batch = engine.retry(submitLog, new RetryEngine.Request() {
+
+			@Override
+			public Deferred<Object> send(KeyValue keyValue) {
+				return Deferred.fromError(new RuntimeException("again"));
+			}
+		}, 2);
+		assertEquals(0, (int) batch.getCompletion().joinUninterruptibly(5000));
+		assertEquals(1, batch.getFailed());
+		assertEquals("again", batch.getLastError().getMessage());
+	}
+
+	@Test
+	public void testCallerSeesOutcome() throws Exception {
+		RetryEngine engine = new RetryEngine(1, 10);
+		Deferred<Object> retried = Deferred.fromError(new RuntimeException("first"));
+		Deferred<Object> lost = Deferred.fromError(new RuntimeException("first"));
+		Map<Deferred<Object>, KeyValue> submitLog = new HashMap<Deferred<Object>, KeyValue>();
+		submitLog.put(retried, keyValue(0));
+		submitLog.put(lost, keyValue(1));
+		RetryEngine.Batch batch = engine.retry(submitLog, new RetryEngine.Request() {
+
+			@Override
+			public Deferred<Object> send(KeyValue keyValue) {
+				if (new String(keyValue.key()).equals("key0")) {
+					return Deferred.<Object>fromResult("second");
+				}
+				return Deferred.fromError(new RuntimeException("again"));
+			}
+		}, 1);
+		batch.getCompletion().joinUninterruptibly(5000);
+		// each request's own Deferred ends the way its retries did
+		assertEquals("second", retried.joinUninterruptibly(5000));
+		try {
+			lost.joinUninterruptibly(5000);
+			fail("Should have failed");
+		}
+		catch (RuntimeException e) {
+			assertEquals("again", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testCircuitBreaker() throws Exception {
+		final AtomicInteger sends = new AtomicInteger();
+		RetryEngine engine = new RetryEngine(1, 10);
+		Map<Deferred<Object>, KeyValue> submitLog = new HashMap<Deferred<Object>, KeyValue>();
+		for (int i = 0; i < 30; i++) {
+			submitLog.put(Deferred.<Object>fromError(new RuntimeException("down")), keyValue(i));
+		}
+		RetryEngine.Batch batch = engine.retry(submitLog, new RetryEngine.Request() {
+
+			@Override
+			public Deferred<Object> send(KeyValue keyValue) {
+				sends.incrementAndGet();
+				return Deferred.fromResult(null);
+			}
+		}, 5);
+		int succeeded = batch.getCompletion().joinUninterruptibly(5000);
+		assertTrue(batch.isOpen());
+		// only failures up to a third of the batch were retried
+		assertEquals(10, sends.get());
+		assertEquals(10, succeeded);
+		assertEquals(20, batch.getFailed());
+	}
+
+	@Test
+	public void testNeverBlocks() throws Exception {
+		RetryEngine engine = new RetryEngine(1, 10);
+		List<Deferred<Object>> puts = new ArrayList<Deferred<Object>>();
+		Map<Deferred<Object>, KeyValue> submitLog = new HashMap<Deferred<Object>, KeyValue>();
+		for (int i = 0; i < 50000; i++) {
+			Deferred<Object> put = new Deferred<Object>();
+			puts.add(put);
+			submitLog.put(put, keyValue(i));
+		}
+		RetryEngine.Batch batch = engine.retry(submitLog, new RetryEngine.Request() {
+
+			@Override
+			public Deferred<Object> send(KeyValue keyValue) {
+				return Deferred.fromResult(null);
+			}
+		}, 1);
+		// nothing has completed, yet the call has returned
+		assertEquals(0, batch.getSucceeded());
+		for (int i = 0; i < puts.size(); i++) {
+			puts.get(i).callback(i % 100 == 0 ? new RuntimeException("odd one") : null);
+		}
+		assertEquals(50000, (int) batch.getCompletion().joinUninterruptibly(5000));
+		assertFalse(batch.isOpen());
+	}
+
+	@Test
+	public void testDelay() {
+		RetryEngine engine = new RetryEngine(100, 1000);
+		for (int i = 0; i < 100; i++) {
+			long first = engine.delay(1);
+			assertTrue(first >= 50 && first <= 100);
+			long third = engine.delay(3);
+			assertTrue(third >= 200 && third <= 400);
+			long late = engine.delay(40);
+			assertTrue(late >= 500 && late <= 1000);
+		}
+	}
+
+	private static KeyValue keyValue(int i) {
+		return new KeyValue(("key" + i).getBytes(), "a".getBytes(), "data".getBytes(), new byte[0]);
+	}
+}
@@ -0,0 +1,93 @@
+package com.mine.hbase;
+
+import org.hbase.async.KeyValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RowCacheTest {
+
+	private static final byte[] DATA = "data".getBytes();
+
+	@Test
+	public void testHitsAndMisses() {
+		RowCache cache = new RowCache(1 << 20);
+		byte[] key = "AAPL_2015-05-18-09".getBytes();
+		assertNull(cache.get(key, DATA));
+		cache.put(key, DATA, row(key, 100), cache.stamp(key), 0);
+		ArrayList<KeyValue> cached = cache.get(key, DATA);
+		assertEquals(1, cached.size());
+		// a whole row get is cached on its own
+		assertNull(cache.get(key, null));
+		// callers get their own list
+		cached.clear();
+		assertEquals(1, cache.get(key.clone(), DATA).size());
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0);
+	}
+
+	@Test
+	public void testEviction() {
+		RowCache cache = new RowCache(3000);
+		for (int i = 0; i < 3; i++) {
+			byte[] key = ("row" + i).getBytes();
+			cache.put(key, DATA, row(key, 700), cache.stamp(key), 0);
+		}
+		assertEquals(3, cache.getRows());
+		// row0 was used last, so row1 goes first
+		assertNotNull(cache.get("row0".getBytes(), DATA));
+		byte[] key = "row3".getBytes();
+		cache.put(key, DATA, row(key, 700), cache.stamp(key), 0);
+		assertNull(cache.get("row1".getBytes(), DATA));
+		assertNotNull(cache.get("row0".getBytes(), DATA));
+		assertEquals(1, cache.getEvictions());
+		assertTrue(cache.getBytes() <= 3000);
+
+		// too big to ever fit
+		key = "huge".getBytes();
+		cache.put(key, DATA, row(key, 5000), cache.stamp(key), 0);
+		assertNull(cache.get(key, DATA));
+	}
+
+	@Test
+	public void testTtl() throws InterruptedException {
+		RowCache cache = new RowCache(1 << 20);
+		byte[] key = "AAPL".getBytes();
+		cache.put(key, DATA, row(key, 10), cache.stamp(key), 20);
+		assertNotNull(cache.get(key, DATA));
+		Thread.sleep(40);
+		assertNull(cache.get(key, DATA));
+		assertEquals(1, cache.getExpirations());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testInvalidate() {
+		RowCache cache = new RowCache(1 << 20);
+		byte[] key = "AAPL".getBytes();
+		cache.put(key, DATA, row(key, 10), cache.stamp(key), 0);
+		cache.put(key, null, row(key, 10), cache.stamp(key), 0);
+		cache.invalidate(key);
+		assertNull(cache.get(key, DATA));
+		assertNull(cache.get(key, null));
+		assertEquals(0, cache.getBytes());
+
+		// a get sent before a write must not cache what it read
+		long stamp = cache.stamp(key);
+		cache.invalidate(key);
+		cache.put(key, DATA, row(key, 10), stamp, 0);
+		assertNull(cache.get(key, DATA));
+	}
+
+	private static ArrayList<KeyValue> row(byte[] key, int size) {
+		ArrayList<KeyValue> row = new ArrayList<KeyValue>();
+		row.add(new KeyValue(key, "a".getBytes(), DATA, new byte[size]));
+		return row;
+	}
+}
@@ -0,0 +1,90 @@
+package com.mine.hbase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteWindowTest {
+
+	@Test
+	public void testLimits() {
+		WriteWindow window = new WriteWindow(1000, 3);
+		assertTrue(window.tryAcquire(400));
+		assertTrue(window.tryAcquire(400));
+		// over the bytes
+		assertFalse(window.tryAcquire(400));
+		assertTrue(window.tryAcquire(100));
+		// over the requests
+		assertFalse(window.tryAcquire(1));
+		assertEquals(900, window.getBytes());
+		assertEquals(3, window.getRequests());
+
+		window.release(400);
+		window.release(400);
+		window.release(100);
+		assertEquals(0, window.getBytes());
+		assertEquals(0, window.getRequests());
+		assertEquals(900, window.getPeakBytes());
+		assertEquals(3, window.getPeakRequests());
+
+		// too big for the window, but it can go on its own
+		assertTrue(window.tryAcquire(5000));
+		assertFalse(window.tryAcquire(1));
+	}
+
+	@Test
+	public void testParkedRunInOrder() {
+		final WriteWindow window = new WriteWindow(100, 10);
+		final List<Integer> ran = new ArrayList<Integer>();
+		for (int i = 0; i < 5; i++) {
+			final int n = i;
+			window.submit(60, new Runnable() {
+
+				@Override
+				public void run() {
+					ran.add(n);
+				}
+			});
+		}
+		assertEquals(1, ran.size());
+		assertEquals(4, window.getParked());
+
+		// each release makes room for exactly one more
+		for (int i = 1; i < 5; i++) {
+			window.release(60);
+			assertEquals(i + 1, ran.size());
+			assertEquals(i, (int) ran.get(i));
+		}
+		window.release(60);
+		assertEquals(0, window.getRequests());
+		assertEquals(0, window.getParked());
+	}
+
+	@Test
+	public void testAcquireWaits() throws InterruptedException {
+		final WriteWindow window = new WriteWindow(100, 1);
+		window.acquire(10);
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread t = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				window.acquire(10);
+				acquired.countDown();
+			}
+		});
+		t.start();
+		assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+		window.release(10);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		t.join();
+		assertEquals(1, window.getRequests());
+	}
+}
@@ -10,10 +10,10 @@ function join { local IFS="$1"; shift; echo "$*"; }
 function new_table {
     maprcli table delete -path "$TABLE_PATH"
 
-    # splits are hard coded. This is based on the NASDAQ symbol list.
+    # splits are in src/main/resources/splits.txt, which HBaseExample reads too. This is based on the NASDAQ symbol list.
     # 12 regions, may want to increase the number of regions (by resplitting the symbol list) with bigger
     # machines. The machine I'm currently using has 12 physical cores (24 threads).
-    splits="['AAIT','ATRO','CEMI','CZNC','FDML','HBNC','JUNO','MLVF','OVLY','RDUS','SPAN','UCBI','ZIOP',]"
+    splits="[$(sed "s/.*/'&',/" src/main/resources/splits.txt | tr -d '\n')]"
 
     cat <<EOF | hbase shell >/dev/null
     create '$TABLE_PATH', '$CFNAME', { SPLITS => $splits }
@@ -21,11 +21,16 @@ EOF
 }
 
 function run {
-    java -cp $CP:`hbase classpath` com.mapr.hadoop.HBaseExample $*
+    java $JAVA_OPTS -cp $CP:`hbase classpath` com.mapr.hadoop.HBaseExample $*
 }
 
 CP=`join : $(ls target/jackson*.jar target/HBaseExample*.jar target/async-*jar target/asynchbase*.jar)`
 
 echo "10 million rows"
-new_table
+# with INCREMENTAL set, only the rows that changed since the last refresh are written
+if [ -n "$INCREMENTAL" ]; then
+    JAVA_OPTS="$JAVA_OPTS -Drefresh=true"
+else
+    new_table
+fi
 run "$CFNAME" "$TABLE_PATH" "/mapr/se1/user/vgonzalez/s20150518_10M/0_0_0.csv" $NTHREADS